@@ -0,0 +1,78 @@
+package yms.tinyvelocity.benchmarks;
+
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import yms.tinyvelocity.CompiledTemplate;
+import yms.tinyvelocity.TinyVelocityEngine;
+import yms.tinyvelocity.ValuesProvider;
+import yms.tinyvelocity.providers.TreeMapValuesProvider;
+
+/**
+ * Deeply nested <b>#if</b> / <b>#else</b> blocks.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeepIfBenchmark {
+
+	@Param({ "4", "32", "128" })
+	public int depth;
+
+	private TinyVelocityEngine engine;
+	private String template;
+	private CompiledTemplate compiled;
+	private ValuesProvider provider;
+
+	@Setup
+	public void setup() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < depth; i++) {
+			sb.append("#if ($flag").append(i % 2).append(")\n");
+			sb.append("level ").append(i).append(" ${name}\n");
+			sb.append("#else\n");
+			sb.append("other ").append(i).append('\n');
+		}
+		for (int i = 0; i < depth; i++) {
+			sb.append("#end\n");
+		}
+		template = sb.toString();
+
+		TreeMap<String, Object> model = new TreeMap<String, Object>();
+		model.put("flag0", true);
+		model.put("flag1", true);
+		model.put("name", "deep");
+		provider = new TreeMapValuesProvider(model);
+		engine = new TinyVelocityEngine();
+		compiled = engine.compile(template);
+	}
+
+	@Benchmark
+	public String parse() {
+		return engine.parse(template, provider);
+	}
+
+	@Benchmark
+	public String render() {
+		return compiled.render(provider);
+	}
+
+}
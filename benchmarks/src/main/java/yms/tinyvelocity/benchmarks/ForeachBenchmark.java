@@ -0,0 +1,114 @@
+package yms.tinyvelocity.benchmarks;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import yms.tinyvelocity.CompiledTemplate;
+import yms.tinyvelocity.TinyVelocityEngine;
+import yms.tinyvelocity.ValuesProvider;
+import yms.tinyvelocity.providers.TreeMapValuesProvider;
+
+/**
+ * Large <b>#foreach</b> loops over a collection and over a primitive array,
+ * rendered to a String and streamed to a writer.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ForeachBenchmark {
+
+	@Param({ "1000", "100000" })
+	public int size;
+
+	@Param({ "list", "array" })
+	public String container;
+
+	private CompiledTemplate compiled;
+	private ValuesProvider provider;
+
+	@Setup
+	public void setup() {
+		TreeMap<String, Object> model = new TreeMap<String, Object>();
+		if (container.equals("list")) {
+			List<Integer> list = new ArrayList<Integer>();
+			for (int i = 0; i < size; i++) {
+				list.add(i);
+			}
+			model.put("items", list);
+		} else {
+			int[] arr = new int[size];
+			for (int i = 0; i < size; i++) {
+				arr[i] = i;
+			}
+			model.put("items", arr);
+		}
+		provider = new TreeMapValuesProvider(model);
+		compiled = new TinyVelocityEngine().compile("#foreach ($item in $items)\n" +
+				"<td>${item}</td>\n" +
+				"#end\n");
+	}
+
+	@Benchmark
+	public String render() {
+		return compiled.render(provider);
+	}
+
+	@Benchmark
+	public void renderToWriter(final Blackhole bh) throws IOException {
+		compiled.render(provider, new Writer() {
+			@Override
+			public void write(char[] cbuf, int off, int len) {
+				bh.consume(cbuf);
+			}
+
+			@Override
+			public void write(String str, int off, int len) {
+				bh.consume(str);
+			}
+
+			@Override
+			public Writer append(CharSequence csq) {
+				bh.consume(csq);
+				return this;
+			}
+
+			@Override
+			public Writer append(char c) {
+				bh.consume(c);
+				return this;
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+			}
+		}, 0);
+	}
+
+}
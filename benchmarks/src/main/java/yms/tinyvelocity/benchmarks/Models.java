@@ -0,0 +1,164 @@
+package yms.tinyvelocity.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+
+import yms.tinyvelocity.providers.SlotModel;
+import yms.tinyvelocity.providers.SlotSchema;
+
+/**
+ * Models and templates shared by the benchmarks.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+final class Models {
+
+	private Models() {
+	}
+
+	public static class Customer {
+		private final String name;
+		private final boolean vip;
+
+		public Customer(String name, boolean vip) {
+			this.name = name;
+			this.vip = vip;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public boolean isVip() {
+			return vip;
+		}
+	}
+
+	public static class Order {
+		private final int id;
+		private final Customer customer;
+
+		public Order(int id, Customer customer) {
+			this.id = id;
+			this.customer = customer;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		public Customer getCustomer() {
+			return customer;
+		}
+	}
+
+	public static class Report {
+		private final String title;
+		private final List<Order> orders;
+
+		public Report(String title, List<Order> orders) {
+			this.title = title;
+			this.orders = orders;
+		}
+
+		public String getTitle() {
+			return title;
+		}
+
+		public List<Order> getOrders() {
+			return orders;
+		}
+	}
+
+	static final String ORDERS_TEMPLATE = "<h1>${title}</h1>\n" +
+			"#foreach ($order in $orders)\n" +
+			"<tr><td>${order.id}</td><td>${order.customer.name}</td>\n" +
+			"#if ($order.customer.vip)\n" +
+			"<td>VIP</td>\n" +
+			"#end\n" +
+			"</tr>\n" +
+			"#end\n";
+
+	static Report createReport(int orders) {
+		List<Order> list = new ArrayList<Order>();
+		for (int i = 0; i < orders; i++) {
+			list.add(new Order(i, new Customer("customer" + i, i % 3 == 0)));
+		}
+		return new Report("Orders", list);
+	}
+
+	/**
+	 * The same report as TreeMaps.
+	 */
+	static TreeMap<String, Object> createReportMap(int orders) {
+		List<Object> list = new ArrayList<Object>();
+		for (int i = 0; i < orders; i++) {
+			TreeMap<String, Object> customer = new TreeMap<String, Object>();
+			customer.put("name", "customer" + i);
+			customer.put("vip", i % 3 == 0);
+			TreeMap<String, Object> order = new TreeMap<String, Object>();
+			order.put("id", i);
+			order.put("customer", customer);
+			list.add(order);
+		}
+		TreeMap<String, Object> report = new TreeMap<String, Object>();
+		report.put("title", "Orders");
+		report.put("orders", list);
+		return report;
+	}
+
+	static HashMap<String, Object> createReportHashMap(int orders) {
+		List<Object> list = new ArrayList<Object>();
+		for (int i = 0; i < orders; i++) {
+			HashMap<String, Object> customer = new HashMap<String, Object>();
+			customer.put("name", "customer" + i);
+			customer.put("vip", i % 3 == 0);
+			HashMap<String, Object> order = new HashMap<String, Object>();
+			order.put("id", i);
+			order.put("customer", customer);
+			list.add(order);
+		}
+		HashMap<String, Object> report = new HashMap<String, Object>();
+		report.put("title", "Orders");
+		report.put("orders", list);
+		return report;
+	}
+
+	static SlotModel createReportSlotModel(int orders) {
+		SlotSchema customerSchema = new SlotSchema("name", "vip");
+		SlotSchema orderSchema = new SlotSchema("id", "customer");
+		List<Object> list = new ArrayList<Object>();
+		for (int i = 0; i < orders; i++) {
+			SlotModel customer = customerSchema.newModel()
+					.set("name", "customer" + i).set("vip", i % 3 == 0);
+			list.add(orderSchema.newModel().set("id", i)
+					.set("customer", customer));
+		}
+		return new SlotSchema("title", "orders").newModel()
+				.set("title", "Orders").set("orders", list);
+	}
+
+	/**
+	 * A template of about the given number of lines, mixing static text,
+	 * references, conditions and small loops.
+	 */
+	static String createTemplate(int lines) {
+		StringBuilder template = new StringBuilder();
+		int written = 0;
+		while (written < lines) {
+			template.append("<p>Static text line number ").append(written)
+					.append(" of the template.</p>\n");
+			template.append("<p>Hello ${title}, line ").append(written)
+					.append("</p>\n");
+			template.append("#foreach ($order in $orders)\n");
+			template.append("<li>${order.id} ${order.customer.name}</li>\n");
+			template.append("#end\n");
+			written += 5;
+		}
+		return template.toString();
+	}
+
+}
@@ -0,0 +1,95 @@
+package yms.tinyvelocity.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import yms.tinyvelocity.CompiledTemplate;
+import yms.tinyvelocity.TinyVelocityEngine;
+import yms.tinyvelocity.ValuesProvider;
+import yms.tinyvelocity.providers.MapValuesProvider;
+import yms.tinyvelocity.providers.POJOValuesProvider;
+import yms.tinyvelocity.providers.TreeMapValuesProvider;
+
+/**
+ * The same report rendered from POJOs, TreeMaps, HashMaps and slot models,
+ * and the raw cost of a property lookup of each provider.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProviderBenchmark {
+
+	private static final int ORDERS = 100;
+
+	private CompiledTemplate compiled;
+	private ValuesProvider pojoProvider;
+	private ValuesProvider treeMapProvider;
+	private Object pojoOrder;
+	private Object treeMapOrder;
+	private ValuesProvider hashMapProvider;
+	private ValuesProvider slotModelProvider;
+
+	@Setup
+	public void setup() {
+		compiled = new TinyVelocityEngine().compile(Models.ORDERS_TEMPLATE);
+		Models.Report report = Models.createReport(ORDERS);
+		pojoProvider = new POJOValuesProvider(report);
+		pojoOrder = report.getOrders().get(0);
+		treeMapProvider = new TreeMapValuesProvider(
+				Models.createReportMap(ORDERS));
+		treeMapOrder = ((List<?>) treeMapProvider.getProperty(null,
+				"orders")).get(0);
+		hashMapProvider = new MapValuesProvider(
+				Models.createReportHashMap(ORDERS));
+		slotModelProvider = new MapValuesProvider(
+				Models.createReportSlotModel(ORDERS));
+	}
+
+	@Benchmark
+	public String renderPOJO() {
+		return compiled.render(pojoProvider);
+	}
+
+	@Benchmark
+	public String renderTreeMap() {
+		return compiled.render(treeMapProvider);
+	}
+
+	@Benchmark
+	public String renderHashMap() {
+		return compiled.render(hashMapProvider);
+	}
+
+	@Benchmark
+	public String renderSlotModel() {
+		return compiled.render(slotModelProvider);
+	}
+
+	@Benchmark
+	public Object lookupPOJO() {
+		return pojoProvider.getProperty(pojoOrder, "customer");
+	}
+
+	@Benchmark
+	public Object lookupTreeMap() {
+		return treeMapProvider.getProperty(treeMapOrder, "customer");
+	}
+
+}
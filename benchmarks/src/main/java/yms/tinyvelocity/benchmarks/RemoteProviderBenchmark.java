@@ -0,0 +1,143 @@
+package yms.tinyvelocity.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import yms.tinyvelocity.BulkValuesProvider;
+import yms.tinyvelocity.CompiledTemplate;
+import yms.tinyvelocity.TinyVelocityEngine;
+import yms.tinyvelocity.ValuesProvider;
+import yms.tinyvelocity.providers.MapValuesProvider;
+
+/**
+ * The report rendered from a model that pays a simulated round trip on every
+ * provider call, like a model kept in a cache server, read one property per
+ * call and with a {@link BulkValuesProvider}.
+ * 
+ * Run the class main to print the number of round trips of each render.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class RemoteProviderBenchmark {
+
+	private static final int ORDERS = 100;
+
+	/**
+	 * An in memory model that sleeps for the given latency on every call.
+	 */
+	public static class RemoteValuesProvider implements ValuesProvider {
+		private final ValuesProvider local;
+		private final long latencyNanos;
+		private final AtomicLong roundTrips = new AtomicLong();
+
+		public RemoteValuesProvider(ValuesProvider local, long latencyNanos) {
+			this.local = local;
+			this.latencyNanos = latencyNanos;
+		}
+
+		@Override
+		public Object getProperty(Object obj, String propName) {
+			roundTrip();
+			return local.getProperty(obj, propName);
+		}
+
+		@Override
+		public String getObjectAsString(Object obj) {
+			return local.getObjectAsString(obj);
+		}
+
+		protected void roundTrip() {
+			roundTrips.incrementAndGet();
+			if (latencyNanos > 0) {
+				LockSupport.parkNanos(latencyNanos);
+			}
+		}
+
+		public long getRoundTrips() {
+			return roundTrips.get();
+		}
+	}
+
+	/**
+	 * The same model, reading all the requested properties in one round
+	 * trip.
+	 */
+	public static class BulkRemoteValuesProvider extends RemoteValuesProvider
+			implements BulkValuesProvider {
+		private final ValuesProvider local;
+
+		public BulkRemoteValuesProvider(ValuesProvider local, long latencyNanos) {
+			super(local, latencyNanos);
+			this.local = local;
+		}
+
+		@Override
+		public Object[] getProperties(Object obj, String[] propNames) {
+			roundTrip();
+			Object[] values = new Object[propNames.length];
+			for (int i = 0; i < propNames.length; i++) {
+				values[i] = local.getProperty(obj, propNames[i]);
+			}
+			return values;
+		}
+	}
+
+	@Param({ "50" })
+	public long latencyMicros;
+
+	private CompiledTemplate compiled;
+	private RemoteValuesProvider provider;
+	private BulkRemoteValuesProvider bulkProvider;
+
+	@Setup
+	public void setup() {
+		compiled = new TinyVelocityEngine().compile(Models.ORDERS_TEMPLATE);
+		ValuesProvider local = new MapValuesProvider(
+				Models.createReportHashMap(ORDERS));
+		provider = new RemoteValuesProvider(local, latencyMicros * 1000);
+		bulkProvider = new BulkRemoteValuesProvider(local,
+				latencyMicros * 1000);
+	}
+
+	@Benchmark
+	public String renderSingle() {
+		return compiled.render(provider);
+	}
+
+	@Benchmark
+	public String renderBulk() {
+		return compiled.render(bulkProvider);
+	}
+
+	public static void main(String[] args) {
+		RemoteProviderBenchmark benchmark = new RemoteProviderBenchmark();
+		benchmark.setup();
+		benchmark.renderSingle();
+		benchmark.renderBulk();
+		System.out.println("round trips per render of " + ORDERS
+				+ " orders: " + benchmark.provider.getRoundTrips()
+				+ " one property per call, "
+				+ benchmark.bulkProvider.getRoundTrips() + " in bulk");
+	}
+
+}
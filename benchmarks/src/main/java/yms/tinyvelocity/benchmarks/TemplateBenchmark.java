@@ -0,0 +1,69 @@
+package yms.tinyvelocity.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import yms.tinyvelocity.CompiledTemplate;
+import yms.tinyvelocity.TinyVelocityEngine;
+import yms.tinyvelocity.ValuesProvider;
+import yms.tinyvelocity.providers.POJOValuesProvider;
+
+/**
+ * Parsing (compile and render) versus rendering a compiled template, for
+ * small, medium and huge templates.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateBenchmark {
+
+	/** number of template lines */
+	@Param({ "10", "500", "20000" })
+	public int lines;
+
+	private TinyVelocityEngine engine;
+	private String template;
+	private CompiledTemplate compiled;
+	private ValuesProvider provider;
+
+	@Setup
+	public void setup() {
+		engine = new TinyVelocityEngine();
+		template = Models.createTemplate(lines);
+		compiled = engine.compile(template);
+		provider = new POJOValuesProvider(Models.createReport(3));
+	}
+
+	@Benchmark
+	public String parse() {
+		return engine.parse(template, provider);
+	}
+
+	@Benchmark
+	public CompiledTemplate compile() {
+		return engine.compile(template);
+	}
+
+	@Benchmark
+	public String render() {
+		return compiled.render(provider);
+	}
+
+}
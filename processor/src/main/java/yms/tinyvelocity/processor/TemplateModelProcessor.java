@@ -0,0 +1,369 @@
+package yms.tinyvelocity.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import yms.tinyvelocity.TemplateModel;
+
+/**
+ * Generates a values provider for every class annotated with
+ * {@link TemplateModel}.
+ * 
+ * The provider of the model <code>Order</code> is
+ * <code>OrderValuesProvider</code>, in the package of the model. It is
+ * created with the root model object and reads the properties of the model
+ * and of the models reachable from it (property types, array components and
+ * type arguments that are annotated too) with a switch over the property
+ * names and direct calls. The properties are the ones
+ * {@link yms.tinyvelocity.providers.POJOValuesProvider} finds, in the same
+ * order: public fields, then getX() and isX() (boolean only) methods.
+ * 
+ * The generated code uses no reflection and only classes GWT emulates. The
+ * processor is registered as a service in its own jar, so it runs only when
+ * that jar is on the annotation processor path (see {@link TemplateModel}).
+ * 
+ * @author Yotam Madem
+ * 
+ */
+@SupportedAnnotationTypes("yms.tinyvelocity.TemplateModel")
+public class TemplateModelProcessor extends AbstractProcessor {
+	private static final String SUFFIX = "ValuesProvider";
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations,
+			RoundEnvironment roundEnv) {
+		for (Element element : roundEnv
+				.getElementsAnnotatedWith(TemplateModel.class)) {
+			if (element.getKind() != ElementKind.CLASS
+					&& element.getKind() != ElementKind.INTERFACE) {
+				error(element, "@TemplateModel must be put on a class");
+				continue;
+			}
+			TypeElement model = (TypeElement) element;
+			if (model.getModifiers().contains(Modifier.PRIVATE)) {
+				error(element, "@TemplateModel classes must not be private");
+				continue;
+			}
+			try {
+				generate(model);
+			} catch (IOException e) {
+				error(element, "Failed to write the values provider: " + e);
+			}
+		}
+		return true;
+	}
+
+	private void error(Element element, String message) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+				message, element);
+	}
+
+	/**
+	 * A model and its properties: property name to the java expression that
+	 * reads it from a variable named 'o'.
+	 */
+	private static class Model {
+		final TypeElement type;
+		final Map<String, String> properties = new LinkedHashMap<String, String>();
+
+		Model(TypeElement type) {
+			this.type = type;
+		}
+
+		String name() {
+			return type.getQualifiedName().toString();
+		}
+	}
+
+	private void generate(TypeElement root) throws IOException {
+		List<Model> models = new ArrayList<Model>();
+		Set<TypeElement> seen = new LinkedHashSet<TypeElement>();
+		collect(root, models, seen);
+
+		String packageName = getPackage(root).getQualifiedName().toString();
+		String simpleName = getFlatName(root, packageName) + SUFFIX;
+		String qualifiedName = packageName.isEmpty() ? simpleName
+				: packageName + "." + simpleName;
+		JavaFileObject file = processingEnv.getFiler().createSourceFile(
+				qualifiedName, root);
+		Writer out = file.openWriter();
+		try {
+			out.write(generateSource(packageName, simpleName, root, models));
+		} finally {
+			out.close();
+		}
+	}
+
+	private void collect(TypeElement type, List<Model> models,
+			Set<TypeElement> seen) {
+		if (!seen.add(type)) {
+			return;
+		}
+		Model model = new Model(type);
+		models.add(model);
+		List<TypeMirror> referenced = new ArrayList<TypeMirror>();
+
+		List<? extends Element> members = processingEnv.getElementUtils()
+				.getAllMembers(type);
+		for (Element member : members) {
+			if (member.getKind() == ElementKind.FIELD && isReadable(member)) {
+				String name = member.getSimpleName().toString();
+				if (!model.properties.containsKey(name)) {
+					model.properties.put(name, "o." + name);
+					referenced.add(((VariableElement) member).asType());
+				}
+			}
+		}
+		for (String prefix : new String[] { "get", "is" }) {
+			for (Element member : members) {
+				if (member.getKind() != ElementKind.METHOD
+						|| !isReadable(member)) {
+					continue;
+				}
+				ExecutableElement method = (ExecutableElement) member;
+				String methodName = method.getSimpleName().toString();
+				TypeMirror returnType = method.getReturnType();
+				if (!method.getParameters().isEmpty()
+						|| returnType.getKind() == TypeKind.VOID
+						|| !methodName.startsWith(prefix)
+						|| methodName.length() == prefix.length()
+						|| methodName.equals("getClass")) {
+					continue;
+				}
+				if (prefix.equals("is") && !isBoolean(returnType)) {
+					continue;
+				}
+				String suffix = methodName.substring(prefix.length());
+				for (String name : getPropertyNames(suffix)) {
+					if (!model.properties.containsKey(name)) {
+						model.properties.put(name, "o." + methodName + "()");
+					}
+				}
+				referenced.add(returnType);
+			}
+		}
+
+		for (TypeMirror mirror : referenced) {
+			collectReferenced(mirror, models, seen);
+		}
+	}
+
+	/**
+	 * Collect the models referenced by a property type: the type itself, an
+	 * array component or a type argument (of a list, a map...).
+	 */
+	private void collectReferenced(TypeMirror mirror, List<Model> models,
+			Set<TypeElement> seen) {
+		if (mirror.getKind() == TypeKind.ARRAY) {
+			collectReferenced(((ArrayType) mirror).getComponentType(), models,
+					seen);
+		} else if (mirror.getKind() == TypeKind.DECLARED) {
+			DeclaredType declared = (DeclaredType) mirror;
+			TypeElement element = (TypeElement) declared.asElement();
+			if (element.getAnnotation(TemplateModel.class) != null) {
+				collect(element, models, seen);
+			}
+			for (TypeMirror argument : declared.getTypeArguments()) {
+				collectReferenced(argument, models, seen);
+			}
+		}
+	}
+
+	private boolean isReadable(Element member) {
+		Set<Modifier> modifiers = member.getModifiers();
+		return modifiers.contains(Modifier.PUBLIC)
+				&& !modifiers.contains(Modifier.STATIC);
+	}
+
+	private boolean isBoolean(TypeMirror type) {
+		return type.getKind() == TypeKind.BOOLEAN
+				|| type.toString().equals("java.lang.Boolean");
+	}
+
+	/**
+	 * The names for which POJOValuesProvider would call get/is + suffix: it
+	 * capitalizes the first character of the name.
+	 */
+	private List<String> getPropertyNames(String suffix) {
+		List<String> names = new ArrayList<String>();
+		char first = suffix.charAt(0);
+		if (Character.isUpperCase(first)) {
+			names.add(Character.toLowerCase(first) + suffix.substring(1));
+			names.add(suffix);
+		} else if (!Character.isLowerCase(first)) {
+			names.add(suffix);
+		}
+		return names;
+	}
+
+	private PackageElement getPackage(Element element) {
+		while (element.getKind() != ElementKind.PACKAGE) {
+			element = element.getEnclosingElement();
+		}
+		return (PackageElement) element;
+	}
+
+	/**
+	 * @return the name of the type inside its package, with '_' instead of
+	 *         '.' for nested types
+	 */
+	private String getFlatName(TypeElement type, String packageName) {
+		String name = type.getQualifiedName().toString();
+		if (!packageName.isEmpty()) {
+			name = name.substring(packageName.length() + 1);
+		}
+		return name.replace('.', '_');
+	}
+
+	private String generateSource(String packageName, String simpleName,
+			TypeElement root, List<Model> models) {
+		StringBuilder src = new StringBuilder();
+		if (!packageName.isEmpty()) {
+			src.append("package ").append(packageName).append(";\n\n");
+		}
+		src.append("/**\n");
+		src.append(" * Values provider of {@link ").append(root.getQualifiedName())
+				.append("}, generated by ")
+				.append(TemplateModelProcessor.class.getName()).append(".\n");
+		src.append(" */\n");
+		src.append("public final class ").append(simpleName).append(
+				" implements yms.tinyvelocity.AccessorValuesProvider,\n");
+		src.append("\t\tyms.tinyvelocity.PrimitiveFormattingValuesProvider {\n\n");
+
+		src.append("\tprivate final ").append(root.getQualifiedName())
+				.append(" root;\n\n");
+		src.append("\tpublic ").append(simpleName).append("(")
+				.append(root.getQualifiedName()).append(" root) {\n");
+		src.append("\t\tthis.root = root;\n");
+		src.append("\t}\n\n");
+
+		// getProperty dispatches on the model class
+		src.append("\t@Override\n");
+		src.append("\tpublic Object getProperty(Object obj, String propName) {\n");
+		src.append("\t\tif (obj == null) {\n");
+		src.append("\t\t\tobj = root;\n");
+		src.append("\t\t}\n");
+		for (int i = 0; i < models.size(); i++) {
+			src.append("\t\tif (obj instanceof ").append(models.get(i).name())
+					.append(") {\n");
+			src.append("\t\t\treturn get").append(i).append("((")
+					.append(models.get(i).name()).append(") obj, propIndex")
+					.append(i).append("(propName));\n");
+			src.append("\t\t}\n");
+		}
+		src.append("\t\treturn null;\n");
+		src.append("\t}\n\n");
+
+		// getAccessor resolves the name to an index once
+		src.append("\t@Override\n");
+		src.append("\tpublic yms.tinyvelocity.PropertyAccessor getAccessor(Class<?> type, String propName) {\n");
+		for (int i = 0; i < models.size(); i++) {
+			src.append("\t\tif (type == ").append(models.get(i).name())
+					.append(".class) {\n");
+			// a missing property gets an accessor that returns null
+			src.append("\t\t\treturn new Accessor(").append(i)
+					.append(", propIndex").append(i).append("(propName));\n");
+			src.append("\t\t}\n");
+		}
+		src.append("\t\treturn null;\n");
+		src.append("\t}\n\n");
+
+		src.append("\t@Override\n");
+		src.append("\tpublic String getObjectAsString(Object obj) {\n");
+		src.append("\t\treturn obj == null ? \"null\" : obj.toString();\n");
+		src.append("\t}\n\n");
+
+		src.append("\t@Override\n");
+		src.append("\tpublic boolean isPrimitiveFormatting() {\n");
+		src.append("\t\treturn true;\n");
+		src.append("\t}\n\n");
+
+		for (int i = 0; i < models.size(); i++) {
+			Model model = models.get(i);
+			List<String> expressions = new ArrayList<String>(
+					new LinkedHashSet<String>(model.properties.values()));
+
+			src.append("\tprivate static int propIndex").append(i)
+					.append("(String propName) {\n");
+			src.append("\t\tswitch (propName) {\n");
+			for (Map.Entry<String, String> property : model.properties
+					.entrySet()) {
+				src.append("\t\tcase \"").append(property.getKey())
+						.append("\":\n");
+				src.append("\t\t\treturn ")
+						.append(expressions.indexOf(property.getValue()))
+						.append(";\n");
+			}
+			src.append("\t\tdefault:\n");
+			src.append("\t\t\treturn -1;\n");
+			src.append("\t\t}\n");
+			src.append("\t}\n\n");
+
+			src.append("\tprivate static Object get").append(i).append("(")
+					.append(model.name()).append(" o, int index) {\n");
+			src.append("\t\tswitch (index) {\n");
+			for (int e = 0; e < expressions.size(); e++) {
+				src.append("\t\tcase ").append(e).append(":\n");
+				src.append("\t\t\treturn ").append(expressions.get(e))
+						.append(";\n");
+			}
+			src.append("\t\tdefault:\n");
+			src.append("\t\t\treturn null;\n");
+			src.append("\t\t}\n");
+			src.append("\t}\n\n");
+		}
+
+		src.append("\tprivate static final class Accessor implements yms.tinyvelocity.PropertyAccessor {\n");
+		src.append("\t\tprivate final int model;\n");
+		src.append("\t\tprivate final int index;\n\n");
+		src.append("\t\tAccessor(int model, int index) {\n");
+		src.append("\t\t\tthis.model = model;\n");
+		src.append("\t\t\tthis.index = index;\n");
+		src.append("\t\t}\n\n");
+		src.append("\t\t@Override\n");
+		src.append("\t\tpublic Object get(Object obj) {\n");
+		src.append("\t\t\tswitch (model) {\n");
+		for (int i = 0; i < models.size(); i++) {
+			src.append("\t\t\tcase ").append(i).append(":\n");
+			src.append("\t\t\t\treturn get").append(i).append("((")
+					.append(models.get(i).name()).append(") obj, index);\n");
+		}
+		src.append("\t\t\tdefault:\n");
+		src.append("\t\t\t\treturn null;\n");
+		src.append("\t\t\t}\n");
+		src.append("\t\t}\n");
+		src.append("\t}\n\n");
+		src.append("}\n");
+		return src.toString();
+	}
+
+}
@@ -0,0 +1,31 @@
+package yms.tinyvelocity;
+
+/**
+ * A {@link ValuesProvider} that can resolve a property of a class once and
+ * return an accessor for it.
+ * 
+ * The engine keeps the accessors in inline caches inside the compiled
+ * property paths (keyed by the provider class and the object class), so
+ * evaluating the same path again skips the name based lookup of
+ * {@link #getProperty(Object, String)}.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public interface AccessorValuesProvider extends ValuesProvider {
+
+	/**
+	 * Return an accessor that reads propName from objects of exactly the
+	 * given class. For every such object the accessor must return what
+	 * {@link #getProperty(Object, String)} would return, and it must not
+	 * depend on this provider instance, since it is reused by other
+	 * instances of the same provider class.
+	 * 
+	 * @param type
+	 * @param propName
+	 * @return the accessor, or null if the property can not be cached (the
+	 *         engine will keep calling getProperty)
+	 */
+	public PropertyAccessor getAccessor(Class<?> type, String propName);
+
+}
@@ -0,0 +1,33 @@
+package yms.tinyvelocity;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A sequence of nodes rendered one after the other.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+class BlockNode extends Node {
+	private final Node[] children;
+
+	BlockNode(List<Node> children) {
+		this.children = children.toArray(new Node[children.size()]);
+	}
+
+	@Override
+	void render(RenderContext ctx) throws IOException {
+		for (Node child : children) {
+			child.render(ctx);
+		}
+	}
+
+	@Override
+	void accept(TemplateVisitor visitor) {
+		for (Node child : children) {
+			child.accept(visitor);
+		}
+	}
+
+}
@@ -0,0 +1,36 @@
+package yms.tinyvelocity;
+
+/**
+ * A {@link ValuesProvider} that can read many properties of an object in
+ * one call, for models that live in a cache server or a database.
+ * 
+ * The engine knows from the compiled template which properties it will
+ * read: it reads the root variables of a template with one call when the
+ * render starts, and the properties a <b>#foreach</b> body reads from the
+ * loop variable with one call per iteration, instead of calling
+ * {@link #getProperty(Object, String)} for every reference. Properties of
+ * the values read this way (the 'c' of <code>${a.b.c}</code>) are still read
+ * with getProperty.
+ * 
+ * Templates compiled to bytecode are rendered by the interpreter when the
+ * provider is a bulk provider.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public interface BulkValuesProvider extends ValuesProvider {
+
+	/**
+	 * Return the values of the given properties of obj, the same values
+	 * {@link #getProperty(Object, String)} would return for each of them.
+	 * 
+	 * @param obj
+	 *            - can be null for the root properties
+	 * @param propNames
+	 *            - must not be modified
+	 * @return an array with the value of propNames[i] at index i (null if it
+	 *         does not exist)
+	 */
+	public Object[] getProperties(Object obj, String[] propNames);
+
+}
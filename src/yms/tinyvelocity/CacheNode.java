@@ -0,0 +1,75 @@
+package yms.tinyvelocity;
+
+import java.io.IOException;
+
+/**
+ * <b>#cache</b> block. When the engine has a {@link FragmentCache} the
+ * rendered body is stored in it under the evaluated key, and later renders
+ * with the same key write the stored output without evaluating the body.
+ * 
+ * The key is prefixed by the template name and escaping, so the same key in
+ * two templates, or in a template compiled with two escapings, does not
+ * share a fragment.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+class CacheNode extends Node {
+	/** the template name and escaping, prepended to the evaluated keys */
+	private final String keyPrefix;
+	/** the source of the key expression, for visitors */
+	private final String keySource;
+	/** renders the key */
+	private final Node key;
+	private final long ttlMillis;
+	private final Node body;
+
+	CacheNode(String templateName, Escaping escaping, String keySource,
+			Node key, long ttlMillis, Node body) {
+		String name = templateName == null ? "" : templateName;
+		// the length keeps names with separators apart
+		this.keyPrefix = escaping.name() + ':' + name.length() + ':' + name
+				+ ':';
+		this.keySource = keySource;
+		this.key = key;
+		this.ttlMillis = ttlMillis;
+		this.body = body;
+	}
+
+	@Override
+	void render(RenderContext ctx) throws IOException {
+		FragmentCache cache = ctx.engine.getFragmentCache();
+		if (cache == null) {
+			body.render(ctx);
+			return;
+		}
+		StringBuilder keyOut = new StringBuilder(keyPrefix);
+		key.render(ctx.withOut(keyOut));
+		String keyValue = keyOut.toString();
+
+		String fragment = cache.get(keyValue);
+		if (fragment != null) {
+			if (ctx.stats != null) {
+				ctx.stats.fragmentHits++;
+			}
+			ctx.out.append(fragment);
+			return;
+		}
+		if (ctx.stats != null) {
+			ctx.stats.fragmentMisses++;
+		}
+		StringBuilder bodyOut = new StringBuilder();
+		body.render(ctx.withOut(bodyOut));
+		fragment = bodyOut.toString();
+		cache.put(keyValue, fragment, ttlMillis);
+		ctx.out.append(fragment);
+	}
+
+	@Override
+	void accept(TemplateVisitor visitor) {
+		visitor.visitCacheStart(keySource, ttlMillis / 1000);
+		body.accept(visitor);
+		visitor.visitCacheEnd();
+	}
+
+}
@@ -0,0 +1,263 @@
+package yms.tinyvelocity;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A template that was compiled by {@link TinyVelocityEngine#compile(String)}.
+ * 
+ * Compiled templates are immutable and thread safe: compile a template once
+ * and render it as many times as needed, from as many threads as needed.
+ * 
+ * The output can be returned as a string or streamed to any
+ * {@link Appendable} (a servlet response writer, a file writer...), when
+ * streaming the output is never held in memory as a whole.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public final class CompiledTemplate {
+	private final TinyVelocityEngine engine;
+	/** the name reported to the render listener, can be null */
+	private final String name;
+	/** the compiled template structure */
+	private final Node structure;
+	/** renders the template, usually the structure itself */
+	private final Node root;
+	/** number of loop variables slots needed to render the template */
+	private final int frameSize;
+	/** the root variables read with one call from a bulk provider */
+	private final String[] rootNames;
+	private final Escaping escaping;
+	/** computed on first use */
+	private TemplateDependencies dependencies = null;
+
+	/**
+	 * The part of a render that runs between the render listener events.
+	 */
+	interface RenderBody {
+		/**
+		 * @param out
+		 * @param stats
+		 *            - null if there is no render listener
+		 */
+		void render(Appendable out, RenderStats stats) throws IOException;
+	}
+
+	CompiledTemplate(TinyVelocityEngine engine, String name, Node root,
+			int frameSize, String[] rootNames, Escaping escaping) {
+		this(engine, name, root, root, frameSize, rootNames, escaping);
+	}
+
+	private CompiledTemplate(TinyVelocityEngine engine, String name,
+			Node structure, Node root, int frameSize, String[] rootNames,
+			Escaping escaping) {
+		this.engine = engine;
+		this.name = name;
+		this.structure = structure;
+		this.root = root;
+		this.frameSize = frameSize;
+		this.rootNames = rootNames;
+		this.escaping = escaping;
+	}
+
+	/**
+	 * @return the name the template was compiled with, or null
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the escaping of the values of the template
+	 */
+	public Escaping getEscaping() {
+		return escaping;
+	}
+
+	/**
+	 * Walk the structure of the template.
+	 * 
+	 * @param visitor
+	 */
+	public void accept(TemplateVisitor visitor) {
+		structure.accept(visitor);
+	}
+
+	/**
+	 * @return the variables and paths the template reads
+	 */
+	public TemplateDependencies getDependencies() {
+		// computing it twice is harmless, the result is immutable
+		TemplateDependencies result = dependencies;
+		if (result == null) {
+			result = TemplateDependencies.of(this);
+			dependencies = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Return a template with the same structure as this one that is rendered
+	 * by the given renderer instead of the engine interpreter. The renderer
+	 * is not used (the interpreter renders the template) when the values
+	 * provider implements {@link BulkValuesProvider}, when the template
+	 * escapes its values, when the engine has formatters or when it runs all
+	 * loops in parallel.
+	 * 
+	 * @param renderer
+	 * @return
+	 */
+	public CompiledTemplate withRenderer(TemplateRenderer renderer) {
+		return new CompiledTemplate(engine, name, structure, new RendererNode(
+				renderer, structure), frameSize, rootNames, escaping);
+	}
+
+	/**
+	 * Render the template and return the output as string. the
+	 * valuesProvider is needed to return the values of the template variables
+	 * and their inner properties.
+	 * 
+	 * @param valuesProvider
+	 * @return
+	 */
+	public String render(ValuesProvider valuesProvider) {
+		RenderBufferPool pool = engine.getBufferPool();
+		RenderBuffers buffers = pool == null ? new RenderBuffers() : pool
+				.acquire();
+		try {
+			StringBuilder out = buffers.getOut();
+			render(valuesProvider, out, buffers);
+			return out.toString();
+		} catch (IOException e) {
+			// StringBuilder does not throw IOException
+			throw new IllegalStateException(e);
+		} finally {
+			if (pool != null) {
+				pool.release(buffers);
+			}
+		}
+	}
+
+	/**
+	 * Render the template directly into out.
+	 * 
+	 * @param valuesProvider
+	 * @param out
+	 * @throws IOException
+	 *             - if out throws it
+	 */
+	public void render(ValuesProvider valuesProvider, Appendable out)
+			throws IOException {
+		RenderBufferPool pool = engine.getBufferPool();
+		RenderBuffers buffers = pool == null ? new RenderBuffers() : pool
+				.acquire();
+		try {
+			render(valuesProvider, out, buffers);
+		} finally {
+			if (pool != null) {
+				pool.release(buffers);
+			}
+		}
+	}
+
+	private void render(final ValuesProvider valuesProvider, Appendable out,
+			final RenderBuffers buffers) throws IOException {
+		final Node root = valuesProvider instanceof BulkValuesProvider
+				|| escaping != Escaping.NONE || engine.getFormatters() != null
+				|| isParallelByDefault() ? structure : this.root;
+		if (engine.getRenderListener() == null) {
+			root.render(context(valuesProvider, out, buffers, null));
+			return;
+		}
+		render(engine, name, out, new RenderBody() {
+			@Override
+			public void render(Appendable out, RenderStats stats)
+					throws IOException {
+				root.render(context(valuesProvider, out, buffers, stats));
+			}
+		});
+	}
+
+	/**
+	 * Run the body as one render: when the engine has a render listener the
+	 * body gets new stats and its output is counted, and the listener is
+	 * told when it starts and ends.
+	 */
+	static void render(TinyVelocityEngine engine, String name,
+			Appendable out, RenderBody body) throws IOException {
+		RenderListener listener = engine.getRenderListener();
+		if (listener == null) {
+			body.render(out, null);
+			return;
+		}
+
+		RenderStats stats = new RenderStats(name);
+		CountingAppendable counting = new CountingAppendable(out);
+		listener.renderStarted(stats);
+		long start = System.nanoTime();
+		try {
+			body.render(counting, stats);
+		} catch (IOException e) {
+			fail(listener, stats, start, counting, e);
+			throw e;
+		} catch (RuntimeException e) {
+			fail(listener, stats, start, counting, e);
+			throw e;
+		} catch (Error e) {
+			fail(listener, stats, start, counting, e);
+			throw e;
+		}
+		stats.finish(System.nanoTime() - start, counting.count);
+		listener.renderCompleted(stats);
+	}
+
+	private boolean isParallelByDefault() {
+		return engine.isParallelByDefault()
+				&& engine.getParallelExecutor() != null;
+	}
+
+	/**
+	 * Create the context of a render, reading the root variables with one
+	 * call if the provider is a {@link BulkValuesProvider}.
+	 */
+	private RenderContext context(ValuesProvider valuesProvider,
+			Appendable out, RenderBuffers buffers, RenderStats stats) {
+		RenderContext ctx = new RenderContext(engine, valuesProvider, out,
+				buffers.getFrame(frameSize), stats, escaping);
+		if (ctx.bulk != null && rootNames.length > 0) {
+			ctx.rootValues = ((BulkValuesProvider) valuesProvider)
+					.getProperties(null, rootNames);
+		}
+		return ctx;
+	}
+
+	private static void fail(RenderListener listener, RenderStats stats,
+			long start, CountingAppendable counting, Throwable error) {
+		stats.finish(System.nanoTime() - start, counting.count);
+		listener.renderFailed(stats, error);
+	}
+
+	/**
+	 * Render the template directly into out, flushing out every time at
+	 * least flushChars characters were written and once more at the end.
+	 * 
+	 * @param valuesProvider
+	 * @param out
+	 * @param flushChars
+	 *            - flush interval in characters, 0 means flush only at the
+	 *            end
+	 * @throws IOException
+	 *             - if out throws it
+	 */
+	public void render(ValuesProvider valuesProvider, Writer out,
+			int flushChars) throws IOException {
+		if (flushChars > 0) {
+			render(valuesProvider, new FlushingAppendable(out, flushChars));
+		} else {
+			render(valuesProvider, out);
+		}
+		out.flush();
+	}
+
+}
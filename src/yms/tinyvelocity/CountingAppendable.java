@@ -0,0 +1,41 @@
+package yms.tinyvelocity;
+
+import java.io.IOException;
+
+/**
+ * Counts the characters appended to another appendable.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+class CountingAppendable implements Appendable {
+	private final Appendable out;
+	long count = 0;
+
+	CountingAppendable(Appendable out) {
+		this.out = out;
+	}
+
+	@Override
+	public Appendable append(CharSequence csq) throws IOException {
+		out.append(csq);
+		count += csq == null ? 4 : csq.length();
+		return this;
+	}
+
+	@Override
+	public Appendable append(CharSequence csq, int start, int end)
+			throws IOException {
+		out.append(csq, start, end);
+		count += end - start;
+		return this;
+	}
+
+	@Override
+	public Appendable append(char c) throws IOException {
+		out.append(c);
+		count++;
+		return this;
+	}
+
+}
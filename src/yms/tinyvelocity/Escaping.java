@@ -0,0 +1,183 @@
+package yms.tinyvelocity;
+
+/**
+ * How the values of a template are escaped when they are written. Only the
+ * values of the references are escaped, the template text is written as is.
+ * 
+ * The escaping of a template is set with an <b>#escape(html)</b> line at the
+ * top of the template, or for all the templates with
+ * {@link TinyVelocityEngine#setEscaping(Escaping)}. Values are escaped while
+ * they are appended to the output, no escaped copy is created.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public enum Escaping {
+	/** values are written as is */
+	NONE {
+		@Override
+		String replacement(char c) {
+			return null;
+		}
+	},
+	/** HTML text and attribute values */
+	HTML {
+		@Override
+		String replacement(char c) {
+			switch (c) {
+			case '&':
+				return "&amp;";
+			case '<':
+				return "&lt;";
+			case '>':
+				return "&gt;";
+			case '"':
+				return "&quot;";
+			case '\'':
+				return "&#39;";
+			default:
+				return null;
+			}
+		}
+	},
+	/**
+	 * XML text and attribute values, characters XML can not hold (lone
+	 * surrogates included) are dropped
+	 */
+	XML {
+		@Override
+		String replacement(CharSequence text, int i, int start, int end) {
+			char c = text.charAt(i);
+			if (Character.isHighSurrogate(c)) {
+				return i + 1 < end
+						&& Character.isLowSurrogate(text.charAt(i + 1)) ? null
+						: "";
+			} else if (Character.isLowSurrogate(c)) {
+				return i > start
+						&& Character.isHighSurrogate(text.charAt(i - 1)) ? null
+						: "";
+			}
+			return replacement(c);
+		}
+
+		@Override
+		String replacement(char c) {
+			switch (c) {
+			case '&':
+				return "&amp;";
+			case '<':
+				return "&lt;";
+			case '>':
+				return "&gt;";
+			case '"':
+				return "&quot;";
+			case '\'':
+				return "&apos;";
+			case '\t':
+			case '\n':
+			case '\r':
+				return null;
+			default:
+				return c < 0x20 || c == 0xFFFE || c == 0xFFFF
+						|| (c >= 0xD800 && c <= 0xDFFF) ? "" : null;
+			}
+		}
+	},
+	/**
+	 * the content of a JSON string literal, or of a javascript string literal
+	 * in single or double quotes. '&lt;', '&gt;' and '&amp;' are escaped too,
+	 * so the literal can be written inside an HTML script element
+	 */
+	JSON {
+		@Override
+		String replacement(char c) {
+			switch (c) {
+			case '"':
+				return "\\\"";
+			case '\\':
+				return "\\\\";
+			case '\'':
+				return "\\u0027";
+			case '<':
+				return "\\u003c";
+			case '>':
+				return "\\u003e";
+			case '&':
+				return "\\u0026";
+			case '\n':
+				return "\\n";
+			case '\r':
+				return "\\r";
+			case '\t':
+				return "\\t";
+			case '\b':
+				return "\\b";
+			case '\f':
+				return "\\f";
+			case '\u2028':
+				return "\\u2028";
+			case '\u2029':
+				return "\\u2029";
+			default:
+				return c < 0x20 ? JSON_CONTROLS[c] : null;
+			}
+		}
+	};
+
+	private static final String[] JSON_CONTROLS = new String[0x20];
+	static {
+		String hex = "0123456789abcdef";
+		for (int c = 0; c < JSON_CONTROLS.length; c++) {
+			JSON_CONTROLS[c] = "\\u00" + hex.charAt(c >> 4)
+					+ hex.charAt(c & 0xF);
+		}
+	}
+
+	/**
+	 * @return the text that replaces c, or null if c is written as is
+	 */
+	abstract String replacement(char c);
+
+	/**
+	 * @return the text that replaces the character at i of text, or null if
+	 *         it is written as is. Only the characters from start to end are
+	 *         written together with it.
+	 */
+	String replacement(CharSequence text, int i, int start, int end) {
+		return replacement(text.charAt(i));
+	}
+
+	/**
+	 * @return an appendable that escapes everything appended to it into out
+	 */
+	public Appendable wrap(Appendable out) {
+		return this == NONE ? out : new EscapingAppendable(out, this);
+	}
+
+	/**
+	 * @return the escaped text
+	 */
+	public String escape(CharSequence text) {
+		StringBuilder out = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			String replacement = replacement(text, i, 0, text.length());
+			if (replacement == null) {
+				out.append(c);
+			} else {
+				out.append(replacement);
+			}
+		}
+		return out.toString();
+	}
+
+	/**
+	 * @return the escaping with the given name, ignoring case
+	 * @throws IllegalArgumentException
+	 *             - if there is no such escaping
+	 */
+	public static Escaping forName(String name) {
+		return valueOf(name.trim().toUpperCase());
+	}
+
+}
@@ -0,0 +1,71 @@
+package yms.tinyvelocity;
+
+import java.io.IOException;
+
+/**
+ * Escapes the characters appended to it into another appendable. Runs of
+ * characters that need no escaping are passed to the target as ranges of
+ * the original sequence, so nothing is copied.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+class EscapingAppendable implements Appendable {
+	private final Appendable out;
+	private final Escaping escaping;
+
+	EscapingAppendable(Appendable out, Escaping escaping) {
+		this.out = out;
+		this.escaping = escaping;
+	}
+
+	@Override
+	public Appendable append(CharSequence csq) throws IOException {
+		if (csq == null) {
+			csq = "null";
+		}
+		return append(csq, 0, csq.length());
+	}
+
+	@Override
+	public Appendable append(CharSequence csq, int start, int end)
+			throws IOException {
+		if (csq == null) {
+			csq = "null";
+		}
+		int run = start;
+		for (int i = start; i < end; i++) {
+			String replacement = escaping.replacement(csq, i, start, end);
+			if (replacement != null) {
+				if (i > run) {
+					out.append(csq, run, i);
+				}
+				out.append(replacement);
+				run = i + 1;
+			}
+		}
+		if (run == start) {
+			// nothing was escaped, keep the original sequence
+			if (start == 0 && end == csq.length()) {
+				out.append(csq);
+			} else {
+				out.append(csq, start, end);
+			}
+		} else if (end > run) {
+			out.append(csq, run, end);
+		}
+		return this;
+	}
+
+	@Override
+	public Appendable append(char c) throws IOException {
+		String replacement = escaping.replacement(c);
+		if (replacement == null) {
+			out.append(c);
+		} else {
+			out.append(replacement);
+		}
+		return this;
+	}
+
+}
@@ -0,0 +1,53 @@
+package yms.tinyvelocity;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Appends to a writer and flushes it every time at least flushChars
+ * characters were written since the last flush.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+class FlushingAppendable implements Appendable {
+	private final Writer out;
+	private final int flushChars;
+	private int pending = 0;
+
+	FlushingAppendable(Writer out, int flushChars) {
+		this.out = out;
+		this.flushChars = flushChars;
+	}
+
+	@Override
+	public Appendable append(CharSequence csq) throws IOException {
+		out.append(csq);
+		written(csq == null ? 4 : csq.length());
+		return this;
+	}
+
+	@Override
+	public Appendable append(CharSequence csq, int start, int end)
+			throws IOException {
+		out.append(csq, start, end);
+		written(end - start);
+		return this;
+	}
+
+	@Override
+	public Appendable append(char c) throws IOException {
+		out.append(c);
+		written(1);
+		return this;
+	}
+
+	private void written(int chars) throws IOException {
+		pending += chars;
+		if (pending >= flushChars) {
+			pending = 0;
+			out.flush();
+		}
+	}
+
+}
@@ -0,0 +1,232 @@
+package yms.tinyvelocity;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.stream.BaseStream;
+
+/**
+ * <b>#foreach</b> block. The body is compiled once and rendered for every
+ * element of the container.
+ * 
+ * The container can be any Iterable, an Iterator, a Stream or an array.
+ * Arrays are iterated in place, and the elements of primitive arrays are
+ * boxed only when they are used as objects (see {@link PrimitiveElement}).
+ * 
+ * Arrays and random access lists can also be rendered in parallel, see
+ * {@link TinyVelocityEngine#setParallelExecutor(ParallelExecutor)}.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+class ForeachNode extends Node {
+	/** number of chunks per executor thread of a parallel loop */
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	private final String loopVarName;
+	/** the frame slot of the loop variable */
+	private final int slot;
+	private final VarReference containerName;
+	/** true if the loop is marked as parallel */
+	private final boolean parallel;
+	/**
+	 * the properties the body reads from the loop variable, read with one
+	 * call per element when the provider is a {@link BulkValuesProvider}
+	 */
+	private final String[] bulkNames;
+	private final Node body;
+
+	/**
+	 * @param loopVarName
+	 *            - the loop variable (without the '$')
+	 * @param slot
+	 *            - the frame slot of the loop variable
+	 * @param containerName
+	 *            - the container variable
+	 * @param parallel
+	 *            - true if the loop is marked as parallel
+	 * @param bulkNames
+	 *            - the properties the body reads from the loop variable
+	 * @param body
+	 */
+	ForeachNode(String loopVarName, int slot, VarReference containerName,
+			boolean parallel, String[] bulkNames, Node body) {
+		this.loopVarName = loopVarName;
+		this.slot = slot;
+		this.containerName = containerName;
+		this.parallel = parallel;
+		this.bulkNames = bulkNames;
+		this.body = body;
+	}
+
+	@Override
+	void render(RenderContext ctx) throws IOException {
+		Object container = containerName.getValue(ctx);
+		if (renderParallel(ctx, container)) {
+			return;
+		}
+		Object[] frame = ctx.frame;
+		try {
+			if (container instanceof Iterable<?>) {
+				renderIterator(ctx, ((Iterable<?>) container).iterator());
+			} else if (container instanceof Object[]) {
+				renderRange(ctx, container, 0, ((Object[]) container).length);
+			} else if (container instanceof Iterator<?>) {
+				renderIterator(ctx, (Iterator<?>) container);
+			} else if (container instanceof BaseStream<?, ?>) {
+				renderIterator(ctx, ((BaseStream<?, ?>) container).iterator());
+			} else {
+				PrimitiveElement element = PrimitiveElement.forArray(container);
+				if (element == null) {
+					throw new Error("The container: " + container
+							+ " is not collection or an array");
+				}
+				renderRange(ctx, container, 0, element.length);
+			}
+		} finally {
+			frame[slot] = null;
+			if (ctx.bulk != null) {
+				ctx.bulk[slot] = null;
+			}
+		}
+	}
+
+	/**
+	 * Read the properties of the current element in bulk, if the provider
+	 * can.
+	 */
+	private void fetch(RenderContext ctx, Object element) {
+		if (ctx.bulk != null && bulkNames.length > 0) {
+			if (element instanceof PrimitiveElement) {
+				element = ((PrimitiveElement) element).box();
+			}
+			ctx.bulk[slot] = ((BulkValuesProvider) ctx.provider)
+					.getProperties(element, bulkNames);
+		}
+	}
+
+	private void renderIterator(RenderContext ctx, Iterator<?> it)
+			throws IOException {
+		Object[] frame = ctx.frame;
+		while (it.hasNext()) {
+			Object obj = it.next();
+			frame[slot] = obj == null ? "null" : obj;
+			fetch(ctx, frame[slot]);
+			if (ctx.stats != null) {
+				ctx.stats.loopIterations++;
+			}
+			body.render(ctx);
+		}
+	}
+
+	/**
+	 * Render the elements [from, to) of a random access list or an array.
+	 */
+	private void renderRange(RenderContext ctx, Object container, int from,
+			int to) throws IOException {
+		Object[] frame = ctx.frame;
+		if (ctx.stats != null) {
+			ctx.stats.loopIterations += to - from;
+		}
+		if (container instanceof List<?>) {
+			List<?> list = (List<?>) container;
+			for (int i = from; i < to; i++) {
+				Object obj = list.get(i);
+				frame[slot] = obj == null ? "null" : obj;
+				fetch(ctx, frame[slot]);
+				body.render(ctx);
+			}
+		} else if (container instanceof Object[]) {
+			Object[] arr = (Object[]) container;
+			for (int i = from; i < to; i++) {
+				frame[slot] = arr[i] == null ? "null" : arr[i];
+				fetch(ctx, frame[slot]);
+				body.render(ctx);
+			}
+		} else {
+			PrimitiveElement element = PrimitiveElement.forArray(container);
+			frame[slot] = element;
+			for (int i = from; i < to; i++) {
+				element.index = i;
+				fetch(ctx, element);
+				body.render(ctx);
+			}
+		}
+	}
+
+	/**
+	 * Render the loop in parallel if it should and can be.
+	 * 
+	 * @return false if the loop should be rendered sequentially
+	 */
+	private boolean renderParallel(RenderContext ctx, final Object container)
+			throws IOException {
+		TinyVelocityEngine engine = ctx.engine;
+		ParallelExecutor executor = engine.getParallelExecutor();
+		if (executor == null || !(parallel || engine.isParallelByDefault())) {
+			return false;
+		}
+		int size = getRandomAccessSize(container);
+		if (size < 2 || size < engine.getParallelThreshold()) {
+			return false;
+		}
+		int chunks = Math.min(executor.getParallelism() * CHUNKS_PER_THREAD,
+				size);
+		if (chunks < 2) {
+			return false;
+		}
+
+		StringBuilder[] outputs = new StringBuilder[chunks];
+		Runnable[] tasks = new Runnable[chunks];
+		RenderContext[] chunkContexts = new RenderContext[chunks];
+		for (int c = 0; c < chunks; c++) {
+			final int from = (int) ((long) size * c / chunks);
+			final int to = (int) ((long) size * (c + 1) / chunks);
+			outputs[c] = new StringBuilder();
+			final RenderContext chunkCtx = ctx.fork(outputs[c]);
+			chunkContexts[c] = chunkCtx;
+			tasks[c] = new Runnable() {
+				@Override
+				public void run() {
+					try {
+						renderRange(chunkCtx, container, from, to);
+					} catch (IOException e) {
+						// StringBuilder does not throw IOException
+						throw new IllegalStateException(e);
+					}
+				}
+			};
+		}
+		executor.invokeAll(tasks);
+		for (StringBuilder output : outputs) {
+			ctx.out.append(output);
+		}
+		for (RenderContext chunkCtx : chunkContexts) {
+			ctx.join(chunkCtx);
+		}
+		return true;
+	}
+
+	/**
+	 * @return the size of a random access list or an array, -1 for any other
+	 *         container.
+	 */
+	private int getRandomAccessSize(Object container) {
+		if (container instanceof List<?> && container instanceof RandomAccess) {
+			return ((List<?>) container).size();
+		} else if (container instanceof Object[]) {
+			return ((Object[]) container).length;
+		}
+		PrimitiveElement element = PrimitiveElement.forArray(container);
+		return element == null ? -1 : element.length;
+	}
+
+	@Override
+	void accept(TemplateVisitor visitor) {
+		visitor.visitForeachStart(loopVarName, containerName.getPath(), parallel);
+		body.accept(visitor);
+		visitor.visitForeachEnd();
+	}
+
+}
@@ -0,0 +1,210 @@
+package yms.tinyvelocity;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * Formatters keyed by the type of the values. When the engine has a registry
+ * (see {@link TinyVelocityEngine#setFormatters(FormatterRegistry)}), values
+ * with a formatter are written by it directly into the output instead of
+ * being converted by {@link ValuesProvider#getObjectAsString(Object)}.
+ * 
+ * A formatter registered for a class is also used for its subclasses.
+ * Interfaces are not matched, except for CharSequence.
+ * 
+ * Formatters can be registered at any time, the registry can be shared by
+ * any number of renders. The formatter of a class is resolved once and
+ * cached until the next registration.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public class FormatterRegistry {
+
+	/** writes integral numbers without creating a String */
+	private static final ValueFormatter INTEGRAL = new ValueFormatter() {
+		@Override
+		public void format(Object value, Appendable out) throws IOException {
+			PrimitiveElement.appendLong(out, ((Number) value).longValue());
+		}
+	};
+
+	private static final ValueFormatter FLOATING = new ValueFormatter() {
+		@Override
+		public void format(Object value, Appendable out) throws IOException {
+			if (out instanceof StringBuilder) {
+				if (value instanceof Float) {
+					((StringBuilder) out).append(((Float) value).floatValue());
+				} else {
+					((StringBuilder) out).append(((Double) value).doubleValue());
+				}
+			} else {
+				out.append(value.toString());
+			}
+		}
+	};
+
+	private static final ValueFormatter CHARS = new ValueFormatter() {
+		@Override
+		public void format(Object value, Appendable out) throws IOException {
+			out.append((CharSequence) value);
+		}
+	};
+
+	private static final ValueFormatter CHARACTER = new ValueFormatter() {
+		@Override
+		public void format(Object value, Appendable out) throws IOException {
+			out.append(((Character) value).charValue());
+		}
+	};
+
+	private static final ValueFormatter BOOLEAN = new ValueFormatter() {
+		@Override
+		public void format(Object value, Appendable out) throws IOException {
+			out.append(((Boolean) value).booleanValue() ? "true" : "false");
+		}
+	};
+
+	/** the resolved formatter of classes that have none */
+	private static final ValueFormatter NONE = new ValueFormatter() {
+		@Override
+		public void format(Object value, Appendable out) {
+			throw new IllegalStateException();
+		}
+	};
+
+	/** The registered formatters and the formatters resolved from them */
+	private static final class State {
+		final HashMap<Class<?>, ValueFormatter> formatters;
+		/** by the class of the values, {@link #NONE} if there is none */
+		final HashMap<Class<?>, ValueFormatter> resolved;
+
+		State(HashMap<Class<?>, ValueFormatter> formatters,
+				HashMap<Class<?>, ValueFormatter> resolved) {
+			this.formatters = formatters;
+			this.resolved = resolved;
+		}
+	}
+
+	/**
+	 * replaced on every registration and resolution, so lookups do not lock
+	 */
+	private volatile State state = new State(
+			new HashMap<Class<?>, ValueFormatter>(),
+			new HashMap<Class<?>, ValueFormatter>());
+
+	/**
+	 * @return a registry with formatters for the boxed primitives and
+	 *         CharSequence, that write the same text as String.valueOf
+	 */
+	public static FormatterRegistry withDefaults() {
+		FormatterRegistry registry = new FormatterRegistry();
+		registry.register(Integer.class, INTEGRAL);
+		registry.register(Long.class, INTEGRAL);
+		registry.register(Short.class, INTEGRAL);
+		registry.register(Byte.class, INTEGRAL);
+		registry.register(Double.class, FLOATING);
+		registry.register(Float.class, FLOATING);
+		registry.register(Character.class, CHARACTER);
+		registry.register(Boolean.class, BOOLEAN);
+		registry.register(CharSequence.class, CHARS);
+		return registry;
+	}
+
+	/**
+	 * Set the formatter of the given type, replacing the previous one.
+	 * 
+	 * @param type
+	 * @param formatter
+	 *            - null removes the formatter of the type
+	 * @return this registry
+	 */
+	public synchronized FormatterRegistry register(Class<?> type,
+			ValueFormatter formatter) {
+		HashMap<Class<?>, ValueFormatter> copy = new HashMap<Class<?>, ValueFormatter>(
+				state.formatters);
+		if (formatter == null) {
+			copy.remove(type);
+		} else {
+			copy.put(type, formatter);
+		}
+		state = new State(copy, new HashMap<Class<?>, ValueFormatter>());
+		return this;
+	}
+
+	/**
+	 * @return the formatter used for the value, or null if it has none
+	 */
+	public ValueFormatter getFormatter(Object value) {
+		State state = this.state;
+		ValueFormatter formatter = state.resolved.get(value.getClass());
+		if (formatter == null) {
+			formatter = resolve(state, value.getClass(),
+					value instanceof CharSequence);
+		}
+		return formatter == NONE ? null : formatter;
+	}
+
+	/**
+	 * @param boxed
+	 *            - a boxed primitive type
+	 * @return the formatter used for its values, or null if it has none
+	 */
+	ValueFormatter getBoxedFormatter(Class<?> boxed) {
+		State state = this.state;
+		ValueFormatter formatter = state.resolved.get(boxed);
+		if (formatter == null) {
+			formatter = resolve(state, boxed, false);
+		}
+		return formatter == NONE ? null : formatter;
+	}
+
+	/**
+	 * Find the formatter of the class and cache it, unless a formatter was
+	 * registered meanwhile.
+	 * 
+	 * @param chars
+	 *            - true if the class is a CharSequence
+	 * @return the formatter or {@link #NONE}
+	 */
+	private ValueFormatter resolve(State state, Class<?> valueType,
+			boolean chars) {
+		ValueFormatter formatter = null;
+		for (Class<?> type = valueType; type != null && formatter == null; type = type
+				.getSuperclass()) {
+			formatter = state.formatters.get(type);
+		}
+		if (formatter == null && chars) {
+			formatter = state.formatters.get(CharSequence.class);
+		}
+		if (formatter == null) {
+			formatter = NONE;
+		}
+		synchronized (this) {
+			if (this.state == state) {
+				HashMap<Class<?>, ValueFormatter> resolved = new HashMap<Class<?>, ValueFormatter>(
+						state.resolved);
+				resolved.put(valueType, formatter);
+				this.state = new State(state.formatters, resolved);
+			}
+		}
+		return formatter;
+	}
+
+	/**
+	 * Write the value with its formatter.
+	 * 
+	 * @return false if the value has no formatter, nothing was written
+	 * @throws IOException
+	 *             - if out throws it
+	 */
+	public boolean format(Object value, Appendable out) throws IOException {
+		ValueFormatter formatter = getFormatter(value);
+		if (formatter == null) {
+			return false;
+		}
+		formatter.format(value, out);
+		return true;
+	}
+
+}
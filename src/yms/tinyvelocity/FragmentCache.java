@@ -0,0 +1,38 @@
+package yms.tinyvelocity;
+
+/**
+ * Stores the rendered output of <b>#cache</b> blocks, see
+ * {@link TinyVelocityEngine#setFragmentCache(FragmentCache)}.
+ * 
+ * <pre>
+ * #cache ("nav-${user.locale}", 60)
+ * ... expensive block ...
+ * #end
+ * </pre>
+ * 
+ * The keys passed to the cache start with the escaping and the name of the
+ * template, so a fragment is reused only by the template that rendered it
+ * (anonymous templates share their keys). Implementations must be thread
+ * safe, see {@link yms.tinyvelocity.cache.BoundedFragmentCache}.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public interface FragmentCache {
+
+	/**
+	 * @param key
+	 * @return the cached fragment or null if there is no (unexpired) fragment
+	 *         for the key
+	 */
+	public String get(String key);
+
+	/**
+	 * @param key
+	 * @param fragment
+	 * @param ttlMillis
+	 *            - time to live, 0 means until the fragment is evicted
+	 */
+	public void put(String key, String fragment, long ttlMillis);
+
+}
@@ -0,0 +1,57 @@
+package yms.tinyvelocity;
+
+import java.io.IOException;
+
+/**
+ * <b>#if</b> / <b>#else</b> block.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+class IfNode extends Node {
+	private final VarReference condVar;
+	private final Node thenBlock;
+	private final Node elseBlock;
+
+	/**
+	 * @param condVar
+	 *            - the variable to check (without the '$')
+	 * @param thenBlock
+	 * @param elseBlock
+	 *            - can be null if there is no <b>#else</b>
+	 */
+	IfNode(VarReference condVar, Node thenBlock, Node elseBlock) {
+		this.condVar = condVar;
+		this.thenBlock = thenBlock;
+		this.elseBlock = elseBlock;
+	}
+
+	@Override
+	void render(RenderContext ctx) throws IOException {
+		if (checkCond(ctx)) {
+			thenBlock.render(ctx);
+		} else if (elseBlock != null) {
+			elseBlock.render(ctx);
+		}
+	}
+
+	@Override
+	void accept(TemplateVisitor visitor) {
+		visitor.visitIfStart(condVar.getPath());
+		thenBlock.accept(visitor);
+		if (elseBlock != null) {
+			visitor.visitElse();
+			elseBlock.accept(visitor);
+		}
+		visitor.visitIfEnd();
+	}
+
+	private boolean checkCond(RenderContext ctx) {
+		Object value = condVar.getValue(ctx);
+		if (value != null && (value instanceof Boolean)) {
+			return ((Boolean) value).booleanValue();
+		}
+		return false;
+	}
+
+}
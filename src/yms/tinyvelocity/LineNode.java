@@ -0,0 +1,56 @@
+package yms.tinyvelocity;
+
+import java.io.IOException;
+
+/**
+ * A template line that contains variable references. The line is split at
+ * compile time into static parts and references, so rendering it is a plain
+ * left to right walk.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+class LineNode extends Node {
+	/**
+	 * static text parts, texts[i] comes before vars[i]. texts has one more
+	 * element than vars (the text after the last reference, which already
+	 * includes the line terminator).
+	 */
+	private final String[] texts;
+	private final VarReference[] vars;
+
+	LineNode(String[] texts, VarReference[] vars) {
+		this.texts = texts;
+		this.vars = vars;
+	}
+
+	@Override
+	void render(RenderContext ctx) throws IOException {
+		Appendable out = ctx.out;
+		for (int i = 0; i < vars.length; i++) {
+			out.append(texts[i]);
+			if (vars[i].appendUnboxed(ctx)) {
+				continue;
+			}
+			Object value = vars[i].getValue(ctx);
+			if (value != null) {
+				ctx.appendValue(value);
+			} else {
+				out.append("${").append(vars[i].getPath()).append('}');
+			}
+		}
+		out.append(texts[vars.length]);
+	}
+
+	@Override
+	void accept(TemplateVisitor visitor) {
+		for (int i = 0; i < vars.length; i++) {
+			if (texts[i].length() > 0) {
+				visitor.visitText(texts[i]);
+			}
+			visitor.visitVar(vars[i].getPath());
+		}
+		visitor.visitText(texts[vars.length]);
+	}
+
+}
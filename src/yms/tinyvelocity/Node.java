@@ -0,0 +1,31 @@
+package yms.tinyvelocity;
+
+import java.io.IOException;
+
+/**
+ * A node of a compiled template. Nodes are immutable and can be rendered
+ * concurrently by many threads, all the per-render state lives in the
+ * {@link RenderContext}.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+abstract class Node {
+
+	/**
+	 * Render this node into the output of the given context.
+	 * 
+	 * @param ctx
+	 * @throws IOException
+	 *             - if the output throws it
+	 */
+	abstract void render(RenderContext ctx) throws IOException;
+
+	/**
+	 * Report this node (and its children) to the visitor.
+	 * 
+	 * @param visitor
+	 */
+	abstract void accept(TemplateVisitor visitor);
+
+}
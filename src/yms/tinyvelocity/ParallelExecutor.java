@@ -0,0 +1,25 @@
+package yms.tinyvelocity;
+
+/**
+ * Runs the chunks of parallel <b>#foreach</b> loops, see
+ * {@link TinyVelocityEngine#setParallelExecutor(ParallelExecutor)}.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public interface ParallelExecutor {
+
+	/**
+	 * @return the number of tasks that can run at the same time
+	 */
+	public int getParallelism();
+
+	/**
+	 * Run all the tasks and return when all of them are done. If a task
+	 * throws, the exception is thrown by this method.
+	 * 
+	 * @param tasks
+	 */
+	public void invokeAll(Runnable[] tasks);
+
+}
@@ -0,0 +1,163 @@
+package yms.tinyvelocity;
+
+import java.io.IOException;
+
+/**
+ * The current element of a primitive array iterated by <b>#foreach</b>. One
+ * instance is used for the whole loop and is kept in the loop variable frame
+ * slot; the element is boxed only when it is used as an object (as a path
+ * head, an #if condition or by a provider that formats it).
+ * 
+ * @author Yotam Madem
+ * 
+ */
+final class PrimitiveElement {
+	private static final int INT = 0;
+	private static final int LONG = 1;
+	private static final int DOUBLE = 2;
+	private static final int FLOAT = 3;
+	private static final int SHORT = 4;
+	private static final int BYTE = 5;
+	private static final int CHAR = 6;
+	private static final int BOOLEAN = 7;
+
+	/** the boxed type of each kind */
+	private static final Class<?>[] BOXED = { Integer.class, Long.class,
+			Double.class, Float.class, Short.class, Byte.class,
+			Character.class, Boolean.class };
+
+	private final Object array;
+	private final int kind;
+	final int length;
+	int index = 0;
+
+	private PrimitiveElement(Object array, int kind, int length) {
+		this.array = array;
+		this.kind = kind;
+		this.length = length;
+	}
+
+	/**
+	 * @return an element for iterating the array, or null if it is not a
+	 *         primitive array
+	 */
+	static PrimitiveElement forArray(Object array) {
+		if (array instanceof int[]) {
+			return new PrimitiveElement(array, INT, ((int[]) array).length);
+		} else if (array instanceof long[]) {
+			return new PrimitiveElement(array, LONG, ((long[]) array).length);
+		} else if (array instanceof double[]) {
+			return new PrimitiveElement(array, DOUBLE,
+					((double[]) array).length);
+		} else if (array instanceof float[]) {
+			return new PrimitiveElement(array, FLOAT, ((float[]) array).length);
+		} else if (array instanceof short[]) {
+			return new PrimitiveElement(array, SHORT, ((short[]) array).length);
+		} else if (array instanceof byte[]) {
+			return new PrimitiveElement(array, BYTE, ((byte[]) array).length);
+		} else if (array instanceof char[]) {
+			return new PrimitiveElement(array, CHAR, ((char[]) array).length);
+		} else if (array instanceof boolean[]) {
+			return new PrimitiveElement(array, BOOLEAN,
+					((boolean[]) array).length);
+		}
+		return null;
+	}
+
+	/**
+	 * @return the class of the boxed elements
+	 */
+	Class<?> getBoxedType() {
+		return BOXED[kind];
+	}
+
+	/**
+	 * @return the current element boxed
+	 */
+	Object box() {
+		switch (kind) {
+		case INT:
+			return ((int[]) array)[index];
+		case LONG:
+			return ((long[]) array)[index];
+		case DOUBLE:
+			return ((double[]) array)[index];
+		case FLOAT:
+			return ((float[]) array)[index];
+		case SHORT:
+			return ((short[]) array)[index];
+		case BYTE:
+			return ((byte[]) array)[index];
+		case CHAR:
+			return ((char[]) array)[index];
+		default:
+			return ((boolean[]) array)[index];
+		}
+	}
+
+	/**
+	 * Write String.valueOf(current element) to out without boxing it.
+	 */
+	void appendTo(Appendable out) throws IOException {
+		switch (kind) {
+		case INT:
+			appendLong(out, ((int[]) array)[index]);
+			break;
+		case LONG:
+			appendLong(out, ((long[]) array)[index]);
+			break;
+		case SHORT:
+			appendLong(out, ((short[]) array)[index]);
+			break;
+		case BYTE:
+			appendLong(out, ((byte[]) array)[index]);
+			break;
+		case CHAR:
+			out.append(((char[]) array)[index]);
+			break;
+		case BOOLEAN:
+			out.append(((boolean[]) array)[index] ? "true" : "false");
+			break;
+		case DOUBLE:
+			if (out instanceof StringBuilder) {
+				((StringBuilder) out).append(((double[]) array)[index]);
+			} else {
+				out.append(String.valueOf(((double[]) array)[index]));
+			}
+			break;
+		default:
+			if (out instanceof StringBuilder) {
+				((StringBuilder) out).append(((float[]) array)[index]);
+			} else {
+				out.append(String.valueOf(((float[]) array)[index]));
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Write the decimal digits of value without creating a String.
+	 */
+	static void appendLong(Appendable out, long value) throws IOException {
+		if (out instanceof StringBuilder) {
+			((StringBuilder) out).append(value);
+			return;
+		}
+		if (value < 0) {
+			if (value == Long.MIN_VALUE) {
+				out.append("-9223372036854775808");
+				return;
+			}
+			out.append('-');
+			value = -value;
+		}
+		long p = 1;
+		while (p <= value / 10) {
+			p *= 10;
+		}
+		for (; p > 0; p /= 10) {
+			out.append((char) ('0' + (value / p) % 10));
+		}
+	}
+
+}
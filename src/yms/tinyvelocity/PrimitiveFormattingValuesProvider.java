@@ -0,0 +1,28 @@
+package yms.tinyvelocity;
+
+/**
+ * Marker for a {@link ValuesProvider} whose
+ * {@link #getObjectAsString(Object)} returns <code>String.valueOf</code> of
+ * the value for boxed primitives (Integer, Long, Double, Character, Boolean
+ * ...).
+ * 
+ * When the provider has this marker and {@link #isPrimitiveFormatting()}
+ * returns true, the engine writes the elements of primitive arrays iterated
+ * by <b>#foreach</b> directly to the output, without boxing them.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public interface PrimitiveFormattingValuesProvider extends ValuesProvider {
+
+	/**
+	 * Checked once per render. Providers that can be subclassed should
+	 * return true only for their own class, a subclass may override
+	 * {@link #getObjectAsString(Object)}.
+	 * 
+	 * @return true if {@link #getObjectAsString(Object)} formats boxed
+	 *         primitives with <code>String.valueOf</code>
+	 */
+	public boolean isPrimitiveFormatting();
+
+}
@@ -0,0 +1,72 @@
+package yms.tinyvelocity;
+
+/**
+ * A place in a template that a {@link TemplateProfiler} receives timings
+ * for: a directive, a line, a static text block or a variable reference.
+ * Points are created when a template is compiled with a profiler and are
+ * compared by identity.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public final class ProfilePoint {
+
+	public enum Kind {
+		/** lines without references */
+		TEXT,
+		/** a line with references, the time includes its references */
+		LINE,
+		/** a single variable reference (a property lookup) */
+		REFERENCE,
+		/** an #if block, the time includes its branches */
+		IF,
+		/** a #foreach block, the time includes its body */
+		FOREACH,
+		/** a #cache block, the time includes its body when it is rendered */
+		CACHE
+	}
+
+	private final String templateName;
+	private final int line;
+	private final Kind kind;
+	private final String source;
+
+	ProfilePoint(String templateName, int line, Kind kind, String source) {
+		this.templateName = templateName;
+		this.line = line;
+		this.kind = kind;
+		this.source = source;
+	}
+
+	/**
+	 * @return the name the template was compiled with, or null
+	 */
+	public String getTemplateName() {
+		return templateName;
+	}
+
+	/**
+	 * @return the 1 based source line (the first line of a text block)
+	 */
+	public int getLine() {
+		return line;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * @return the directive line, the reference path or the first text line
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	@Override
+	public String toString() {
+		return (templateName == null ? "" : templateName) + ":" + line + " "
+				+ kind + " " + source;
+	}
+
+}
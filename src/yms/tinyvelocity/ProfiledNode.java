@@ -0,0 +1,45 @@
+package yms.tinyvelocity;
+
+import java.io.IOException;
+
+/**
+ * Times the rendering of another node for a {@link TemplateProfiler}.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+class ProfiledNode extends Node {
+	private final Node node;
+	private final ProfilePoint point;
+	private final TemplateProfiler profiler;
+
+	ProfiledNode(Node node, ProfilePoint point, TemplateProfiler profiler) {
+		this.node = node;
+		this.point = point;
+		this.profiler = profiler;
+	}
+
+	@Override
+	void render(RenderContext ctx) throws IOException {
+		long outerNested = ctx.profiledNanos;
+		ctx.profiledNanos = 0;
+		Object token = profiler.start(point);
+		long start = System.nanoTime();
+		try {
+			node.render(ctx);
+		} finally {
+			long total = System.nanoTime() - start;
+			// the nested points of a parallel loop run at the same time, so
+			// their sum can be longer than the loop
+			long self = Math.max(0, total - ctx.profiledNanos);
+			profiler.record(point, total, self, token);
+			ctx.profiledNanos = outerNested + total;
+		}
+	}
+
+	@Override
+	void accept(TemplateVisitor visitor) {
+		node.accept(visitor);
+	}
+
+}
@@ -0,0 +1,40 @@
+package yms.tinyvelocity;
+
+/**
+ * Times the evaluation of a variable reference for a
+ * {@link TemplateProfiler}.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+class ProfiledVarReference extends VarReference {
+	private final ProfilePoint point;
+	private final TemplateProfiler profiler;
+
+	ProfiledVarReference(PropertyPath path, int[] slots, int[] bulkIndexes,
+			int rootIndex, ProfilePoint point, TemplateProfiler profiler) {
+		super(path, slots, bulkIndexes, rootIndex);
+		this.point = point;
+		this.profiler = profiler;
+	}
+
+	@Override
+	Object getValue(RenderContext ctx) {
+		Object token = profiler.start(point);
+		long start = System.nanoTime();
+		try {
+			return super.getValue(ctx);
+		} finally {
+			long total = System.nanoTime() - start;
+			profiler.record(point, total, total, token);
+			ctx.profiledNanos += total;
+		}
+	}
+
+	@Override
+	boolean appendUnboxed(RenderContext ctx) {
+		// every evaluation goes through getValue so it is timed
+		return false;
+	}
+
+}
@@ -0,0 +1,19 @@
+package yms.tinyvelocity;
+
+/**
+ * Reads one property from objects of one class, see
+ * {@link AccessorValuesProvider}.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public interface PropertyAccessor {
+
+	/**
+	 * @param obj
+	 *            - never null
+	 * @return the property value, or null if it does not exist
+	 */
+	public Object get(Object obj);
+
+}
@@ -0,0 +1,167 @@
+package yms.tinyvelocity;
+
+/**
+ * A compiled variable reference like <code>order.customer.name</code>.
+ * 
+ * The path is split once when the template is compiled. Every property
+ * element of the path keeps a small inline cache of (provider class, object
+ * class) -&gt; {@link PropertyAccessor}, filled when the provider is an
+ * {@link AccessorValuesProvider}, so evaluating the path again (for example
+ * in every iteration of a <b>#foreach</b>) costs a class check and a direct
+ * accessor call per element.
+ * 
+ * Property paths are thread safe.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public final class PropertyPath {
+	/** number of classes an element caches before it stops caching */
+	private static final int MAX_CACHED_CLASSES = 4;
+
+	private static final class CacheEntry {
+		final Class<?> providerType;
+		final Class<?> objType;
+		/** null if the provider can not cache this property */
+		final PropertyAccessor accessor;
+
+		CacheEntry(Class<?> providerType, Class<?> objType,
+				PropertyAccessor accessor) {
+			this.providerType = providerType;
+			this.objType = objType;
+			this.accessor = accessor;
+		}
+	}
+
+	private static final class Element {
+		final String name;
+		volatile CacheEntry[] cache = new CacheEntry[0];
+
+		Element(String name) {
+			this.name = name;
+		}
+
+		Object getValue(ValuesProvider provider, Object obj) {
+			Class<?> providerType = provider.getClass();
+			Class<?> objType = obj.getClass();
+			CacheEntry[] entries = cache;
+			for (CacheEntry e : entries) {
+				if (e.objType == objType && e.providerType == providerType) {
+					return e.accessor != null ? e.accessor.get(obj)
+							: provider.getProperty(obj, name);
+				}
+			}
+			if (entries.length < MAX_CACHED_CLASSES
+					&& provider instanceof AccessorValuesProvider) {
+				PropertyAccessor accessor = ((AccessorValuesProvider) provider)
+						.getAccessor(objType, name);
+				CacheEntry[] grown = new CacheEntry[entries.length + 1];
+				System.arraycopy(entries, 0, grown, 0, entries.length);
+				grown[entries.length] = new CacheEntry(providerType, objType,
+						accessor);
+				cache = grown;
+				if (accessor != null) {
+					return accessor.get(obj);
+				}
+			}
+			return provider.getProperty(obj, name);
+		}
+	}
+
+	private final String path;
+	private final String head;
+	private final Element[] elements;
+
+	private PropertyPath(String path, String[] names) {
+		this.path = path;
+		this.head = names.length > 0 ? names[0] : "";
+		this.elements = new Element[Math.max(names.length - 1, 0)];
+		for (int i = 1; i < names.length; i++) {
+			elements[i - 1] = new Element(names[i]);
+		}
+	}
+
+	/**
+	 * @param path
+	 *            - a variable name or a dotted path, without the '$'
+	 * @return
+	 */
+	public static PropertyPath parse(String path) {
+		return new PropertyPath(path, path.split("\\."));
+	}
+
+	/**
+	 * @return the path as it was written in the template
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * @return the first element of the path, the variable name
+	 */
+	public String getHead() {
+		return head;
+	}
+
+	/**
+	 * @return the number of properties after the head
+	 */
+	public int getPropertyCount() {
+		return elements.length;
+	}
+
+	/**
+	 * @return the name of the i'th property after the head
+	 */
+	public String getPropertyName(int i) {
+		return elements[i].name;
+	}
+
+	/**
+	 * Evaluate the path from the root of the values provider.
+	 * 
+	 * @param provider
+	 * @return the value or null if it does not exist
+	 */
+	public Object getRootValue(ValuesProvider provider) {
+		return getValue(provider, provider.getProperty(null, head));
+	}
+
+	/**
+	 * Evaluate the path given the value of its head.
+	 * 
+	 * @param provider
+	 * @param headValue
+	 *            - can be null
+	 * @return the value or null if it does not exist
+	 */
+	public Object getValue(ValuesProvider provider, Object headValue) {
+		return getValue(provider, headValue, 0);
+	}
+
+	/**
+	 * Evaluate the path from the given property on, given the value of the
+	 * path up to that property.
+	 * 
+	 * @param provider
+	 * @param value
+	 *            - can be null
+	 * @param from
+	 *            - index of the first property after the head to evaluate
+	 * @return the value or null if it does not exist
+	 */
+	Object getValue(ValuesProvider provider, Object value, int from) {
+		Object obj = value;
+		for (int i = from; i < elements.length && obj != null; i++) {
+			obj = elements[i].getValue(provider, obj);
+		}
+		return obj;
+	}
+
+	@Override
+	public String toString() {
+		return path;
+	}
+
+}
@@ -0,0 +1,27 @@
+package yms.tinyvelocity;
+
+/**
+ * Reuses {@link RenderBuffers} across renders, see
+ * {@link TinyVelocityEngine#setBufferPool(RenderBufferPool)}.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public interface RenderBufferPool {
+
+	/**
+	 * @return buffers that no other render uses until they are released. A
+	 *         render may start while another render on the same thread is
+	 *         running (a values provider that renders a template).
+	 */
+	public RenderBuffers acquire();
+
+	/**
+	 * The render is done with the buffers.
+	 * 
+	 * @param buffers
+	 *            - buffers returned by {@link #acquire()}
+	 */
+	public void release(RenderBuffers buffers);
+
+}
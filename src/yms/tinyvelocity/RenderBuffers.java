@@ -0,0 +1,53 @@
+package yms.tinyvelocity;
+
+/**
+ * Scratch buffers of a render: the output builder used when rendering to a
+ * String and the loop variables frame. By default every render gets new
+ * buffers; an engine with a {@link RenderBufferPool} reuses them across
+ * renders, so a steady state render allocates little more than its result.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public final class RenderBuffers {
+	/** builders that grew larger than this are not kept */
+	private static final int MAX_RETAINED_CHARS = 64 * 1024;
+	private static final int INITIAL_CHARS = 256;
+
+	private StringBuilder out = new StringBuilder(INITIAL_CHARS);
+	private Object[] frame = new Object[8];
+
+	public RenderBuffers() {
+	}
+
+	/**
+	 * Make the buffers ready for the next render, dropping an output builder
+	 * that grew too large to be kept.
+	 */
+	public void clear() {
+		if (out.capacity() > MAX_RETAINED_CHARS) {
+			out = new StringBuilder(INITIAL_CHARS);
+		} else {
+			out.setLength(0);
+		}
+	}
+
+	/**
+	 * @return an empty output builder
+	 */
+	StringBuilder getOut() {
+		return out;
+	}
+
+	/**
+	 * @return a frame with at least size slots, all of them null (loops
+	 *         clear their slot when they end)
+	 */
+	Object[] getFrame(int size) {
+		if (frame.length < size) {
+			frame = new Object[size];
+		}
+		return frame;
+	}
+
+}
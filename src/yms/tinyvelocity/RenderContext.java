@@ -0,0 +1,135 @@
+package yms.tinyvelocity;
+
+import java.io.IOException;
+
+/**
+ * The state of a single render: the values provider, the frame that holds
+ * the loop variables and the output. A new context is created for every
+ * render (its frame comes from the render's {@link RenderBuffers}), so a
+ * compiled template can be rendered by many threads at the same time.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+class RenderContext {
+	final TinyVelocityEngine engine;
+	final ValuesProvider provider;
+	final Appendable out;
+	/** loop variables values, indexed by the slots assigned at compile time */
+	final Object[] frame;
+	/** the render metrics, null when the engine has no render listener */
+	final RenderStats stats;
+	/**
+	 * time spent in the profiled points nested in the current profiled point,
+	 * see {@link ProfiledNode}
+	 */
+	long profiledNanos = 0;
+	/**
+	 * the values read with {@link BulkValuesProvider#getProperties} from the
+	 * current element of every loop, indexed by the loop slot. null if the
+	 * provider is not a bulk provider.
+	 */
+	final Object[][] bulk;
+	/** the root variables read with one bulk call, or null */
+	Object[] rootValues = null;
+	/** the escaping of the values of the template */
+	final Escaping escaping;
+	/** out, escaping what is appended to it */
+	final Appendable valueOut;
+	/** the engine formatters, or null */
+	final FormatterRegistry formatters;
+	/**
+	 * true if primitive loop elements are written without boxing, unless
+	 * their type has a formatter, see {@link PrimitiveFormattingValuesProvider}
+	 */
+	final boolean unboxed;
+
+	RenderContext(TinyVelocityEngine engine, ValuesProvider provider,
+			Appendable out, Object[] frame, RenderStats stats,
+			Escaping escaping) {
+		this.engine = engine;
+		this.provider = provider;
+		this.out = out;
+		this.frame = frame;
+		this.stats = stats;
+		this.bulk = provider instanceof BulkValuesProvider ? new Object[frame.length][]
+				: null;
+		this.escaping = escaping;
+		this.valueOut = escaping.wrap(out);
+		this.formatters = engine.getFormatters();
+		this.unboxed = provider instanceof PrimitiveFormattingValuesProvider
+				&& ((PrimitiveFormattingValuesProvider) provider)
+						.isPrimitiveFormatting();
+	}
+
+	private RenderContext(RenderContext ctx, Appendable out, Object[] frame,
+			Object[][] bulk, RenderStats stats) {
+		this.engine = ctx.engine;
+		this.provider = ctx.provider;
+		this.out = out;
+		this.frame = frame;
+		this.stats = stats;
+		this.bulk = bulk;
+		this.rootValues = ctx.rootValues;
+		this.escaping = ctx.escaping;
+		this.valueOut = escaping.wrap(out);
+		this.formatters = ctx.formatters;
+		this.unboxed = ctx.unboxed;
+	}
+
+	/**
+	 * Write the value of a reference with its formatter, or as the provider
+	 * formats it, escaped.
+	 */
+	void appendValue(Object value) throws IOException {
+		if (formatters == null || !formatters.format(value, valueOut)) {
+			valueOut.append(provider.getObjectAsString(value));
+		}
+	}
+
+	/**
+	 * @return this context, or a context like it with a frame of size slots
+	 *         if the frame is smaller, for the parts of a template that is
+	 *         compiled part by part
+	 */
+	RenderContext withFrameSize(int size) {
+		if (frame.length >= size) {
+			return this;
+		}
+		return new RenderContext(this, out, new Object[size],
+				bulk == null ? null : new Object[size][], stats);
+	}
+
+	/**
+	 * @return a context that renders into out with the same frame and stats
+	 */
+	RenderContext withOut(Appendable out) {
+		RenderContext ctx = new RenderContext(this, out, frame, bulk, stats);
+		ctx.profiledNanos = profiledNanos;
+		return ctx;
+	}
+
+	/**
+	 * @return a context for rendering a chunk of a parallel loop into out,
+	 *         with a copy of the current frame and its own stats and
+	 *         profiled time (which are added to these with
+	 *         {@link #join(RenderContext)} when the chunk is done).
+	 */
+	RenderContext fork(Appendable out) {
+		return new RenderContext(this, out, frame.clone(),
+				bulk == null ? null : bulk.clone(), stats == null ? null
+						: new RenderStats(stats.getTemplateName()));
+	}
+
+	/**
+	 * Add the stats and the profiled time of a chunk created by
+	 * {@link #fork(Appendable)}.
+	 */
+	void join(RenderContext chunk) {
+		if (stats != null) {
+			stats.add(chunk.stats);
+		}
+		profiledNanos += chunk.profiledNanos;
+	}
+
+}
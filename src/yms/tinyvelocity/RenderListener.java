@@ -0,0 +1,55 @@
+package yms.tinyvelocity;
+
+/**
+ * Receives metrics about renders, see
+ * {@link TinyVelocityEngine#setRenderListener(RenderListener)}.
+ * 
+ * The methods are called by the rendering threads, so implementations must
+ * be thread safe and fast.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public interface RenderListener {
+
+	/**
+	 * A render starts, the stats are empty and are passed again to
+	 * {@link #renderCompleted(RenderStats)} or
+	 * {@link #renderFailed(RenderStats, Throwable)}.
+	 * 
+	 * @param stats
+	 */
+	public void renderStarted(RenderStats stats);
+
+	/**
+	 * A render completed.
+	 * 
+	 * @param stats
+	 */
+	public void renderCompleted(RenderStats stats);
+
+	/**
+	 * A render threw an exception (which is thrown to the caller after this
+	 * method returns).
+	 * 
+	 * @param stats
+	 *            - what was done until the failure
+	 * @param error
+	 */
+	public void renderFailed(RenderStats stats, Throwable error);
+
+	/**
+	 * A compiled template was looked up in a
+	 * {@link yms.tinyvelocity.cache.TemplateCache}.
+	 * 
+	 * @param templateName
+	 *            - can be null if the template was cached by its source
+	 * @param hit
+	 *            - false if the template had to be compiled
+	 * @param compileNanos
+	 *            - the compilation time of a miss, 0 for a hit
+	 */
+	public void templateCacheAccess(String templateName, boolean hit,
+			long compileNanos);
+
+}
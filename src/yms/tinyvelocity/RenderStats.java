@@ -0,0 +1,136 @@
+package yms.tinyvelocity;
+
+/**
+ * The metrics of a single render, passed to a {@link RenderListener}.
+ * 
+ * The engine collects them only when a listener is set, so there is no cost
+ * otherwise.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public class RenderStats {
+	private final String templateName;
+	private long durationNanos = 0;
+	private long chars = 0;
+	long propertyLookups = 0;
+	long loopIterations = 0;
+	long fragmentHits = 0;
+	long fragmentMisses = 0;
+	/** kept for the render listener */
+	private Object attachment = null;
+
+	RenderStats(String templateName) {
+		this.templateName = templateName;
+	}
+
+	/**
+	 * @return the name the template was compiled with, or null
+	 */
+	public String getTemplateName() {
+		return templateName;
+	}
+
+	public long getDurationNanos() {
+		return durationNanos;
+	}
+
+	/**
+	 * @return number of characters written
+	 */
+	public long getChars() {
+		return chars;
+	}
+
+	/**
+	 * @return number of property lookups the render asked for (through
+	 *         {@link ValuesProvider#getProperty(Object, String)} or a cached
+	 *         {@link PropertyAccessor})
+	 */
+	public long getPropertyLookups() {
+		return propertyLookups;
+	}
+
+	/**
+	 * @return total number of <b>#foreach</b> iterations
+	 */
+	public long getLoopIterations() {
+		return loopIterations;
+	}
+
+	/**
+	 * @return number of <b>#cache</b> blocks written from the fragment cache
+	 */
+	public long getFragmentHits() {
+		return fragmentHits;
+	}
+
+	/**
+	 * @return number of <b>#cache</b> blocks that were rendered and stored in
+	 *         the fragment cache
+	 */
+	public long getFragmentMisses() {
+		return fragmentMisses;
+	}
+
+	/**
+	 * @return the object set by {@link #setAttachment(Object)}, or null
+	 */
+	public Object getAttachment() {
+		return attachment;
+	}
+
+	/**
+	 * Keep an object of the render listener with the stats, usually set in
+	 * {@link RenderListener#renderStarted(RenderStats)} and read back when
+	 * the render is done.
+	 * 
+	 * @param attachment
+	 */
+	public void setAttachment(Object attachment) {
+		this.attachment = attachment;
+	}
+
+	/**
+	 * Count property lookups of a {@link TemplateRenderer}.
+	 * 
+	 * @param count
+	 */
+	public void addPropertyLookups(long count) {
+		propertyLookups += count;
+	}
+
+	/**
+	 * Count loop iterations of a {@link TemplateRenderer}.
+	 * 
+	 * @param count
+	 */
+	public void addLoopIterations(long count) {
+		loopIterations += count;
+	}
+
+	void finish(long durationNanos, long chars) {
+		this.durationNanos = durationNanos;
+		this.chars = chars;
+	}
+
+	/**
+	 * Add the counters of a parallel loop chunk.
+	 */
+	void add(RenderStats chunk) {
+		propertyLookups += chunk.propertyLookups;
+		loopIterations += chunk.loopIterations;
+		fragmentHits += chunk.fragmentHits;
+		fragmentMisses += chunk.fragmentMisses;
+	}
+
+	@Override
+	public String toString() {
+		return "RenderStats[template=" + templateName + ", nanos="
+				+ durationNanos + ", chars=" + chars + ", lookups="
+				+ propertyLookups + ", iterations=" + loopIterations
+				+ ", fragmentHits=" + fragmentHits + ", fragmentMisses="
+				+ fragmentMisses + "]";
+	}
+
+}
@@ -0,0 +1,31 @@
+package yms.tinyvelocity;
+
+import java.io.IOException;
+
+/**
+ * Delegates the rendering of a whole template to a {@link TemplateRenderer}.
+ * Visitors walk the structure the renderer was built from.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+class RendererNode extends Node {
+	private final TemplateRenderer renderer;
+	private final Node structure;
+
+	RendererNode(TemplateRenderer renderer, Node structure) {
+		this.renderer = renderer;
+		this.structure = structure;
+	}
+
+	@Override
+	void render(RenderContext ctx) throws IOException {
+		renderer.render(ctx.provider, ctx.out, ctx.stats);
+	}
+
+	@Override
+	void accept(TemplateVisitor visitor) {
+		structure.accept(visitor);
+	}
+
+}
@@ -0,0 +1,673 @@
+package yms.tinyvelocity;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Compiles the template lines into a tree of {@link Node}s. The compiler is
+ * used for a single template and is not thread safe.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+class TemplateCompiler {
+	private static final String CRLF = "\\r?\\n";
+	private static final String OUT_CRLF = "\r\n";
+
+	// All the "tokens" declarations
+	private static final String END_STR = "#end";
+	private static final String FOREACH_STR = "#foreach";
+	private static final String ELSE_STR = "#else";
+	private static final String IF_STR = "#if";
+	private static final String CACHE_STR = "#cache";
+	private static final String ESCAPE_STR = "#escape";
+	private static final String PARALLEL_STR = "parallel";
+
+	private static final int TOK_IF = 1;
+	private static final int TOK_ELSE = 2;
+	private static final int TOK_FOREACH = 3;
+	private static final int TOK_CACHE = 4;
+	private static final int TOK_END = 10;
+
+	private static final int[] NO_TERMINATORS = new int[] {};
+
+	private String[] lines;
+	private int pos = 0;
+	/** the line of the first line collected into the current text block */
+	private int textLine = 0;
+
+	/** the name of the template, for the profile points */
+	private final String name;
+	/** instruments the compiled template if not null */
+	private final TemplateProfiler profiler;
+	/** the values folded into the template if not null */
+	private final ValuesProvider constants;
+	/** formats the folded values if not null */
+	private final FormatterRegistry formatters;
+	private Escaping escaping;
+
+	/** the loop variables of the open #foreach blocks, the slot is the index */
+	private final ArrayList<String> loopVars = new ArrayList<String>();
+	/**
+	 * the properties read from the loop variables of the open #foreach
+	 * blocks, see {@link BulkValuesProvider}
+	 */
+	private final ArrayList<ArrayList<String>> loopProps = new ArrayList<ArrayList<String>>();
+	/** the root variables read by the template */
+	private final ArrayList<String> rootNames = new ArrayList<String>();
+	private int frameSize = 0;
+
+	TemplateCompiler(String template) {
+		this(null, template, null, null, null, Escaping.NONE);
+	}
+
+	/**
+	 * @param name
+	 *            - can be null
+	 * @param template
+	 * @param profiler
+	 *            - can be null
+	 * @param constants
+	 *            - the root variables known at compile time, see
+	 *            {@link TinyVelocityEngine#specialize(String, String, ValuesProvider)}
+	 *            . can be null
+	 * @param formatters
+	 *            - the formatters of the constants, can be null
+	 * @param escaping
+	 *            - the escaping if the template has no <b>#escape</b> line
+	 */
+	TemplateCompiler(String name, String template, TemplateProfiler profiler,
+			ValuesProvider constants, FormatterRegistry formatters,
+			Escaping escaping) {
+		this(name, template.split(CRLF), profiler, constants, formatters,
+				escaping);
+	}
+
+	/**
+	 * @param lines
+	 *            - the template lines, without their terminators
+	 */
+	TemplateCompiler(String name, String[] lines, TemplateProfiler profiler,
+			ValuesProvider constants, FormatterRegistry formatters,
+			Escaping escaping) {
+		this.lines = lines;
+		this.name = name;
+		this.profiler = profiler;
+		this.constants = constants;
+		this.formatters = formatters;
+		this.escaping = escaping;
+	}
+
+	Node compile() {
+		if (lines.length > 0 && isEscapeLine(lines[0])) {
+			escaping = getEscaping(lines[0].trim());
+			pos++;
+		}
+		return compileBody();
+	}
+
+	/**
+	 * Compile the template without looking for an <b>#escape</b> first line,
+	 * for a part of a template.
+	 */
+	Node compileBody() {
+		return compileBlock(NO_TERMINATORS);
+	}
+
+	/**
+	 * Compile the next part of a template that is compiled part by part
+	 * (see {@link TemplateStream}). The root names and the frame size are
+	 * those of all the parts compiled so far.
+	 * 
+	 * @param lines
+	 *            - complete top level lines and blocks
+	 */
+	Node compileBody(String[] lines) {
+		this.lines = lines;
+		pos = 0;
+		textLine = 0;
+		return compileBody();
+	}
+
+	/**
+	 * @return true if the line sets the escaping, when it is the first line
+	 */
+	static boolean isEscapeLine(String line) {
+		return line.trim().startsWith(ESCAPE_STR);
+	}
+
+	/**
+	 * @return 1 if the line opens a block, -1 if it is an <b>#end</b>, 0
+	 *         otherwise
+	 */
+	static int getBlockDelta(String line) {
+		String tr = line.trim();
+		if (!tr.startsWith("#")) {
+			return 0;
+		}
+		switch (getTokenCode(tr)) {
+		case TOK_IF:
+		case TOK_FOREACH:
+		case TOK_CACHE:
+			return 1;
+		case TOK_END:
+			return -1;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * @return the escaping of the values of the compiled template
+	 */
+	Escaping getEscaping() {
+		return escaping;
+	}
+
+	static Escaping getEscaping(String line) {
+		int from = line.indexOf('(');
+		int to = line.lastIndexOf(')');
+		if (from < 0 || to < from) {
+			throw new Error("escape syntax is wrong: " + line);
+		}
+		try {
+			return Escaping.forName(line.substring(from + 1, to));
+		} catch (IllegalArgumentException e) {
+			throw new Error("escape syntax is wrong, unknown escaping: " + line);
+		}
+	}
+
+	/**
+	 * @return the number of frame slots needed to render the compiled
+	 *         template (the deepest #foreach nesting).
+	 */
+	int getFrameSize() {
+		return frameSize;
+	}
+
+	/**
+	 * @return the root variables the compiled template reads without a loop
+	 *         variable candidate, read with one bulk call.
+	 */
+	String[] getRootNames() {
+		return rootNames.toArray(new String[rootNames.size()]);
+	}
+
+	/**
+	 * Resolve the loop variables the path may refer to, innermost first.
+	 */
+	private VarReference reference(String path) {
+		PropertyPath propertyPath = PropertyPath.parse(path);
+		int count = 0;
+		for (String loopVar : loopVars) {
+			if (loopVar.equals(propertyPath.getHead())) {
+				count++;
+			}
+		}
+		int[] slots = new int[count];
+		for (int slot = loopVars.size() - 1; slot >= 0; slot--) {
+			if (loopVars.get(slot).equals(propertyPath.getHead())) {
+				slots[slots.length - count--] = slot;
+			}
+		}
+		int[] bulkIndexes = new int[slots.length];
+		for (int i = 0; i < slots.length; i++) {
+			bulkIndexes[i] = propertyPath.getPropertyCount() == 0 ? -1
+					: indexOf(loopProps.get(slots[i]),
+							propertyPath.getPropertyName(0));
+		}
+		int rootIndex = slots.length == 0 ? indexOf(rootNames,
+				propertyPath.getHead()) : -1;
+		if (profiler != null) {
+			return new ProfiledVarReference(propertyPath, slots, bulkIndexes,
+					rootIndex, new ProfilePoint(name, pos + 1,
+							ProfilePoint.Kind.REFERENCE, path), profiler);
+		}
+		return new VarReference(propertyPath, slots, bulkIndexes, rootIndex);
+	}
+
+	/**
+	 * @return the index of the name in the list, the name is added if it is
+	 *         not there.
+	 */
+	private static int indexOf(ArrayList<String> names, String name) {
+		int index = names.indexOf(name);
+		if (index < 0) {
+			index = names.size();
+			names.add(name);
+		}
+		return index;
+	}
+
+	/**
+	 * @return the value of the path if it is a root path known at compile
+	 *         time, null if it must be evaluated when rendering
+	 */
+	private Object constantValue(String path) {
+		if (constants == null) {
+			return null;
+		}
+		PropertyPath propertyPath = PropertyPath.parse(path);
+		if (loopVars.contains(propertyPath.getHead())) {
+			// may be a loop variable, the root is only the fallback
+			return null;
+		}
+		return propertyPath.getRootValue(constants);
+	}
+
+	/**
+	 * @return the number of names collected so far for the root and for every
+	 *         open loop, see {@link #reset(int[])}
+	 */
+	private int[] mark() {
+		int[] sizes = new int[loopProps.size() + 1];
+		sizes[0] = rootNames.size();
+		for (int i = 0; i < loopProps.size(); i++) {
+			sizes[i + 1] = loopProps.get(i).size();
+		}
+		return sizes;
+	}
+
+	/**
+	 * Forget the names collected since the mark, used when a compiled block
+	 * is dropped.
+	 */
+	private void reset(int[] sizes) {
+		truncate(rootNames, sizes[0]);
+		for (int i = 0; i < loopProps.size(); i++) {
+			truncate(loopProps.get(i), sizes[i + 1]);
+		}
+	}
+
+	private static void truncate(ArrayList<String> names, int size) {
+		while (names.size() > size) {
+			names.remove(names.size() - 1);
+		}
+	}
+
+	/**
+	 * Wrap the node with a {@link ProfiledNode} if the template is profiled.
+	 */
+	private Node profiled(Node node, int line, ProfilePoint.Kind kind) {
+		if (profiler == null) {
+			return node;
+		}
+		return new ProfiledNode(node, new ProfilePoint(name, line, kind,
+				lines[line - 1].trim()), profiler);
+	}
+
+	/**
+	 * Compile lines until one of the terminators is found. when this method
+	 * returns, pos points to the terminator line (or after the last line for
+	 * the top level block).
+	 */
+	private Node compileBlock(int[] terminators) {
+		ArrayList<Node> nodes = new ArrayList<Node>();
+		StringBuilder text = new StringBuilder();
+		while (true) {
+			if (pos >= lines.length) {
+				if (terminators.length > 0) {
+					throw new Error("Parse error: expected token(s): "
+							+ getArrayAsString(terminators) + " but found EOF.");
+				}
+				break;
+			}
+			String line = lines[pos];
+			String tr = line.trim();
+			int tokenCode = tr.startsWith("#") ? getTokenCode(tr) : 0;
+			if (isTerminator(tokenCode, terminators)) {
+				break;
+			}
+			switch (tokenCode) {
+			case TOK_IF:
+				int ifLine = pos + 1;
+				Node ifNode = compileIf();
+				if (ifNode instanceof TextNode) {
+					// a constant condition that selected static text
+					if (text.length() == 0) {
+						textLine = ifLine;
+					}
+					text.append(((TextNode) ifNode).getText());
+				} else if (ifNode instanceof IfNode) {
+					flushText(text, nodes);
+					nodes.add(profiled(ifNode, ifLine, ProfilePoint.Kind.IF));
+				} else if (ifNode != null) {
+					flushText(text, nodes);
+					nodes.add(ifNode);
+				}
+				break;
+			case TOK_FOREACH:
+				flushText(text, nodes);
+				int foreachLine = pos + 1;
+				nodes.add(profiled(compileForeach(), foreachLine,
+						ProfilePoint.Kind.FOREACH));
+				break;
+			case TOK_CACHE:
+				flushText(text, nodes);
+				int cacheLine = pos + 1;
+				nodes.add(profiled(compileCache(), cacheLine,
+						ProfilePoint.Kind.CACHE));
+				break;
+			case TOK_END:
+			case TOK_ELSE:
+				throw new Error("Parse error: unexpected token: "
+						+ getTokenName(tokenCode) + " at line " + (pos + 1)
+						+ ".");
+			default:
+				compileLine(line, text, nodes);
+				pos++;
+				break;
+			}
+		}
+		flushText(text, nodes);
+		if (nodes.size() == 1) {
+			return nodes.get(0);
+		}
+		return new BlockNode(nodes);
+	}
+
+	private void flushText(StringBuilder text, ArrayList<Node> nodes) {
+		if (text.length() > 0) {
+			nodes.add(profiled(new TextNode(text.toString()), textLine,
+					ProfilePoint.Kind.TEXT));
+			text.setLength(0);
+		}
+	}
+
+	private boolean isTerminator(int tokenCode, int[] terminators) {
+		for (int terminator : terminators) {
+			if (tokenCode == terminator) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return an {@link IfNode}, or the selected block (null for none) if the
+	 *         condition is a constant
+	 */
+	private Node compileIf() {
+		String condPath = getCondVar(lines[pos]);
+		Object constant = constantValue(condPath);
+		VarReference condVar = constant == null ? reference(condPath) : null;
+		// same as IfNode
+		boolean cond = constant instanceof Boolean
+				&& ((Boolean) constant).booleanValue();
+		pos++;
+		int[] mark = mark();
+		Node thenBlock = compileBlock(new int[] { TOK_ELSE, TOK_END });
+		if (constant != null && !cond) {
+			reset(mark);
+			thenBlock = null;
+		}
+		Node elseBlock = null;
+		if (getTokenCode(lines[pos].trim()) == TOK_ELSE) {
+			pos++;
+			mark = mark();
+			elseBlock = compileBlock(new int[] { TOK_END });
+			if (constant != null && cond) {
+				reset(mark);
+				elseBlock = null;
+			}
+		}
+		pos++;
+		if (constant != null) {
+			return cond ? thenBlock : elseBlock;
+		}
+		return new IfNode(condVar, thenBlock, elseBlock);
+	}
+
+	private String getCondVar(String expression) {
+		int from = expression.indexOf("(");
+		int to = expression.lastIndexOf(')');
+		if (from < 0 || to < from) {
+			throw new Error("if syntax is wrong: " + expression.trim());
+		}
+		return removeDollarIfExist(expression.substring(from + 1, to).trim());
+	}
+
+	private Node compileForeach() {
+		String line = lines[pos].trim();
+		int from = line.indexOf('(');
+		int to = line.indexOf(')');
+		if (from < 0 || to < from) {
+			throw new Error("foreach syntax is wrong: " + line);
+		}
+
+		ArrayList<String> tokens = new ArrayList<String>();
+		for (String elem : line.substring(from + 1, to).split(" ")) {
+			if (!elem.trim().isEmpty()) {
+				tokens.add(elem);
+			}
+		}
+
+		if (tokens.size() < 3) {
+			throw new Error("foreach syntax is wrong: " + line);
+		}
+
+		String hint = line.substring(to + 1).trim();
+		boolean parallel = hint.equals(PARALLEL_STR);
+
+		String loopVarName = removeDollarIfExist(tokens.get(0));
+		VarReference containerName = reference(removeDollarIfExist(tokens
+				.get(2)));
+		int slot = loopVars.size();
+		loopVars.add(loopVarName);
+		loopProps.add(new ArrayList<String>());
+		frameSize = Math.max(frameSize, loopVars.size());
+		pos++;
+		Node body = compileBlock(new int[] { TOK_END });
+		loopVars.remove(slot);
+		ArrayList<String> props = loopProps.remove(slot);
+		pos++;
+		return new ForeachNode(loopVarName, slot, containerName, parallel,
+				props.toArray(new String[props.size()]), body);
+	}
+
+	private Node compileCache() {
+		String line = lines[pos].trim();
+		int from = line.indexOf('(');
+		int to = line.lastIndexOf(')');
+		if (from < 0 || to < from) {
+			throw new Error("cache syntax is wrong: " + line);
+		}
+		String args = line.substring(from + 1, to).trim();
+		long ttlSeconds = 0;
+		int comma = args.lastIndexOf(',');
+		if (comma >= 0) {
+			String ttl = args.substring(comma + 1).trim();
+			try {
+				ttlSeconds = Long.parseLong(ttl);
+			} catch (NumberFormatException e) {
+				throw new Error("cache syntax is wrong, bad ttl: " + line);
+			}
+			if (ttlSeconds < 0) {
+				throw new Error("cache syntax is wrong, bad ttl: " + line);
+			}
+			args = args.substring(0, comma).trim();
+		}
+		if (args.length() == 0) {
+			throw new Error("cache syntax is wrong, no key: " + line);
+		}
+
+		String keySource = args;
+		if (args.length() >= 2
+				&& (args.charAt(0) == '"' || args.charAt(0) == '\'')
+				&& args.charAt(args.length() - 1) == args.charAt(0)) {
+			args = args.substring(1, args.length() - 1);
+		} else if (args.charAt(0) == '$' && !args.startsWith("${")) {
+			args = "${" + args.substring(1) + "}";
+		}
+		ArrayList<String> texts = new ArrayList<String>();
+		ArrayList<VarReference> refs = new ArrayList<VarReference>();
+		splitReferences(args, texts, refs);
+		Node key = refs.isEmpty() ? new TextNode(texts.get(0)) : new LineNode(
+				texts.toArray(new String[texts.size()]),
+				refs.toArray(new VarReference[refs.size()]));
+
+		pos++;
+		Node body = compileBlock(new int[] { TOK_END });
+		pos++;
+		return new CacheNode(name, escaping, keySource, key,
+				ttlSeconds * 1000, body);
+	}
+
+	/**
+	 * Split the text into static parts and references: texts[i] comes before
+	 * refs[i] and texts gets one more element than refs, the text after the
+	 * last reference. refs stays empty if there are no references.
+	 * 
+	 * References to constants are replaced by their values, written as they
+	 * would be when rendering.
+	 */
+	private void splitReferences(String line, ArrayList<String> texts,
+			ArrayList<VarReference> refs) {
+		StringBuilder part = new StringBuilder();
+		int start = 0;
+		int i = line.indexOf("${");
+		while (i >= 0) {
+			int end = getVarEnd(line, i + 2);
+			if (end > i + 2) {
+				String path = line.substring(i + 2, end);
+				part.append(line, start, i);
+				Object value = constantValue(path);
+				if (value != null) {
+					part.append(escaping.escape(format(value)));
+				} else {
+					texts.add(part.toString());
+					part.setLength(0);
+					refs.add(reference(path));
+				}
+				start = end + 1;
+				i = line.indexOf("${", start);
+			} else {
+				i = line.indexOf("${", i + 1);
+			}
+		}
+		texts.add(part.append(line, start, line.length()).toString());
+	}
+
+	/**
+	 * @return the value written by its formatter, or as the constants
+	 *         provider formats it
+	 */
+	private String format(Object value) {
+		if (formatters != null) {
+			StringBuilder out = new StringBuilder();
+			try {
+				if (formatters.format(value, out)) {
+					return out.toString();
+				}
+			} catch (IOException e) {
+				// StringBuilder does not throw IOException
+				throw new IllegalStateException(e);
+			}
+		}
+		return constants.getObjectAsString(value);
+	}
+
+	/**
+	 * Compile a text line in a single left to right pass. static lines are
+	 * collected into text, lines with variable references are split into a
+	 * {@link LineNode}.
+	 */
+	private void compileLine(String line, StringBuilder text,
+			ArrayList<Node> nodes) {
+		if (line.indexOf("${") >= 0) {
+			ArrayList<String> texts = new ArrayList<String>();
+			ArrayList<VarReference> refs = new ArrayList<VarReference>();
+			splitReferences(line, texts, refs);
+			if (!refs.isEmpty()) {
+				int last = texts.size() - 1;
+				texts.set(last, texts.get(last) + OUT_CRLF);
+				flushText(text, nodes);
+				nodes.add(profiled(
+						new LineNode(texts.toArray(new String[texts.size()]),
+								refs.toArray(new VarReference[refs.size()])),
+						pos + 1, ProfilePoint.Kind.LINE));
+				return;
+			}
+			// all the references were constants
+			line = texts.get(0);
+		}
+		if (text.length() == 0) {
+			textLine = pos + 1;
+		}
+		text.append(line).append(OUT_CRLF);
+	}
+
+	/**
+	 * @return the index of the '}' that closes the variable name starting at
+	 *         from, or -1 if there is no legal variable name there.
+	 */
+	private int getVarEnd(String line, int from) {
+		for (int i = from; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '}') {
+				return i;
+			}
+			if (!isLegalVarCharacter(c)) {
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	private boolean isLegalVarCharacter(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+				|| (c >= '0' && c <= '9') || c == '_' || c == '.';
+	}
+
+	private String removeDollarIfExist(String varName) {
+		if (varName.length() > 0 && varName.charAt(0) == '$') {
+			return varName.substring(1);
+		} else {
+			return varName;
+		}
+	}
+
+	private static int getTokenCode(String tr) {
+		if (tr.startsWith(IF_STR)) {
+			return TOK_IF;
+		} else if (tr.startsWith(ELSE_STR)) {
+			return TOK_ELSE;
+		} else if (tr.startsWith(FOREACH_STR)) {
+			return TOK_FOREACH;
+		} else if (tr.startsWith(END_STR)) {
+			return TOK_END;
+		} else if (tr.startsWith(CACHE_STR)) {
+			return TOK_CACHE;
+		}
+		return 0;
+	}
+
+	private String getArrayAsString(int[] terminators) {
+		String str = "";
+		for (int term : terminators) {
+			if (str.length() > 0) {
+				str += ", ";
+			}
+			str += getTokenName(term);
+		}
+		return str;
+	}
+
+	private String getTokenName(int tok) {
+		switch (tok) {
+		case TOK_ELSE:
+			return ELSE_STR;
+		case TOK_END:
+			return END_STR;
+		case TOK_FOREACH:
+			return FOREACH_STR;
+		case TOK_IF:
+			return IF_STR;
+		case TOK_CACHE:
+			return CACHE_STR;
+		default:
+			return "N/A";
+		}
+	}
+
+}
@@ -0,0 +1,113 @@
+package yms.tinyvelocity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The variables a compiled template reads, in template order, see
+ * {@link CompiledTemplate#getDependencies()}.
+ * 
+ * A path whose head is the variable of an enclosing <b>#foreach</b> is a
+ * loop path, it is read from the loop elements (and from the root only if
+ * the element does not have it). Any other path is a root path.
+ * 
+ * The keys of <b>#cache</b> blocks are not included.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public final class TemplateDependencies {
+	private final Set<String> rootVariables;
+	private final Set<String> rootPaths;
+	private final Set<String> loopPaths;
+
+	private TemplateDependencies(Set<String> rootVariables,
+			Set<String> rootPaths, Set<String> loopPaths) {
+		this.rootVariables = Collections.unmodifiableSet(rootVariables);
+		this.rootPaths = Collections.unmodifiableSet(rootPaths);
+		this.loopPaths = Collections.unmodifiableSet(loopPaths);
+	}
+
+	/**
+	 * @return the heads of the root paths, for example "user" for
+	 *         <code>${user.name}</code>
+	 */
+	public Set<String> getRootVariables() {
+		return rootVariables;
+	}
+
+	/**
+	 * @return the full paths read from the root, including the
+	 *         <b>#if</b> conditions and the <b>#foreach</b> containers
+	 */
+	public Set<String> getRootPaths() {
+		return rootPaths;
+	}
+
+	/**
+	 * @return the full paths read from loop variables, for example
+	 *         "order.id" for <code>${order.id}</code> inside
+	 *         <code>#foreach ($order in $orders)</code>
+	 */
+	public Set<String> getLoopPaths() {
+		return loopPaths;
+	}
+
+	static TemplateDependencies of(CompiledTemplate template) {
+		final Set<String> rootVariables = new LinkedHashSet<String>();
+		final Set<String> rootPaths = new LinkedHashSet<String>();
+		final Set<String> loopPaths = new LinkedHashSet<String>();
+		template.accept(new TemplateVisitor() {
+			/** the variables of the open blocks, null for non loop blocks */
+			private final ArrayList<String> open = new ArrayList<String>();
+
+			private void add(String path) {
+				String head = PropertyPath.parse(path).getHead();
+				if (open.contains(head)) {
+					loopPaths.add(path);
+				} else {
+					rootVariables.add(head);
+					rootPaths.add(path);
+				}
+			}
+
+			@Override
+			public void visitVar(String varName) {
+				add(varName);
+			}
+
+			@Override
+			public void visitIfStart(String condVar) {
+				add(condVar);
+				open.add(null);
+			}
+
+			@Override
+			public void visitIfEnd() {
+				open.remove(open.size() - 1);
+			}
+
+			@Override
+			public void visitForeachStart(String loopVarName,
+					String containerName) {
+				add(containerName);
+				open.add(loopVarName);
+			}
+
+			@Override
+			public void visitForeachEnd() {
+				open.remove(open.size() - 1);
+			}
+		});
+		return new TemplateDependencies(rootVariables, rootPaths, loopPaths);
+	}
+
+	@Override
+	public String toString() {
+		return "TemplateDependencies[root=" + rootPaths + ", loop="
+				+ loopPaths + "]";
+	}
+
+}
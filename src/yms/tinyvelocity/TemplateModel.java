@@ -0,0 +1,30 @@
+package yms.tinyvelocity;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a model class for the
+ * <code>yms.tinyvelocity.processor.TemplateModelProcessor</code> annotation
+ * processor, which generates a values provider for it at build time: for the
+ * model <code>Order</code> it generates <code>OrderValuesProvider</code>
+ * in the same package, which reads the properties of the model (and of the
+ * other models it refers to) with direct calls, without reflection, so it
+ * can be used in GWT client side.
+ * 
+ * The processor is in the tiny-velocity-processor jar (the processor
+ * project), which is not needed at run time. Put it on the annotation
+ * processor path of the build that compiles the models, with Gradle
+ * <code>annotationProcessor</code> or javac <code>-processorpath</code>.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface TemplateModel {
+}
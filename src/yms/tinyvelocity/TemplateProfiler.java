@@ -0,0 +1,40 @@
+package yms.tinyvelocity;
+
+/**
+ * Receives the time spent in every directive, line and variable reference
+ * of the templates compiled while the profiler is set, see
+ * {@link TinyVelocityEngine#setProfiler(TemplateProfiler)}.
+ * 
+ * The methods are called by the rendering threads, so implementations must
+ * be thread safe.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public interface TemplateProfiler {
+
+	/**
+	 * A point starts to be rendered (or a reference to be evaluated).
+	 * 
+	 * @param point
+	 * @return passed to
+	 *         {@link #record(ProfilePoint, long, long, Object)} when the point
+	 *         is done, can be null
+	 */
+	public Object start(ProfilePoint point);
+
+	/**
+	 * A point was rendered (or a reference was evaluated) once.
+	 * 
+	 * @param point
+	 * @param totalNanos
+	 *            - elapsed time, including the nested points
+	 * @param selfNanos
+	 *            - elapsed time, excluding the nested points
+	 * @param token
+	 *            - the result of {@link #start(ProfilePoint)}
+	 */
+	public void record(ProfilePoint point, long totalNanos, long selfNanos,
+			Object token);
+
+}
@@ -0,0 +1,33 @@
+package yms.tinyvelocity;
+
+import java.io.IOException;
+
+/**
+ * Renders a template directly, without the engine interpreter. Alternative
+ * backends (like the bytecode compiler) implement it and plug it into a
+ * {@link CompiledTemplate} with
+ * {@link CompiledTemplate#withRenderer(TemplateRenderer)}.
+ * 
+ * Implementations must be thread safe.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public interface TemplateRenderer {
+
+	/**
+	 * Render the template into out.
+	 * 
+	 * @param valuesProvider
+	 * @param out
+	 * @param stats
+	 *            - null if the render is not measured, otherwise the
+	 *            property lookups and the loop iterations are added to it
+	 *            like the interpreter does
+	 * @throws IOException
+	 *             - if out throws it
+	 */
+	public void render(ValuesProvider valuesProvider, Appendable out,
+			RenderStats stats) throws IOException;
+
+}
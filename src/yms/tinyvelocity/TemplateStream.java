@@ -0,0 +1,206 @@
+package yms.tinyvelocity;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Renders a template while it is read, see
+ * {@link TinyVelocityEngine#parse(Reader, ValuesProvider, Appendable)}.
+ * 
+ * Top level lines are collected into chunks of about {@link #CHUNK_CHARS}
+ * characters. Every chunk is compiled and rendered and then dropped, so the
+ * memory used does not depend on the size of the template. The output is
+ * the same as the output of the whole template compiled at once (empty lines
+ * at the end of the template are dropped).
+ * 
+ * A top level block (<b>#foreach</b>, <b>#if</b>, <b>#cache</b>) is
+ * collected whole until its <b>#end</b>, including the static lines inside
+ * it, since its body is rendered many times or not at all. A template that
+ * is one big block is held in memory like a compiled template.
+ * 
+ * All the chunks are rendered as one render: they share the render context,
+ * and so the stats reported to the render listener, and the root variables
+ * of a {@link BulkValuesProvider} are read once, with one call for the new
+ * names of every chunk that has any.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+class TemplateStream {
+	/** the size of a chunk of top level lines */
+	static final int CHUNK_CHARS = 64 * 1024;
+
+	private final TinyVelocityEngine engine;
+	private final Reader in;
+	private final char[] buffer = new char[8192];
+	private int bufferPos = 0;
+	private int bufferLength = 0;
+
+	private final StringBuilder line = new StringBuilder();
+	private final ArrayList<String> chunk = new ArrayList<String>();
+	/** number of characters in the chunk */
+	private int chunkChars = 0;
+	/** empty lines that were read but not added to the chunk yet */
+	private int emptyLines = 0;
+	/** the nesting of the blocks open at the end of the chunk */
+	private int depth = 0;
+	private Escaping escaping;
+
+	/** compiles all the chunks, numbering their root names together */
+	private TemplateCompiler compiler = null;
+	/** created for the first chunk */
+	private RenderContext ctx = null;
+
+	TemplateStream(TinyVelocityEngine engine, Reader in) {
+		this.engine = engine;
+		this.in = in;
+		this.escaping = engine.getEscaping();
+	}
+
+	void render(final ValuesProvider valuesProvider, Appendable out)
+			throws IOException {
+		CompiledTemplate.render(engine, null, out,
+				new CompiledTemplate.RenderBody() {
+					@Override
+					public void render(Appendable out, RenderStats stats)
+							throws IOException {
+						renderChunks(valuesProvider, out, stats);
+					}
+				});
+	}
+
+	private void renderChunks(ValuesProvider valuesProvider, Appendable out,
+			RenderStats stats) throws IOException {
+		boolean first = true;
+		while (readLine()) {
+			if (first) {
+				first = false;
+				if (isDirective(line)
+						&& TemplateCompiler.isEscapeLine(line.toString())) {
+					escaping = TemplateCompiler.getEscaping(line.toString()
+							.trim());
+					continue;
+				}
+			}
+			if (line.length() == 0) {
+				// dropped if no other line follows
+				emptyLines++;
+				continue;
+			}
+			for (; emptyLines > 0; emptyLines--) {
+				chunk.add("");
+			}
+			String text = line.toString();
+			if (isDirective(line)) {
+				depth += TemplateCompiler.getBlockDelta(text);
+			}
+			chunk.add(text);
+			chunkChars += text.length();
+			if (depth < 0 || (depth == 0 && chunkChars >= CHUNK_CHARS)) {
+				// a misplaced #end is reported by the compiler
+				flush(valuesProvider, out, stats);
+			}
+		}
+		if (first) {
+			// an empty template is one empty line
+			chunk.add("");
+		}
+		if (!chunk.isEmpty()) {
+			flush(valuesProvider, out, stats);
+		}
+	}
+
+	private void flush(ValuesProvider valuesProvider, Appendable out,
+			RenderStats stats) throws IOException {
+		if (compiler == null) {
+			// the escaping is known once the first line was read
+			compiler = new TemplateCompiler(null, new String[0],
+					engine.getProfiler(), null, null, escaping);
+		}
+		String[] lines = chunk.toArray(new String[chunk.size()]);
+		chunk.clear();
+		chunkChars = 0;
+		Node root = compiler.compileBody(lines);
+
+		if (ctx == null) {
+			ctx = new RenderContext(engine, valuesProvider, out,
+					new Object[compiler.getFrameSize()], stats, escaping);
+		} else {
+			ctx = ctx.withFrameSize(compiler.getFrameSize());
+		}
+		if (ctx.bulk != null) {
+			fetchRootValues((BulkValuesProvider) valuesProvider);
+		}
+		root.render(ctx);
+	}
+
+	/**
+	 * Read the root variables that the last chunk added, in one call.
+	 */
+	private void fetchRootValues(BulkValuesProvider provider) {
+		String[] names = compiler.getRootNames();
+		int fetched = ctx.rootValues == null ? 0 : ctx.rootValues.length;
+		if (names.length == fetched) {
+			return;
+		}
+		Object[] values = provider.getProperties(null,
+				Arrays.copyOfRange(names, fetched, names.length));
+		if (fetched == 0) {
+			ctx.rootValues = values;
+		} else {
+			Object[] all = Arrays.copyOf(ctx.rootValues, names.length);
+			System.arraycopy(values, 0, all, fetched, values.length);
+			ctx.rootValues = all;
+		}
+	}
+
+	/**
+	 * @return true if the first non blank character of the line is '#'
+	 */
+	private static boolean isDirective(CharSequence line) {
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c > ' ') {
+				return c == '#';
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Read the next line into line, without its terminator ("\n" or "\r\n").
+	 * 
+	 * @return false at the end of the input
+	 */
+	private boolean readLine() throws IOException {
+		line.setLength(0);
+		boolean read = false;
+		while (true) {
+			if (bufferPos == bufferLength) {
+				bufferLength = in.read(buffer);
+				bufferPos = 0;
+				if (bufferLength <= 0) {
+					bufferLength = 0;
+					return read;
+				}
+			}
+			read = true;
+			int start = bufferPos;
+			while (bufferPos < bufferLength && buffer[bufferPos] != '\n') {
+				bufferPos++;
+			}
+			line.append(buffer, start, bufferPos - start);
+			if (bufferPos < bufferLength) {
+				bufferPos++;
+				int last = line.length() - 1;
+				if (last >= 0 && line.charAt(last) == '\r') {
+					line.setLength(last);
+				}
+				return true;
+			}
+		}
+	}
+
+}
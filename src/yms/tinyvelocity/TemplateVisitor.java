@@ -0,0 +1,106 @@
+package yms.tinyvelocity;
+
+/**
+ * Visits the structure of a compiled template, see
+ * {@link CompiledTemplate#accept(TemplateVisitor)}.
+ * 
+ * The methods are called in template order, blocks are always balanced
+ * (every start call is followed by the matching end call). All the methods
+ * do nothing by default.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public abstract class TemplateVisitor {
+
+	/**
+	 * Static text, including the line terminators.
+	 * 
+	 * @param text
+	 */
+	public void visitText(String text) {
+	}
+
+	/**
+	 * A variable reference: <code>${varName}</code>.
+	 * 
+	 * @param varName
+	 *            - the variable (or dotted property path) without the '${' and
+	 *            '}'
+	 */
+	public void visitVar(String varName) {
+	}
+
+	/**
+	 * Start of <code>#if ($condVar)</code>.
+	 * 
+	 * @param condVar
+	 *            - the condition variable without the '$'
+	 */
+	public void visitIfStart(String condVar) {
+	}
+
+	/**
+	 * <code>#else</code> of the last started <code>#if</code>.
+	 */
+	public void visitElse() {
+	}
+
+	/**
+	 * End of the last started <code>#if</code>.
+	 */
+	public void visitIfEnd() {
+	}
+
+	/**
+	 * Start of <code>#foreach ($loopVarName in $containerName)</code>.
+	 * 
+	 * @param loopVarName
+	 *            - without the '$'
+	 * @param containerName
+	 *            - without the '$'
+	 */
+	public void visitForeachStart(String loopVarName, String containerName) {
+	}
+
+	/**
+	 * Start of <code>#foreach ($loopVarName in $containerName)</code>, with
+	 * the parallel hint of the loop. Calls
+	 * {@link #visitForeachStart(String, String)} by default.
+	 * 
+	 * @param loopVarName
+	 *            - without the '$'
+	 * @param containerName
+	 *            - without the '$'
+	 * @param parallel
+	 *            - true if the loop is marked as parallel
+	 */
+	public void visitForeachStart(String loopVarName, String containerName,
+			boolean parallel) {
+		visitForeachStart(loopVarName, containerName);
+	}
+
+	/**
+	 * End of the last started <code>#foreach</code>.
+	 */
+	public void visitForeachEnd() {
+	}
+
+	/**
+	 * Start of <code>#cache (key[, ttl])</code>.
+	 * 
+	 * @param key
+	 *            - the key expression as written in the template
+	 * @param ttlSeconds
+	 *            - 0 if there is no time to live
+	 */
+	public void visitCacheStart(String key, long ttlSeconds) {
+	}
+
+	/**
+	 * End of the last started <code>#cache</code>.
+	 */
+	public void visitCacheEnd() {
+	}
+
+}
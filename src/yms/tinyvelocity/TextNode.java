@@ -0,0 +1,33 @@
+package yms.tinyvelocity;
+
+import java.io.IOException;
+
+/**
+ * Static text, one or more template lines that do not contain any variable
+ * reference. The line terminators are already part of the text.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+class TextNode extends Node {
+	private final String text;
+
+	TextNode(String text) {
+		this.text = text;
+	}
+
+	String getText() {
+		return text;
+	}
+
+	@Override
+	void render(RenderContext ctx) throws IOException {
+		ctx.out.append(text);
+	}
+
+	@Override
+	void accept(TemplateVisitor visitor) {
+		visitor.visitText(text);
+	}
+
+}
@@ -1,9 +1,8 @@
 package yms.tinyvelocity;
 
-import java.util.ArrayList;
-import java.util.Collection;
+import java.io.IOException;
+import java.io.Reader;
 import java.util.TreeMap;
-import java.util.TreeSet;
 
 /**
  * A template engine with syntax similar to Apache Velocity but simpler. it
@@ -26,45 +25,294 @@ import java.util.TreeSet;
  * 
  * </pre>
  * 
+ * Templates that are rendered more than once should be compiled once with
+ * {@link #compile(String)} and the resulting {@link CompiledTemplate} should
+ * be rendered as many times as needed.
+ * 
+ * <b>Thread safety:</b> an engine and the templates it compiled can be shared
+ * by all the threads of an application. The engine holds only its settings
+ * and compiled templates are immutable; the state of a render lives in a
+ * context that is private to the render call, and its scratch buffers are
+ * reused only through a pool (see {@link #setBufferPool(RenderBufferPool)}).
+ * Values providers are used only by the thread that renders with them (except for parallel
+ * loops, see {@link #setParallelExecutor(ParallelExecutor)}).
+ * 
  * @author Yotam Madem
  * 
  */
 public class TinyVelocityEngine {
-	private static final String CRLF = "\\r?\\n";
+	/** default minimal number of elements for a parallel #foreach */
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 1000;
+
+	private volatile ParallelExecutor parallelExecutor = null;
+	private volatile int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+	private volatile boolean parallelByDefault = false;
+	private volatile RenderListener renderListener = null;
+	private volatile TemplateProfiler profiler = null;
+	private volatile FragmentCache fragmentCache = null;
+	private volatile FormatterRegistry formatters = null;
+	private volatile Escaping escaping = Escaping.NONE;
+	private volatile RenderBufferPool bufferPool = null;
 
-	// All the "tokens" declarations
-	private static final String END_STR = "#end";
-	private static final String FOREACH_STR = "#foreach";
-	private static final String ELSE_STR = "#else";
-	private static final String IF_STR = "#if";
+	/**
+	 * Compile the given template. the returned template is immutable and can
+	 * be rendered many times, concurrently, with different values providers.
+	 * 
+	 * @param template
+	 * @return
+	 */
+	public CompiledTemplate compile(String template) {
+		return compile(null, template);
+	}
 
-	private static final int TOK_IF = 1;
-	private static final int TOK_ELSE = 2;
-	private static final int TOK_FOREACH = 3;
-	private static final int TOK_END = 10;
+	/**
+	 * Compile the given template, the name identifies the template in the
+	 * render metrics.
+	 * 
+	 * @param name
+	 *            - can be null
+	 * @param template
+	 * @return
+	 */
+	public CompiledTemplate compile(String name, String template) {
+		return compile(name, template, null);
+	}
+
+	/**
+	 * Compile the given template, folding the variables known at compile
+	 * time (locale strings, feature flags...) into it. References to root
+	 * paths that have a value in constants become static text (formatted by
+	 * the engine formatters or by constants) and <b>#if</b> blocks on such paths keep only the selected
+	 * branch, the rest of the template is evaluated when it is rendered, as
+	 * usual. Paths that may refer to a loop variable are never folded.
+	 * 
+	 * The folded values are formatted and escaped once, with the formatters
+	 * and escaping the engine has when the template is specialized.
+	 * 
+	 * @param name
+	 *            - can be null
+	 * @param template
+	 * @param constants
+	 *            - returns null for the variables that are not constant
+	 * @return
+	 */
+	public CompiledTemplate specialize(String name, String template,
+			ValuesProvider constants) {
+		return compile(name, template, constants);
+	}
+
+	private CompiledTemplate compile(String name, String template,
+			ValuesProvider constants) {
+		TemplateCompiler compiler = new TemplateCompiler(name, template,
+				profiler, constants, formatters, escaping);
+		Node root = compiler.compile();
+		return new CompiledTemplate(this, name, root, compiler.getFrameSize(),
+				compiler.getRootNames(), compiler.getEscaping());
+	}
 
 	/**
 	 * Parse the given template and return the output as string. the
 	 * valuesProvider is needed to return the values of the template variables
 	 * and their inner properties.
 	 * 
+	 * This is the same as <code>compile(template).render(valuesProvider)</code>.
+	 * 
 	 * @param template
 	 * @param valuesProvider
 	 * @return
 	 */
 	public String parse(String template, final ValuesProvider valuesProvider) {
-		StringBuffer buff = new StringBuffer();
+		return compile(template).render(valuesProvider);
+	}
+
+	/**
+	 * Parse the given template and write the output directly into out.
+	 * 
+	 * @param template
+	 * @param valuesProvider
+	 * @param out
+	 * @throws IOException
+	 *             - if out throws it
+	 */
+	public void parse(String template, final ValuesProvider valuesProvider,
+			Appendable out) throws IOException {
+		compile(template).render(valuesProvider, out);
+	}
+
+	/**
+	 * Parse a template while it is read and write the output into out, for
+	 * templates too big to be held in memory. Only the top level block being
+	 * read (from its <b>#if</b>, <b>#foreach</b> or <b>#cache</b> line to its
+	 * <b>#end</b>) and a small chunk of top level lines are held in memory,
+	 * top level text is written as the template is read. The output is the
+	 * same as the output of {@link #parse(String, ValuesProvider, Appendable)}
+	 * .
+	 * 
+	 * Every block and chunk is compiled and rendered on its own (by the
+	 * interpreter, whatever the engine is), but they are all reported to the
+	 * render listener as one render. The reader is not closed.
+	 * 
+	 * @param template
+	 * @param valuesProvider
+	 * @param out
+	 * @throws IOException
+	 *             - if template or out throw it
+	 */
+	public void parse(Reader template, ValuesProvider valuesProvider,
+			Appendable out) throws IOException {
+		new TemplateStream(this, template).render(valuesProvider, out);
+	}
+
+	/**
+	 * Set the executor that runs parallel <b>#foreach</b> loops. A loop runs
+	 * in parallel if it is marked as parallel
+	 * (<code>#foreach ($row in $rows) parallel</code>) or all loops are
+	 * parallel by default, and its container is an array or a random access
+	 * list with at least {@link #getParallelThreshold()} elements. The
+	 * elements are split into chunks, each chunk is rendered into its own
+	 * buffer and the buffers are written in the original order.
+	 * 
+	 * The values providers used with a parallel engine must be thread safe.
+	 * 
+	 * @param parallelExecutor
+	 *            - null (the default) disables parallel loops
+	 */
+	public void setParallelExecutor(ParallelExecutor parallelExecutor) {
+		this.parallelExecutor = parallelExecutor;
+	}
+
+	public ParallelExecutor getParallelExecutor() {
+		return parallelExecutor;
+	}
+
+	/**
+	 * @param parallelThreshold
+	 *            - minimal number of elements for a loop to run in parallel
+	 */
+	public void setParallelThreshold(int parallelThreshold) {
+		this.parallelThreshold = parallelThreshold;
+	}
+
+	public int getParallelThreshold() {
+		return parallelThreshold;
+	}
+
+	/**
+	 * @param parallelByDefault
+	 *            - true to run all large enough loops in parallel, not only
+	 *            the ones marked as parallel
+	 */
+	public void setParallelByDefault(boolean parallelByDefault) {
+		this.parallelByDefault = parallelByDefault;
+	}
+
+	public boolean isParallelByDefault() {
+		return parallelByDefault;
+	}
+
+	/**
+	 * Set the listener that receives the metrics of every render of the
+	 * templates compiled by this engine. Metrics are collected only while a
+	 * listener is set.
+	 * 
+	 * @param renderListener
+	 *            - null (the default) disables the metrics
+	 */
+	public void setRenderListener(RenderListener renderListener) {
+		this.renderListener = renderListener;
+	}
+
+	public RenderListener getRenderListener() {
+		return renderListener;
+	}
+
+	/**
+	 * Set the profiler that receives the time spent in every directive, line
+	 * and variable reference of the templates compiled from now on. Profiled
+	 * templates are slower, templates compiled before the profiler was set
+	 * (or after it was removed) are not affected.
+	 * 
+	 * @param profiler
+	 *            - null (the default) disables profiling
+	 */
+	public void setProfiler(TemplateProfiler profiler) {
+		this.profiler = profiler;
+	}
+
+	public TemplateProfiler getProfiler() {
+		return profiler;
+	}
 
-		String lines[] = template.split(CRLF);
-		ArrayList<Scope> scopes = new ArrayList<Scope>();
-		scopes.add(createFirstScope(valuesProvider));
+	/**
+	 * Set the cache that stores the rendered output of <b>#cache</b> blocks.
+	 * 
+	 * @param fragmentCache
+	 *            - null (the default) renders the <b>#cache</b> blocks every
+	 *            time
+	 */
+	public void setFragmentCache(FragmentCache fragmentCache) {
+		this.fragmentCache = fragmentCache;
+	}
 
-		parse(lines, new int[] { 0 }, lines.length - 1, new int[] {}, scopes,
-				valuesProvider, buff);
+	public FragmentCache getFragmentCache() {
+		return fragmentCache;
+	}
 
-		return buff.toString();
+	/**
+	 * Set the formatters that write the values of the references, values
+	 * without a formatter are converted by the values provider. Read on every
+	 * render.
+	 * 
+	 * @param formatters
+	 *            - null (the default) converts all the values with the values
+	 *            provider
+	 */
+	public void setFormatters(FormatterRegistry formatters) {
+		this.formatters = formatters;
+	}
+
+	public FormatterRegistry getFormatters() {
+		return formatters;
 	}
 
+	/**
+	 * Set the escaping of the templates compiled from now on that do not
+	 * start with an <b>#escape</b> line.
+	 * 
+	 * @param escaping
+	 *            - {@link Escaping#NONE} by default
+	 */
+	public void setEscaping(Escaping escaping) {
+		this.escaping = escaping == null ? Escaping.NONE : escaping;
+	}
+
+	public Escaping getEscaping() {
+		return escaping;
+	}
+
+	/**
+	 * Set the pool that reuses the scratch buffers of the renders (the output
+	 * builder of {@link CompiledTemplate#render(ValuesProvider)} and the loop
+	 * variables frame), for example a
+	 * {@link yms.tinyvelocity.concurrent.ThreadLocalBufferPool} on a busy
+	 * server.
+	 * 
+	 * @param bufferPool
+	 *            - null (the default) gives every render new buffers
+	 */
+	public void setBufferPool(RenderBufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+	}
+
+	public RenderBufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	/**
+	 * @deprecated the engine resolves loop variables to frame slots when the
+	 *             template is compiled and does not use scopes anymore.
+	 */
+	@Deprecated
 	public class Scope {
 		TreeMap<String, Object> vars = null;
 		ValuesProvider valuesProvider = null;
@@ -110,380 +358,12 @@ public class TinyVelocityEngine {
 		}
 	}
 
-	private int parse(String[] content, int[] pos, int to, int[] terminators,
-			ArrayList<Scope> scopes, ValuesProvider provider,
-			StringBuffer buff) {
-
-		scopes.add(0, createScope(provider));
-
-		try {
-			int lines = 0;
-			while (pos[0] <= to) {
-				if (pos[0] >= content.length) {
-					throw new Error("Parse error: expected token(s): "
-							+ getArrayAsString(terminators) + " but found EOF.");
-				}
-
-				lines++;
-				String line = content[pos[0]];
-				String tr = line.trim();
-				if (!tr.startsWith("#")) {
-					format(line, scopes, buff, provider);
-					pos[0]++;
-				} else {
-					int tokenCode = getTokenCode(tr);
-					for (int terminator : terminators) {
-						if (tokenCode == terminator) {
-							return lines;
-						}
-					}
-					switch (tokenCode) {
-					case TOK_IF:
-						parseIf(content, pos, scopes, provider, buff);
-						break;
-					case TOK_END:
-						break;
-					case TOK_ELSE:
-						break;
-					case TOK_FOREACH:
-						parseForeach(content, pos, scopes, provider, buff);
-						break;
-					default:
-						pos[0]++;
-						format(line, scopes, buff, provider);
-						break;
-					}
-				}
-			}
-			return lines;
-
-		} finally {
-			scopes.remove(0);
-		}
-	}
-
-	private void format(String line, ArrayList<Scope> scopes,
-			StringBuffer buff, ValuesProvider provider) {
-		TreeSet<String> vars = new TreeSet<String>();
-		getVarsOfLine(line, vars);
-		for (String v : vars) {
-			Object value = getVarValue(scopes, v);
-			if (value != null) {
-				line = line.replaceAll("\\$\\{" + v + "\\}",
-						provider.getObjectAsString(value));
-			}
-		}
-		buff.append(line + "\r\n");
-	}
-
-	private void getVarsOfLine(String line, TreeSet<String> vars) {
-		String vName = "";
-		boolean readingVar = false;
-		for (int i = 0; i < line.length(); i++) {
-			if (line.charAt(i) == '$') {
-				vName = "";
-				readingVar = true;
-			} else {
-				if (readingVar) {
-					if (isLegalVarCharacter(line.charAt(i), vName)) {
-						vName += line.charAt(i);
-					} else {
-						readingVar = false;
-						if (vName.startsWith("{") && vName.endsWith("}")) {
-							vars.add(vName.substring(1, vName.length() - 1));
-						}
-						i--;
-					}
-				}
-			}
-		}
-		if (vName.length() > 0) {
-			if (vName.startsWith("{") && vName.endsWith("}")) {
-				vars.add(vName.substring(1, vName.length() - 1));
-			}
-		}
-	}
-
-	private boolean isLegalVarCharacter(char charAt, String varNameSoFar) {
-		if (charAt >= '0' && charAt <= '9') {
-			if (varNameSoFar.length() > 0) {
-				return true; // digit can appear in var name but not at the
-								// beginning.
-			}
-		}
-		if (charAt >= 'a' && charAt <= 'z') {
-			return true;
-		}
-		if (charAt >= 'A' && charAt <= 'Z') {
-			return true;
-		}
-		if (charAt == '_') {
-			return true;
-		}
-		if (charAt == '.') {
-			return true;
-		}
-		if (charAt == '{') {
-			return true;
-		}
-		if (charAt == '}') {
-			return true;
-		}
-		return false;
-	}
-
-	private int parseForeach(String[] content, int[] pos,
-			ArrayList<Scope> scopes, ValuesProvider provider,
-			StringBuffer buff) {
-		String line = content[pos[0]].trim();
-		pos[0]++;
-		int from = line.indexOf('(');
-		int to = line.indexOf(')');
-		line = line.substring(from + 1, to);
-
-		ArrayList<String> tokens = new ArrayList<String>();
-		for (String elem : line.split(" ")) {
-			if (!elem.trim().isEmpty()) {
-				tokens.add(elem);
-			}
-		}
-
-		if (tokens.size() < 3) {
-			throw new Error("foreach syntax is wrong: "
-					+ content[pos[0]].trim());
-		}
-
-		String loopVarName = tokens.get(0);
-		String containerName = tokens.get(2);
-
-		Scope myScope = createScope(provider);
-		myScope.setVarValue(removeDollarIfExist(loopVarName), "");
-		scopes.add(0, myScope);
-		int savePos = pos[0];
-
-		Object container = getVarValue(scopes, containerName);
-		Collection<?> c = getAsCollection(container);
-		if (c != null) {
-			if (c.isEmpty()) {
-				skipTo(content, pos, new int[] { TOK_END });
-			} else {
-				for (Object obj : c) {
-					Object o2 = obj;
-					if (o2 == null){
-						o2 = "null";
-					}
-					myScope.setVarValue(removeDollarIfExist(loopVarName), o2);
-					pos[0] = savePos;
-					parse(content, pos, Integer.MAX_VALUE,
-							new int[] { TOK_END }, scopes, provider, buff);
-				}
-			}
-		} else {
-			throw new Error("The container: " + container
-					+ " is not collection or an array");
-		}
-		scopes.remove(0);
-		pos[0]++;
-		return 0;
-	}
-
-	private Collection<?> getAsCollection(Object collectionOrArray) {
-		ArrayList<Object> lst = new ArrayList<Object>();
-		if (collectionOrArray instanceof Collection<?>){
-			return (Collection<?>) collectionOrArray;
-		}else if (collectionOrArray instanceof Object[]){
-			Object[] arr = (Object[]) collectionOrArray;
-			for (Object obj : arr){
-				lst.add(obj);
-			}
-			return lst;
-		}else if (collectionOrArray instanceof int[]){
-			int[] arr = (int[]) collectionOrArray;
-			for (int obj : arr){
-				lst.add(obj);
-			}
-			return lst;
-		}else if (collectionOrArray instanceof double[]){
-			double[] arr = (double[]) collectionOrArray;
-			for (double obj : arr){
-				lst.add(obj);
-			}
-			return lst;
-		}else if (collectionOrArray instanceof long[]){
-			long[] arr = (long[]) collectionOrArray;
-			for (long obj : arr){
-				lst.add(obj);
-			}
-			return lst;
-		}else if (collectionOrArray instanceof byte[]){
-			byte[] arr = (byte[]) collectionOrArray;
-			for (byte obj : arr){
-				lst.add(obj);
-			}
-			return lst;
-		}else if (collectionOrArray instanceof char[]){
-			char[] arr = (char[]) collectionOrArray;
-			for (char obj : arr){
-				lst.add(obj);
-			}
-			return lst;
-		}else if (collectionOrArray instanceof float[]){
-			float[] arr = (float[]) collectionOrArray;
-			for (float obj : arr){
-				lst.add(obj);
-			}
-			return lst;
-		}else if (collectionOrArray instanceof boolean[]){
-			boolean[] arr = (boolean[]) collectionOrArray;
-			for (boolean obj : arr){
-				lst.add(obj);
-			}
-			return lst;
-		}
-		return null;
-	}
-
-	private String removeDollarIfExist(String varName) {
-		if (varName.charAt(0) == '$') {
-			return varName.substring(1);
-		} else {
-			return varName;
-		}
-	}
-
-	private int getTokenCode(String tr) {
-		if (tr.startsWith(IF_STR)) {
-			return TOK_IF;
-		} else if (tr.startsWith(ELSE_STR)) {
-			return TOK_ELSE;
-		} else if (tr.startsWith(FOREACH_STR)) {
-			return TOK_FOREACH;
-		} else if (tr.startsWith(END_STR)) {
-			return TOK_END;
-		}
-		return 0;
-	}
-
-	private int parseIf(String[] content, int[] pos, ArrayList<Scope> scopes,
-			ValuesProvider provider, StringBuffer buff) {
-		if (checkCond(content[pos[0]], scopes)) {
-			pos[0]++;
-			parse(content, pos, Integer.MAX_VALUE, new int[] { TOK_ELSE,
-					TOK_END }, scopes, provider, buff);
-			int lastTok = getTokenCode(content[pos[0]].trim());
-			if (lastTok == TOK_END) {
-				pos[0]++;
-				return 0;
-			} else { // TOK_ELSE
-				skipTo(content, pos, new int[] { TOK_END });
-				pos[0]++;
-				return 0;
-			}
-		} else {
-			pos[0]++;
-			skipTo(content, pos, new int[] { TOK_END, TOK_ELSE });
-			int lastTok = getTokenCode(content[pos[0]].trim());
-			if (lastTok == TOK_ELSE) {
-				pos[0]++;
-				parse(content, pos, Integer.MAX_VALUE, new int[] { TOK_END },
-						scopes, provider, buff);
-				pos[0]++;
-				return 0;
-			} else {
-				pos[0]++;
-				return 0;
-			}
-		}
-	}
-
-	private int skipTo(String[] content, int[] pos, int terminators[]) {
-		ArrayList<Integer> stack = new ArrayList<Integer>();
-		while (true) {
-			if (pos[0] >= content.length) {
-				throw new Error("Parse error: expected token(s): "
-						+ getArrayAsString(terminators) + " but found EOF.");
-			}
-			int t = getTokenCode(content[pos[0]].trim());
-			if (stack.isEmpty()) {
-				for (int tk : terminators) {
-					if (t == tk) {
-						return 0;
-					}
-				}
-			}
-			if (isOpeningTok(t)) {
-				stack.add(0, t);
-			} else if (isColsingTok(t)) {
-				stack.remove(0);
-			}
-			pos[0]++;
-		}
-	}
-
-	private String getArrayAsString(int[] terminators) {
-		String str = "";
-		for (int term : terminators) {
-			if (str.length() > 0) {
-				str += ", ";
-			}
-			str += getTokenName(term);
-		}
-		return str;
-	}
-
-	private String getTokenName(int tok) {
-		switch (tok) {
-		case TOK_ELSE:
-			return ELSE_STR;
-		case TOK_END:
-			return END_STR;
-		case TOK_FOREACH:
-			return FOREACH_STR;
-		case TOK_IF:
-			return IF_STR;
-		default:
-			return "N/A";
-		}
-	}
-
-	private boolean isColsingTok(int t) {
-		return t == TOK_END;
-	}
-
-	private boolean isOpeningTok(int t) {
-		return t == TOK_IF || t == TOK_FOREACH;
-	}
-
-	private boolean checkCond(String expression, ArrayList<Scope> scopes) {
-		expression = expression.substring(expression.indexOf("(") + 2,
-				expression.lastIndexOf(')'));
-		expression = expression.trim();
-		Object value = getVarValue(scopes, expression);
-		if (value != null && (value instanceof Boolean)) {
-			return ((Boolean) value).booleanValue();
-		}
-		return false;
-	}
-
-	private Object getVarValue(ArrayList<Scope> scopes, String varId) {
-		if (varId.startsWith("$")) {
-			varId = varId.substring(1);
-		}
-		for (Scope scope : scopes) {
-			if (scope.containsVar(varId)) {
-				return scope.getVarValue(varId);
-			}
-		}
-		return null;
-	}
-
-	private Scope createFirstScope(final ValuesProvider valuesProvider) {
-		return new Scope(valuesProvider, true);
-	}
-
+	/**
+	 * @deprecated see {@link Scope}
+	 */
+	@Deprecated
 	public Scope createScope(final ValuesProvider valuesProvider) {
 		return new Scope(valuesProvider, false);
 	}
 
-	
 }
\ No newline at end of file
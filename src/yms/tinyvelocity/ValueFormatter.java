@@ -0,0 +1,25 @@
+package yms.tinyvelocity;
+
+import java.io.IOException;
+
+/**
+ * Writes the values of one type to the output, see {@link FormatterRegistry}
+ * .
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public interface ValueFormatter {
+
+	/**
+	 * Write the value to out, preferably without creating a String for it.
+	 * 
+	 * @param value
+	 *            - never null
+	 * @param out
+	 * @throws IOException
+	 *             - if out throws it
+	 */
+	public void format(Object value, Appendable out) throws IOException;
+
+}
@@ -0,0 +1,132 @@
+package yms.tinyvelocity;
+
+import java.io.IOException;
+
+/**
+ * A variable reference resolved at compile time. The loop variables that
+ * the reference may refer to are known when the template is compiled, so
+ * the reference keeps their frame slots, from the innermost loop outwards.
+ * 
+ * Like a lookup through nested scopes, the value is taken from the first
+ * loop variable for which the path has a value, and from the root of the
+ * values provider if none of them has.
+ * 
+ * With a {@link BulkValuesProvider} the first property of a loop variable
+ * and the root variables are taken from the values the loop and the template
+ * read in bulk.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+class VarReference {
+	private static final int[] NO_SLOTS = new int[0];
+
+	final PropertyPath path;
+	private final int[] slots;
+	/**
+	 * index of the first property of the path in the bulk values of each
+	 * slot, -1 if the path has no properties
+	 */
+	private final int[] bulkIndexes;
+	/** index of the head in the bulk root values, -1 if not read in bulk */
+	private final int rootIndex;
+
+	/**
+	 * @param path
+	 * @param slots
+	 *            - the frame slots of the candidate loop variables, innermost
+	 *            first
+	 * @param bulkIndexes
+	 *            - see {@link ForeachNode} bulk names
+	 * @param rootIndex
+	 *            - see {@link CompiledTemplate} root names
+	 */
+	VarReference(PropertyPath path, int[] slots, int[] bulkIndexes,
+			int rootIndex) {
+		this.path = path;
+		this.slots = slots.length == 0 ? NO_SLOTS : slots;
+		this.bulkIndexes = bulkIndexes.length == 0 ? NO_SLOTS : bulkIndexes;
+		this.rootIndex = rootIndex;
+	}
+
+	Object getValue(RenderContext ctx) {
+		if (ctx.stats != null || ctx.bulk != null) {
+			return getSlowValue(ctx);
+		}
+		for (int slot : slots) {
+			Object head = ctx.frame[slot];
+			if (head instanceof PrimitiveElement) {
+				head = ((PrimitiveElement) head).box();
+			}
+			Object value = path.getValue(ctx.provider, head);
+			if (value != null) {
+				return value;
+			}
+		}
+		return path.getRootValue(ctx.provider);
+	}
+
+	/**
+	 * Same as {@link #getValue(RenderContext)}, counting the property lookups
+	 * (at most one per path element) in the render stats and using the
+	 * values read in bulk.
+	 */
+	private Object getSlowValue(RenderContext ctx) {
+		int count = path.getPropertyCount();
+		for (int i = 0; i < slots.length; i++) {
+			if (ctx.stats != null) {
+				ctx.stats.propertyLookups += count;
+			}
+			Object[] fetched = ctx.bulk == null ? null : ctx.bulk[slots[i]];
+			Object value;
+			if (fetched != null && bulkIndexes[i] >= 0) {
+				value = path.getValue(ctx.provider, fetched[bulkIndexes[i]], 1);
+			} else {
+				Object head = ctx.frame[slots[i]];
+				if (head instanceof PrimitiveElement) {
+					head = ((PrimitiveElement) head).box();
+				}
+				value = path.getValue(ctx.provider, head);
+			}
+			if (value != null) {
+				return value;
+			}
+		}
+		if (ctx.stats != null) {
+			ctx.stats.propertyLookups += count + 1;
+		}
+		if (ctx.rootValues != null && rootIndex >= 0) {
+			return path.getValue(ctx.provider, ctx.rootValues[rootIndex]);
+		}
+		return path.getRootValue(ctx.provider);
+	}
+
+	/**
+	 * If the reference is a loop variable that holds an element of a
+	 * primitive array and the provider formats primitives with
+	 * String.valueOf and the engine has no formatter for its type, write the
+	 * element to the output without boxing it.
+	 * 
+	 * @return true if the value was written
+	 */
+	boolean appendUnboxed(RenderContext ctx) throws IOException {
+		if (slots.length > 0 && path.getPropertyCount() == 0
+				&& ctx.unboxed
+				&& ctx.frame[slots[0]] instanceof PrimitiveElement) {
+			PrimitiveElement element = (PrimitiveElement) ctx.frame[slots[0]];
+			if (ctx.formatters != null
+					&& ctx.formatters.getBoxedFormatter(element
+							.getBoxedType()) != null) {
+				return false;
+			}
+			element.appendTo(ctx.valueOut);
+			return true;
+		}
+		return false;
+	}
+
+	String getPath() {
+		return path.getPath();
+	}
+
+}
@@ -0,0 +1,116 @@
+package yms.tinyvelocity.cache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import yms.tinyvelocity.FragmentCache;
+
+/**
+ * A bounded {@link FragmentCache}.
+ * 
+ * The cache is bounded by number of fragments and by their total number of
+ * characters, when a bound is exceeded the least recently used fragments are
+ * evicted (see {@link BoundedLruMap}). An expired fragment is removed when it
+ * is looked up, or evicted like any other fragment.
+ * 
+ * Lookups lock only a segment of the cache, so one cache can be shared by
+ * all the request threads.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public class BoundedFragmentCache implements FragmentCache {
+
+	private static class Entry {
+		final String fragment;
+		/** System.nanoTime() deadline, 0 if the fragment does not expire */
+		final long expiresAt;
+
+		Entry(String fragment, long expiresAt) {
+			this.fragment = fragment;
+			this.expiresAt = expiresAt;
+		}
+
+		boolean isExpired(long now) {
+			return expiresAt != 0 && now - expiresAt >= 0;
+		}
+	}
+
+	private final BoundedLruMap<String, Entry> entries;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder expirations = new LongAdder();
+
+	/**
+	 * @param maxEntries
+	 *            - maximal number of fragments
+	 * @param maxChars
+	 *            - maximal total length of the fragments
+	 */
+	public BoundedFragmentCache(int maxEntries, long maxChars) {
+		if (maxEntries < 1 || maxChars < 1) {
+			throw new IllegalArgumentException("bounds must be positive");
+		}
+		this.entries = new BoundedLruMap<String, Entry>(maxEntries, maxChars);
+	}
+
+	@Override
+	public String get(String key) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			misses.increment();
+			return null;
+		}
+		if (entry.isExpired(System.nanoTime())) {
+			if (entries.remove(key, entry)) {
+				expirations.increment();
+			}
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		return entry.fragment;
+	}
+
+	@Override
+	public void put(String key, String fragment, long ttlMillis) {
+		long expiresAt = 0;
+		if (ttlMillis > 0) {
+			expiresAt = System.nanoTime()
+					+ TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+			if (expiresAt == 0) {
+				expiresAt = 1;
+			}
+		}
+		entries.put(key, new Entry(fragment, expiresAt), fragment.length());
+	}
+
+	/**
+	 * Remove the fragment cached under the given key.
+	 * 
+	 * @param key
+	 */
+	public void invalidate(String key) {
+		entries.remove(key, null);
+	}
+
+	public void clear() {
+		entries.clear();
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the counters of the cache, the weight is the total length of
+	 *         the fragments
+	 */
+	public CacheStats getStats() {
+		return new CacheStats(hits.sum(), misses.sum(),
+				entries.getEvictionCount(), expirations.sum(), 0,
+				entries.size(), entries.getWeight());
+	}
+
+}
@@ -0,0 +1,170 @@
+package yms.tinyvelocity.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread safe map bounded by number of entries and by total weight, that
+ * evicts the least recently used entries. It is the storage of the bounded
+ * caches of the engine.
+ * 
+ * The keys are split by hash between segments, each one an access ordered
+ * {@link LinkedHashMap} with its own lock and an equal share of the bounds.
+ * A lookup locks only the segment of its key, and an eviction removes the
+ * eldest entry of the segment in constant time. Small maps have a single
+ * segment and evict in exact LRU order, large maps may evict an entry before
+ * the total bounds are reached.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+final class BoundedLruMap<K, V> {
+	private static final int MAX_SEGMENTS = 16;
+	/** a map gets another segment for each this many entries */
+	private static final int SEGMENT_ENTRIES = 128;
+
+	private static final class Weighted<V> {
+		final V value;
+		final long weight;
+
+		Weighted(V value, long weight) {
+			this.value = value;
+			this.weight = weight;
+		}
+	}
+
+	private static final class Segment<K, V> {
+		final int maxEntries;
+		final long maxWeight;
+		final LongAdder evictions;
+		final LinkedHashMap<K, Weighted<V>> map = new LinkedHashMap<K, Weighted<V>>(
+				16, 0.75f, true);
+		/** written under the segment lock */
+		volatile long weight = 0;
+
+		Segment(int maxEntries, long maxWeight, LongAdder evictions) {
+			this.maxEntries = maxEntries;
+			this.maxWeight = maxWeight;
+			this.evictions = evictions;
+		}
+
+		synchronized V get(K key) {
+			Weighted<V> w = map.get(key);
+			return w == null ? null : w.value;
+		}
+
+		synchronized void put(K key, V value, long valueWeight) {
+			Weighted<V> old = map.put(key, new Weighted<V>(value, valueWeight));
+			weight += old == null ? valueWeight : valueWeight - old.weight;
+			Iterator<Weighted<V>> eldest = map.values().iterator();
+			while ((map.size() > maxEntries || weight > maxWeight)
+					&& eldest.hasNext()) {
+				weight -= eldest.next().weight;
+				eldest.remove();
+				evictions.increment();
+			}
+		}
+
+		synchronized boolean remove(K key, V value) {
+			Weighted<V> w = map.get(key);
+			if (w == null || (value != null && w.value != value)) {
+				return false;
+			}
+			map.remove(key);
+			weight -= w.weight;
+			return true;
+		}
+
+		synchronized void clear() {
+			map.clear();
+			weight = 0;
+		}
+
+		synchronized int size() {
+			return map.size();
+		}
+	}
+
+	private final Segment<K, V>[] segments;
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * @param maxEntries
+	 *            - maximal number of entries, positive
+	 * @param maxWeight
+	 *            - maximal total weight, positive
+	 */
+	@SuppressWarnings("unchecked")
+	BoundedLruMap(int maxEntries, long maxWeight) {
+		int count = 1;
+		while (count < MAX_SEGMENTS && count * 2 * SEGMENT_ENTRIES <= maxEntries) {
+			count *= 2;
+		}
+		segments = new Segment[count];
+		for (int i = 0; i < count; i++) {
+			segments[i] = new Segment<K, V>(maxEntries / count
+					+ (i < maxEntries % count ? 1 : 0), maxWeight / count,
+					evictions);
+		}
+	}
+
+	private Segment<K, V> segmentFor(Object key) {
+		int h = key.hashCode();
+		h ^= h >>> 16;
+		return segments[h & (segments.length - 1)];
+	}
+
+	/**
+	 * @return the value, or null. The entry becomes the most recently used
+	 *         of its segment.
+	 */
+	V get(K key) {
+		return segmentFor(key).get(key);
+	}
+
+	/**
+	 * Put the value and evict the least recently used entries of its segment
+	 * while it is over its bounds.
+	 */
+	void put(K key, V value, long weight) {
+		segmentFor(key).put(key, value, weight);
+	}
+
+	/**
+	 * Remove the entry of the key if its value is the given one, or any
+	 * value if the given one is null.
+	 * 
+	 * @return true if an entry was removed
+	 */
+	boolean remove(K key, V value) {
+		return segmentFor(key).remove(key, value);
+	}
+
+	void clear() {
+		for (Segment<K, V> segment : segments) {
+			segment.clear();
+		}
+	}
+
+	int size() {
+		int size = 0;
+		for (Segment<K, V> segment : segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+
+	long getWeight() {
+		long weight = 0;
+		for (Segment<K, V> segment : segments) {
+			weight += segment.weight;
+		}
+		return weight;
+	}
+
+	long getEvictionCount() {
+		return evictions.sum();
+	}
+
+}
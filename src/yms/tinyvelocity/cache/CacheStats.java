@@ -0,0 +1,108 @@
+package yms.tinyvelocity.cache;
+
+/**
+ * An immutable snapshot of the counters of a {@link TemplateCache} or a
+ * {@link BoundedFragmentCache}.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public class CacheStats {
+	private final long hitCount;
+	private final long missCount;
+	private final long evictionCount;
+	private final long expirationCount;
+	private final long totalCompileNanos;
+	private final int size;
+	private final long weight;
+
+	public CacheStats(long hitCount, long missCount, long evictionCount,
+			long totalCompileNanos, int size, long weight) {
+		this(hitCount, missCount, evictionCount, 0, totalCompileNanos, size,
+				weight);
+	}
+
+	public CacheStats(long hitCount, long missCount, long evictionCount,
+			long expirationCount, long totalCompileNanos, int size,
+			long weight) {
+		this.hitCount = hitCount;
+		this.missCount = missCount;
+		this.evictionCount = evictionCount;
+		this.expirationCount = expirationCount;
+		this.totalCompileNanos = totalCompileNanos;
+		this.size = size;
+		this.weight = weight;
+	}
+
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * @return number of lookups that had to compile the template, or that
+	 *         found no fragment or an expired one.
+	 */
+	public long getMissCount() {
+		return missCount;
+	}
+
+	public long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * @return number of fragments removed because their ttl passed.
+	 */
+	public long getExpirationCount() {
+		return expirationCount;
+	}
+
+	/**
+	 * @return the total time spent compiling templates on misses, 0 for
+	 *         fragments.
+	 */
+	public long getTotalCompileNanos() {
+		return totalCompileNanos;
+	}
+
+	/**
+	 * @return number of templates (or fragments) in the cache when the
+	 *         snapshot was taken.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return total weight (characters) of the cached templates or fragments
+	 *         when the snapshot was taken.
+	 */
+	public long getWeight() {
+		return weight;
+	}
+
+	public long getRequestCount() {
+		return hitCount + missCount;
+	}
+
+	/**
+	 * @return hits / requests, or 1.0 if there were no requests yet.
+	 */
+	public double getHitRate() {
+		long requests = getRequestCount();
+		return requests == 0 ? 1.0 : (double) hitCount / requests;
+	}
+
+	public double getAverageCompileNanos() {
+		return missCount == 0 ? 0.0 : (double) totalCompileNanos / missCount;
+	}
+
+	@Override
+	public String toString() {
+		return "CacheStats[hits=" + hitCount + ", misses=" + missCount
+				+ ", evictions=" + evictionCount + ", expirations="
+				+ expirationCount + ", compileNanos=" + totalCompileNanos
+				+ ", size=" + size + ", weight=" + weight + "]";
+	}
+
+}
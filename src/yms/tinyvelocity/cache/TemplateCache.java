@@ -0,0 +1,246 @@
+package yms.tinyvelocity.cache;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import yms.tinyvelocity.CompiledTemplate;
+import yms.tinyvelocity.RenderListener;
+import yms.tinyvelocity.TinyVelocityEngine;
+import yms.tinyvelocity.ValuesProvider;
+
+/**
+ * A bounded cache of compiled templates.
+ * 
+ * Templates are cached by name, or by a 64 bit hash and the length of their
+ * source when no name is given (the source is compared only when the hash
+ * matches). Names and sources never collide, a template named "x" and the
+ * anonymous template "x" are two entries. The cache is bounded by number of
+ * templates and optionally by total weight (the number of characters of the
+ * cached templates sources), when one of the bounds is exceeded the least
+ * recently used templates are evicted.
+ * 
+ * Large caches are split into segments (see {@link BoundedLruMap}) and a
+ * lookup locks only the segment of its template, so one cache can be shared
+ * by all the request threads. Two threads that miss on the same template at
+ * the same time may both compile it, which is harmless since compiled
+ * templates are immutable.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public class TemplateCache {
+
+	/** the key of a named template, or of an anonymous template */
+	private static final class Key {
+		/** null for an anonymous template */
+		final String name;
+		/** the length and hash of the source of an anonymous template */
+		final int length;
+		final long hash;
+
+		private Key(String name, int length, long hash) {
+			this.name = name;
+			this.length = length;
+			this.hash = hash;
+		}
+
+		static Key forName(String name) {
+			return new Key(name, 0, 0);
+		}
+
+		static Key forSource(String source) {
+			// 64 bit FNV-1a
+			long hash = 0xcbf29ce484222325L;
+			for (int i = 0; i < source.length(); i++) {
+				hash ^= source.charAt(i);
+				hash *= 0x100000001b3L;
+			}
+			return new Key(null, source.length(), hash);
+		}
+
+		@Override
+		public int hashCode() {
+			if (name != null) {
+				return name.hashCode();
+			}
+			return (int) (hash ^ (hash >>> 32)) + length;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			if (name != null) {
+				return name.equals(other.name);
+			}
+			return other.name == null && hash == other.hash
+					&& length == other.length;
+		}
+	}
+
+	private static class Entry {
+		final String source;
+		final CompiledTemplate template;
+
+		Entry(String source, CompiledTemplate template) {
+			this.source = source;
+			this.template = template;
+		}
+
+		boolean isFor(String source) {
+			return this.source == source || this.source.equals(source);
+		}
+	}
+
+	private final TinyVelocityEngine engine;
+	private final BoundedLruMap<Key, Entry> entries;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder compileNanos = new LongAdder();
+
+	/**
+	 * @param engine
+	 *            - the engine used to compile the templates
+	 * @param maxEntries
+	 *            - maximal number of cached templates
+	 */
+	public TemplateCache(TinyVelocityEngine engine, int maxEntries) {
+		this(engine, maxEntries, 0);
+	}
+
+	/**
+	 * @param engine
+	 *            - the engine used to compile the templates
+	 * @param maxEntries
+	 *            - maximal number of cached templates
+	 * @param maxWeight
+	 *            - maximal total number of characters of the cached templates,
+	 *            0 means no limit
+	 */
+	public TemplateCache(TinyVelocityEngine engine, int maxEntries,
+			long maxWeight) {
+		if (maxEntries <= 0) {
+			throw new IllegalArgumentException("maxEntries must be positive: "
+					+ maxEntries);
+		}
+		this.engine = engine;
+		this.entries = new BoundedLruMap<Key, Entry>(maxEntries,
+				maxWeight <= 0 ? Long.MAX_VALUE : maxWeight);
+	}
+
+	/**
+	 * Return the compiled template, the template source is used as the key.
+	 * 
+	 * @param template
+	 * @return
+	 */
+	public CompiledTemplate get(String template) {
+		return get(Key.forSource(template), null, template);
+	}
+
+	/**
+	 * Return the compiled template cached under the given name. If the cached
+	 * template was compiled from a different source it is compiled again and
+	 * replaced.
+	 * 
+	 * @param name
+	 * @param template
+	 * @return
+	 */
+	public CompiledTemplate get(String name, String template) {
+		return get(Key.forName(name), name, template);
+	}
+
+	/**
+	 * Return the template cached under the given name, whatever its source,
+	 * without compiling. A missing template is not counted as a miss.
+	 * 
+	 * @param name
+	 * @return the cached template or null
+	 */
+	public CompiledTemplate getIfPresent(String name) {
+		Entry entry = entries.get(Key.forName(name));
+		if (entry == null) {
+			return null;
+		}
+		hits.increment();
+		RenderListener listener = engine.getRenderListener();
+		if (listener != null) {
+			listener.templateCacheAccess(name, true, 0);
+		}
+		return entry.template;
+	}
+
+	private CompiledTemplate get(Key key, String name, String template) {
+		RenderListener listener = engine.getRenderListener();
+		Entry entry = entries.get(key);
+		if (entry != null && entry.isFor(template)) {
+			hits.increment();
+			if (listener != null) {
+				listener.templateCacheAccess(name, true, 0);
+			}
+			return entry.template;
+		}
+
+		misses.increment();
+		long start = System.nanoTime();
+		CompiledTemplate compiled = engine.compile(name, template);
+		long nanos = System.nanoTime() - start;
+		compileNanos.add(nanos);
+		if (listener != null) {
+			listener.templateCacheAccess(name, false, nanos);
+		}
+
+		entries.put(key, new Entry(template, compiled), template.length());
+		return compiled;
+	}
+
+	/**
+	 * Render the template cached under the given name.
+	 * 
+	 * @param name
+	 * @param template
+	 * @param valuesProvider
+	 * @return
+	 */
+	public String parse(String name, String template,
+			ValuesProvider valuesProvider) {
+		return get(name, template).render(valuesProvider);
+	}
+
+	/**
+	 * Remove the template cached under the given name.
+	 * 
+	 * @param name
+	 */
+	public void invalidate(String name) {
+		entries.remove(Key.forName(name), null);
+	}
+
+	/**
+	 * Remove the anonymous template with the given source, see
+	 * {@link #get(String)}.
+	 * 
+	 * @param template
+	 */
+	public void invalidateTemplate(String template) {
+		entries.remove(Key.forSource(template), null);
+	}
+
+	public void clear() {
+		entries.clear();
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public CacheStats getStats() {
+		return new CacheStats(hits.sum(), misses.sum(),
+				entries.getEvictionCount(), compileNanos.sum(), entries.size(),
+				entries.getWeight());
+	}
+
+}
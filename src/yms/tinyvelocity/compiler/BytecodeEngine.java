@@ -0,0 +1,49 @@
+package yms.tinyvelocity.compiler;
+
+import yms.tinyvelocity.CompiledTemplate;
+import yms.tinyvelocity.TinyVelocityEngine;
+import yms.tinyvelocity.ValuesProvider;
+
+/**
+ * A {@link TinyVelocityEngine} that compiles every template to bytecode with
+ * {@link BytecodeTemplateCompiler}. Use it with a
+ * {@link yms.tinyvelocity.cache.TemplateCache}, compiling is expensive.
+ * Templates compiled while a profiler is set are interpreted.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public class BytecodeEngine extends TinyVelocityEngine {
+	private final BytecodeTemplateCompiler compiler = new BytecodeTemplateCompiler();
+
+	/**
+	 * @throws IllegalStateException
+	 *             - if the java compiler is not available (running on a JRE)
+	 */
+	public BytecodeEngine() {
+		if (!compiler.isAvailable()) {
+			throw new IllegalStateException(
+					"The java compiler is not available, templates can be compiled to bytecode only on a JDK");
+		}
+	}
+
+	@Override
+	public CompiledTemplate compile(String name, String template) {
+		return toBytecode(super.compile(name, template));
+	}
+
+	@Override
+	public CompiledTemplate specialize(String name, String template,
+			ValuesProvider constants) {
+		return toBytecode(super.specialize(name, template, constants));
+	}
+
+	private CompiledTemplate toBytecode(CompiledTemplate compiled) {
+		if (getProfiler() != null) {
+			// the bytecode is not instrumented, keep the profiled interpreter
+			return compiled;
+		}
+		return compiler.compile(compiled);
+	}
+
+}
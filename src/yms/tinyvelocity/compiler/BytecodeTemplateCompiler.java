@@ -0,0 +1,79 @@
+package yms.tinyvelocity.compiler;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import yms.tinyvelocity.CompiledTemplate;
+import yms.tinyvelocity.TemplateRenderer;
+
+/**
+ * Compiles templates into JVM classes.
+ * 
+ * For every template a java class is generated in which the static text is
+ * kept in constants, every <b>#foreach</b> is a real loop and the loop
+ * variables are locals, so the JIT can inline the whole render. The class is
+ * compiled in memory with the JDK compiler and defined as a hidden class, so
+ * it is unloaded together with the template.
+ * 
+ * Compiling a template takes much longer than interpreting it once, so this
+ * is meant for hot templates that are compiled once (see
+ * {@link yms.tinyvelocity.cache.TemplateCache}) and rendered many times.
+ * Templates with <b>#cache</b> blocks or parallel <b>#foreach</b> loops are
+ * left interpreted. The java compiler is needed, so this works only on a JDK
+ * (see {@link #isAvailable()}).
+ * 
+ * This class is thread safe.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public class BytecodeTemplateCompiler {
+	private final MemoryJavaCompiler javaCompiler = new MemoryJavaCompiler();
+
+	/**
+	 * @return true if templates can be compiled to bytecode in this JVM.
+	 */
+	public boolean isAvailable() {
+		return javaCompiler.isAvailable();
+	}
+
+	/**
+	 * Return a template with the same structure as the given one, rendered
+	 * by a generated class. If the template can not be compiled the given
+	 * template is returned.
+	 * 
+	 * @param template
+	 * @return
+	 * @throws IllegalStateException
+	 *             - if the java compiler is not available
+	 */
+	public CompiledTemplate compile(CompiledTemplate template) {
+		SourceGenerator generator = new SourceGenerator();
+		template.accept(generator);
+		if (!generator.isSupported()) {
+			return template;
+		}
+		String source = generator.generate();
+		byte[] bytes = javaCompiler.compile(SourceGenerator.CLASS_NAME,
+				source);
+		return template.withRenderer(define(bytes, generator.getClassData()));
+	}
+
+	private TemplateRenderer define(byte[] bytes, Object[] classData) {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup()
+					.defineHiddenClassWithClassData(bytes, classData, true);
+			return (TemplateRenderer) lookup.findConstructor(
+					lookup.lookupClass(), MethodType.methodType(void.class))
+					.invoke();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException(
+					"Failed to define the generated template class", e);
+		}
+	}
+
+}
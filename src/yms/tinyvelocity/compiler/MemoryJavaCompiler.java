@@ -0,0 +1,130 @@
+package yms.tinyvelocity.compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.net.URI;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import yms.tinyvelocity.ValuesProvider;
+
+/**
+ * Compiles a single java source in memory with the JDK compiler.
+ * 
+ * The standard file manager (which caches the class path) is created once
+ * and reused, compilations are serialized because it is not thread safe.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+class MemoryJavaCompiler {
+	private final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+	private final String classPath = getClassPath();
+	private StandardJavaFileManager standard = null;
+
+	/**
+	 * @return false when running on a JRE without the java compiler
+	 */
+	boolean isAvailable() {
+		return compiler != null;
+	}
+
+	/**
+	 * @param className
+	 *            - fully qualified name of the class in the source
+	 * @param source
+	 * @return the class file bytes
+	 * @throws IllegalStateException
+	 *             - if the java compiler is not available or the source
+	 *             does not compile
+	 */
+	synchronized byte[] compile(String className, final String source) {
+		if (compiler == null) {
+			throw new IllegalStateException(
+					"The java compiler is not available, templates can be compiled to bytecode only on a JDK");
+		}
+		String simpleName = className.substring(className.lastIndexOf('.') + 1);
+		JavaFileObject sourceFile = new SimpleJavaFileObject(URI.create("string:///"
+				+ simpleName + Kind.SOURCE.extension), Kind.SOURCE) {
+			@Override
+			public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+				return source;
+			}
+		};
+
+		if (standard == null) {
+			standard = compiler.getStandardFileManager(null, null, null);
+		}
+		final ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+		JavaFileManager fileManager = new ForwardingJavaFileManager<StandardJavaFileManager>(
+				standard) {
+			@Override
+			public JavaFileObject getJavaFileForOutput(Location location,
+					String name, Kind kind, FileObject sibling) {
+				return new SimpleJavaFileObject(URI.create("bytes:///"
+						+ name.replace('.', '/') + kind.extension), kind) {
+					@Override
+					public OutputStream openOutputStream() {
+						return classBytes;
+					}
+				};
+			}
+		};
+
+		List<String> options = new ArrayList<String>();
+		options.add("-classpath");
+		options.add(classPath);
+		options.add("-proc:none");
+		options.add("-g:none");
+
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+		List<JavaFileObject> units = new ArrayList<JavaFileObject>();
+		units.add(sourceFile);
+		boolean ok = compiler.getTask(null, fileManager, diagnostics, options,
+				null, units).call();
+		if (!ok) {
+			StringBuilder msg = new StringBuilder(
+					"Failed to compile generated template:\n");
+			for (Diagnostic<? extends JavaFileObject> d : diagnostics
+					.getDiagnostics()) {
+				msg.append(d.toString()).append('\n');
+			}
+			throw new IllegalStateException(msg.toString());
+		}
+		return classBytes.toByteArray();
+	}
+
+	/**
+	 * The class path of the application plus the location of the engine
+	 * classes, which may be loaded by a container class loader.
+	 */
+	private static String getClassPath() {
+		String cp = System.getProperty("java.class.path", "");
+		try {
+			CodeSource source = ValuesProvider.class.getProtectionDomain()
+					.getCodeSource();
+			if (source != null) {
+				cp = cp + File.pathSeparator
+						+ new File(source.getLocation().toURI()).getPath();
+			}
+		} catch (Exception e) {
+			// keep the default class path
+		}
+		return cp;
+	}
+
+}
@@ -0,0 +1,133 @@
+package yms.tinyvelocity.compiler;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.stream.BaseStream;
+
+import yms.tinyvelocity.PrimitiveFormattingValuesProvider;
+import yms.tinyvelocity.PropertyPath;
+import yms.tinyvelocity.RenderStats;
+import yms.tinyvelocity.ValuesProvider;
+
+/**
+ * Runtime helpers called by the generated templates. They follow the same
+ * rules as the engine interpreter.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+final class RenderSupport {
+
+	private RenderSupport() {
+	}
+
+	/**
+	 * @return true if the elements of primitive arrays can be written
+	 *         without boxing them
+	 */
+	static boolean isPrimitiveFormatting(ValuesProvider p) {
+		return p instanceof PrimitiveFormattingValuesProvider
+				&& ((PrimitiveFormattingValuesProvider) p)
+						.isPrimitiveFormatting();
+	}
+
+	/**
+	 * Evaluate the path from a loop variable, counting the lookups like the
+	 * interpreter.
+	 */
+	static Object getValue(PropertyPath path, ValuesProvider p, Object head,
+			RenderStats s) {
+		if (s != null) {
+			s.addPropertyLookups(path.getPropertyCount());
+		}
+		return path.getValue(p, head);
+	}
+
+	/**
+	 * Evaluate the path from the root, counting the lookups like the
+	 * interpreter.
+	 */
+	static Object getRootValue(PropertyPath path, ValuesProvider p,
+			RenderStats s) {
+		if (s != null) {
+			s.addPropertyLookups(path.getPropertyCount() + 1);
+		}
+		return path.getRootValue(p);
+	}
+
+	static void append(Appendable out, long value) throws IOException {
+		if (out instanceof StringBuilder) {
+			((StringBuilder) out).append(value);
+		} else {
+			out.append(String.valueOf(value));
+		}
+	}
+
+	static void append(Appendable out, double value) throws IOException {
+		if (out instanceof StringBuilder) {
+			((StringBuilder) out).append(value);
+		} else {
+			out.append(String.valueOf(value));
+		}
+	}
+
+	static void append(Appendable out, float value) throws IOException {
+		if (out instanceof StringBuilder) {
+			((StringBuilder) out).append(value);
+		} else {
+			out.append(String.valueOf(value));
+		}
+	}
+
+	static void append(Appendable out, char value) throws IOException {
+		out.append(value);
+	}
+
+	static void append(Appendable out, boolean value) throws IOException {
+		out.append(value ? "true" : "false");
+	}
+
+	static boolean isTrue(Object value) {
+		return value instanceof Boolean && ((Boolean) value).booleanValue();
+	}
+
+	/**
+	 * Iterate any container. Primitive arrays normally get a typed loop in
+	 * the generated code, this is used for loops that contain other loops.
+	 */
+	static Iterator<?> iterate(final Object container) {
+		if (container instanceof Iterable<?>) {
+			return ((Iterable<?>) container).iterator();
+		} else if (container instanceof Iterator<?>) {
+			return (Iterator<?>) container;
+		} else if (container instanceof BaseStream<?, ?>) {
+			return ((BaseStream<?, ?>) container).iterator();
+		} else if (container instanceof Object[]) {
+			return Arrays.asList((Object[]) container).iterator();
+		} else if (container != null && container.getClass().isArray()) {
+			final int length = Array.getLength(container);
+			return new Iterator<Object>() {
+				private int i = 0;
+
+				@Override
+				public boolean hasNext() {
+					return i < length;
+				}
+
+				@Override
+				public Object next() {
+					if (i >= length) {
+						throw new NoSuchElementException();
+					}
+					return Array.get(container, i++);
+				}
+			};
+		}
+		throw new Error("The container: " + container
+				+ " is not collection or an array");
+	}
+
+}
@@ -0,0 +1,529 @@
+package yms.tinyvelocity.compiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import yms.tinyvelocity.PropertyPath;
+import yms.tinyvelocity.TemplateVisitor;
+
+/**
+ * Generates the java source of a template renderer from the template
+ * structure.
+ * 
+ * Static texts and property paths (with their inline caches) are not written
+ * into the source, they are passed to the class as class data and kept in
+ * static final fields so the JIT treats them as constants. Loop variables are locals of the render
+ * method, and big blocks are moved to their own methods to stay below the
+ * JVM method size limit.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+class SourceGenerator extends TemplateVisitor {
+	static final String PACKAGE = "yms.tinyvelocity.compiler";
+	static final String SIMPLE_NAME = "GeneratedTemplate";
+	static final String CLASS_NAME = PACKAGE + "." + SIMPLE_NAME;
+
+	/** maximal weight (about the number of statements) of a method */
+	private static final int METHOD_WEIGHT_LIMIT = 400;
+
+	private abstract static class GNode {
+		abstract int weight();
+	}
+
+	private static class GText extends GNode {
+		final String text;
+
+		GText(String text) {
+			this.text = text;
+		}
+
+		@Override
+		int weight() {
+			return 1;
+		}
+	}
+
+	private static class GVar extends GNode {
+		final String varName;
+
+		GVar(String varName) {
+			this.varName = varName;
+		}
+
+		@Override
+		int weight() {
+			return 4;
+		}
+	}
+
+	private static class GIf extends GNode {
+		final String condVar;
+		final List<GNode> thenNodes = new ArrayList<GNode>();
+		List<GNode> elseNodes = null;
+
+		GIf(String condVar) {
+			this.condVar = condVar;
+		}
+
+		@Override
+		int weight() {
+			return 3 + totalWeight(thenNodes) + totalWeight(elseNodes);
+		}
+	}
+
+	private static class GForeach extends GNode {
+		final String loopVarName;
+		final String containerName;
+		final List<GNode> body = new ArrayList<GNode>();
+
+		GForeach(String loopVarName, String containerName) {
+			this.loopVarName = loopVarName;
+			this.containerName = containerName;
+		}
+
+		@Override
+		int weight() {
+			int w = 6 + totalWeight(body);
+			// innermost loops are generated once per primitive array type
+			return containsLoop(body) ? w : w * (PRIMITIVES.length + 1);
+		}
+	}
+
+	/** element types of the primitive arrays that get a typed loop */
+	private static final String[] PRIMITIVES = { "int", "long", "double",
+			"float", "short", "byte", "char", "boolean" };
+
+	/** A loop variable visible at some point of the generated code */
+	private static class Local {
+		final String varName;
+		final String localName;
+		/** Object, or the primitive type in a typed array loop */
+		final String type;
+
+		Local(String varName, String localName, String type) {
+			this.varName = varName;
+			this.localName = localName;
+			this.type = type;
+		}
+	}
+
+	private final List<GNode> root = new ArrayList<GNode>();
+	private final ArrayList<List<GNode>> open = new ArrayList<List<GNode>>();
+	private final ArrayList<GNode> openNodes = new ArrayList<GNode>();
+
+	private final List<Object> classData = new ArrayList<Object>();
+	private final HashMap<String, String> textFields = new HashMap<String, String>();
+	private final HashMap<String, String> pathFields = new HashMap<String, String>();
+	private final StringBuilder fields = new StringBuilder();
+	private final StringBuilder methods = new StringBuilder();
+	private int names = 0;
+	/** false if the template uses a directive the generator does not support */
+	private boolean supported = true;
+
+	SourceGenerator() {
+		open.add(root);
+	}
+
+	// building the template tree from the visitor calls
+
+	private List<GNode> current() {
+		return open.get(open.size() - 1);
+	}
+
+	@Override
+	public void visitText(String text) {
+		current().add(new GText(text));
+	}
+
+	@Override
+	public void visitVar(String varName) {
+		current().add(new GVar(varName));
+	}
+
+	@Override
+	public void visitIfStart(String condVar) {
+		GIf node = new GIf(condVar);
+		current().add(node);
+		openNodes.add(node);
+		open.add(node.thenNodes);
+	}
+
+	@Override
+	public void visitElse() {
+		GIf node = (GIf) openNodes.get(openNodes.size() - 1);
+		node.elseNodes = new ArrayList<GNode>();
+		open.set(open.size() - 1, node.elseNodes);
+	}
+
+	@Override
+	public void visitIfEnd() {
+		openNodes.remove(openNodes.size() - 1);
+		open.remove(open.size() - 1);
+	}
+
+	@Override
+	public void visitForeachStart(String loopVarName, String containerName,
+			boolean parallel) {
+		if (parallel) {
+			// parallel loops are split into chunks by the interpreter
+			supported = false;
+		}
+		GForeach node = new GForeach(loopVarName, containerName);
+		current().add(node);
+		openNodes.add(node);
+		open.add(node.body);
+	}
+
+	@Override
+	public void visitForeachEnd() {
+		openNodes.remove(openNodes.size() - 1);
+		open.remove(open.size() - 1);
+	}
+
+	@Override
+	public void visitCacheStart(String key, long ttlSeconds) {
+		// the fragment cache lives in the interpreter
+		supported = false;
+	}
+
+	/**
+	 * @return false if the template can not be compiled to a class and
+	 *         should stay interpreted
+	 */
+	boolean isSupported() {
+		return supported;
+	}
+
+	// source generation
+
+	/**
+	 * @return the values of the static fields, to be passed as the class
+	 *         data
+	 */
+	Object[] getClassData() {
+		return classData.toArray();
+	}
+
+	String generate() {
+		StringBuilder render = new StringBuilder();
+		render.append("\tpublic void render(ValuesProvider p, Appendable out, RenderStats s) throws IOException {\n");
+		render.append("\t\tboolean u = RenderSupport.isPrimitiveFormatting(p);\n");
+		render.append("\t\tObject v;\n");
+		emitBlock(root, new ArrayList<Local>(), render, 2);
+		render.append("\t}\n");
+
+		StringBuilder src = new StringBuilder();
+		src.append("package ").append(PACKAGE).append(";\n\n");
+		src.append("import java.io.IOException;\n");
+		src.append("import java.lang.invoke.MethodHandles;\n");
+		src.append("import java.util.Iterator;\n\n");
+		src.append("import yms.tinyvelocity.PropertyPath;\n");
+		src.append("import yms.tinyvelocity.RenderStats;\n");
+		src.append("import yms.tinyvelocity.TemplateRenderer;\n");
+		src.append("import yms.tinyvelocity.ValuesProvider;\n\n");
+		src.append("final class ").append(SIMPLE_NAME)
+				.append(" implements TemplateRenderer {\n");
+		src.append("\tprivate static final Object[] DATA;\n");
+		src.append("\tstatic {\n");
+		src.append("\t\ttry {\n");
+		src.append("\t\t\tDATA = MethodHandles.classData(MethodHandles.lookup(), \"_\", Object[].class);\n");
+		src.append("\t\t} catch (IllegalAccessException e) {\n");
+		src.append("\t\t\tthrow new ExceptionInInitializerError(e);\n");
+		src.append("\t\t}\n");
+		src.append("\t}\n");
+		src.append(fields);
+		src.append("\n");
+		src.append(render);
+		src.append(methods);
+		src.append("}\n");
+		return src.toString();
+	}
+
+	private void emitBlock(List<GNode> nodes, List<Local> locals,
+			StringBuilder out, int indent) {
+		if (totalWeight(nodes) <= METHOD_WEIGHT_LIMIT) {
+			for (GNode node : nodes) {
+				emitNode(node, locals, out, indent);
+			}
+			return;
+		}
+		List<GNode> chunk = new ArrayList<GNode>();
+		int chunkWeight = 0;
+		for (GNode node : nodes) {
+			int w = node.weight();
+			if (w > METHOD_WEIGHT_LIMIT) {
+				emitMethodCall(chunk, locals, out, indent);
+				chunk.clear();
+				chunkWeight = 0;
+				emitNode(node, locals, out, indent);
+				continue;
+			}
+			if (chunkWeight + w > METHOD_WEIGHT_LIMIT) {
+				emitMethodCall(chunk, locals, out, indent);
+				chunk.clear();
+				chunkWeight = 0;
+			}
+			chunk.add(node);
+			chunkWeight += w;
+		}
+		emitMethodCall(chunk, locals, out, indent);
+	}
+
+	private void emitMethodCall(List<GNode> nodes, List<Local> locals,
+			StringBuilder out, int indent) {
+		if (nodes.isEmpty()) {
+			return;
+		}
+		String name = newName("m");
+		StringBuilder params = new StringBuilder();
+		StringBuilder args = new StringBuilder();
+		for (Local local : locals) {
+			params.append(", ").append(local.type).append(' ')
+					.append(local.localName);
+			args.append(", ").append(local.localName);
+		}
+		indent(out, indent).append(name).append("(p, out, s, u").append(args)
+				.append(");\n");
+
+		StringBuilder method = new StringBuilder();
+		method.append("\n\tprivate static void ").append(name)
+				.append("(ValuesProvider p, Appendable out, RenderStats s, boolean u")
+				.append(params)
+				.append(") throws IOException {\n");
+		method.append("\t\tObject v;\n");
+		for (GNode node : nodes) {
+			emitNode(node, locals, method, 2);
+		}
+		method.append("\t}\n");
+		methods.append(method);
+	}
+
+	private void emitNode(GNode node, List<Local> locals, StringBuilder out,
+			int indent) {
+		if (node instanceof GText) {
+			indent(out, indent).append("out.append(")
+					.append(textField(((GText) node).text)).append(");\n");
+		} else if (node instanceof GVar) {
+			String varName = ((GVar) node).varName;
+			Local primitive = findPrimitive(varName, locals);
+			if (primitive != null) {
+				emitPrimitive(primitive, out, indent);
+				return;
+			}
+			emitEval(varName, locals, out, indent);
+			indent(out, indent).append("if (v != null) {\n");
+			indent(out, indent + 1).append(
+					"out.append(p.getObjectAsString(v));\n");
+			indent(out, indent).append("} else {\n");
+			indent(out, indent + 1).append("out.append(")
+					.append(textField("${" + varName + "}")).append(");\n");
+			indent(out, indent).append("}\n");
+		} else if (node instanceof GIf) {
+			GIf gif = (GIf) node;
+			emitEval(gif.condVar, locals, out, indent);
+			indent(out, indent).append("if (RenderSupport.isTrue(v)) {\n");
+			emitBlock(gif.thenNodes, locals, out, indent + 1);
+			if (gif.elseNodes != null && !gif.elseNodes.isEmpty()) {
+				indent(out, indent).append("} else {\n");
+				emitBlock(gif.elseNodes, locals, out, indent + 1);
+			}
+			indent(out, indent).append("}\n");
+		} else {
+			GForeach loop = (GForeach) node;
+			emitEval(loop.containerName, locals, out, indent);
+			String local = newName("l");
+			if (containsLoop(loop.body)) {
+				emitIteratorLoop(loop, local, locals, out, indent);
+				return;
+			}
+			// the innermost loops get a typed loop for every primitive array
+			// type, the outer ones would multiply the code of their bodies
+			String array = newName("a");
+			String index = newName("k");
+			for (int i = 0; i < PRIMITIVES.length; i++) {
+				String type = PRIMITIVES[i];
+				indent(out, indent).append(i == 0 ? "if" : "} else if")
+						.append(" (v instanceof ").append(type)
+						.append("[]) {\n");
+				indent(out, indent + 1).append(type).append("[] ")
+						.append(array).append(" = (").append(type)
+						.append("[]) v;\n");
+				indent(out, indent + 1).append("if (s != null) {\n");
+				indent(out, indent + 2).append("s.addLoopIterations(")
+						.append(array).append(".length);\n");
+				indent(out, indent + 1).append("}\n");
+				indent(out, indent + 1).append("for (int ").append(index)
+						.append(" = 0; ").append(index).append(" < ")
+						.append(array).append(".length; ").append(index)
+						.append("++) {\n");
+				indent(out, indent + 2).append(type).append(' ')
+						.append(local).append(" = ").append(array)
+						.append('[').append(index).append("];\n");
+				List<Local> inner = new ArrayList<Local>(locals);
+				inner.add(new Local(loop.loopVarName, local, type));
+				emitBlock(loop.body, inner, out, indent + 2);
+				indent(out, indent + 1).append("}\n");
+			}
+			indent(out, indent).append("} else {\n");
+			emitIteratorLoop(loop, local, locals, out, indent + 1);
+			indent(out, indent).append("}\n");
+		}
+	}
+
+	/**
+	 * Generate a loop over the container in 'v' with
+	 * {@link RenderSupport#iterate(Object)}.
+	 */
+	private void emitIteratorLoop(GForeach loop, String local,
+			List<Local> locals, StringBuilder out, int indent) {
+		String it = newName("i");
+		indent(out, indent).append("for (Iterator<?> ").append(it)
+				.append(" = RenderSupport.iterate(v); ").append(it)
+				.append(".hasNext();) {\n");
+		indent(out, indent + 1).append("Object ").append(local).append(" = ")
+				.append(it).append(".next();\n");
+		indent(out, indent + 1).append("if (").append(local)
+				.append(" == null) {\n");
+		indent(out, indent + 2).append(local).append(" = \"null\";\n");
+		indent(out, indent + 1).append("}\n");
+		indent(out, indent + 1).append("if (s != null) {\n");
+		indent(out, indent + 2).append("s.addLoopIterations(1);\n");
+		indent(out, indent + 1).append("}\n");
+		List<Local> inner = new ArrayList<Local>(locals);
+		inner.add(new Local(loop.loopVarName, local, "Object"));
+		emitBlock(loop.body, inner, out, indent + 1);
+		indent(out, indent).append("}\n");
+	}
+
+	/**
+	 * @return the local of a typed array loop if the variable is just that
+	 *         loop variable (which is never null), otherwise null
+	 */
+	private static Local findPrimitive(String varName, List<Local> locals) {
+		for (int i = locals.size() - 1; i >= 0; i--) {
+			Local local = locals.get(i);
+			if (local.varName.equals(varName)) {
+				return "Object".equals(local.type) ? null : local;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Generate the code that writes the element of a primitive array,
+	 * unboxed if the provider formats primitives with String.valueOf.
+	 */
+	private void emitPrimitive(Local local, StringBuilder out, int indent) {
+		indent(out, indent).append("if (u) {\n");
+		indent(out, indent + 1).append("RenderSupport.append(out, ")
+				.append(local.localName).append(");\n");
+		indent(out, indent).append("} else {\n");
+		indent(out, indent + 1).append("out.append(p.getObjectAsString(")
+				.append(local.localName).append("));\n");
+		indent(out, indent).append("}\n");
+	}
+
+	/**
+	 * Generate the code that evaluates the variable into 'v'. like the
+	 * interpreter, the loop variables with the same name are tried from the
+	 * innermost loop outwards and then the root of the values provider.
+	 */
+	private void emitEval(String varName, List<Local> locals,
+			StringBuilder out, int indent) {
+		PropertyPath path = PropertyPath.parse(varName);
+		String pathField = pathField(path);
+		boolean first = true;
+		for (int i = locals.size() - 1; i >= 0; i--) {
+			Local local = locals.get(i);
+			if (local.varName.equals(path.getHead())) {
+				emitAssign(first, "RenderSupport.getValue(" + pathField
+						+ ", p, " + local.localName + ", s)", out, indent);
+				first = false;
+			}
+		}
+		emitAssign(first, "RenderSupport.getRootValue(" + pathField
+				+ ", p, s)", out, indent);
+	}
+
+	private void emitAssign(boolean first, String expression,
+			StringBuilder out, int indent) {
+		if (first) {
+			indent(out, indent).append("v = ").append(expression)
+					.append(";\n");
+		} else {
+			indent(out, indent).append("if (v == null) {\n");
+			indent(out, indent + 1).append("v = ").append(expression)
+					.append(";\n");
+			indent(out, indent).append("}\n");
+		}
+	}
+
+	private String textField(String text) {
+		String name = textFields.get(text);
+		if (name == null) {
+			name = addField("T", "String", text);
+			textFields.put(text, name);
+		}
+		return name;
+	}
+
+	private String pathField(PropertyPath path) {
+		String name = pathFields.get(path.getPath());
+		if (name == null) {
+			name = addField("P", "PropertyPath", path);
+			pathFields.put(path.getPath(), name);
+		}
+		return name;
+	}
+
+	private String addField(String prefix, String type, Object value) {
+		String name = prefix + classData.size();
+		fields.append("\tprivate static final ").append(type).append(' ')
+				.append(name).append(" = (").append(type).append(") DATA[")
+				.append(classData.size()).append("];\n");
+		classData.add(value);
+		return name;
+	}
+
+	private String newName(String prefix) {
+		return prefix + (names++);
+	}
+
+	private static StringBuilder indent(StringBuilder out, int indent) {
+		for (int i = 0; i < indent; i++) {
+			out.append('\t');
+		}
+		return out;
+	}
+
+	private static boolean containsLoop(List<GNode> nodes) {
+		if (nodes != null) {
+			for (GNode node : nodes) {
+				if (node instanceof GForeach) {
+					return true;
+				}
+				if (node instanceof GIf) {
+					GIf gif = (GIf) node;
+					if (containsLoop(gif.thenNodes)
+							|| containsLoop(gif.elseNodes)) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	private static int totalWeight(List<GNode> nodes) {
+		int w = 0;
+		if (nodes != null) {
+			for (GNode node : nodes) {
+				w += node.weight();
+			}
+		}
+		return w;
+	}
+
+}
@@ -0,0 +1,219 @@
+package yms.tinyvelocity.concurrent;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+
+import yms.tinyvelocity.CompiledTemplate;
+import yms.tinyvelocity.ValuesProvider;
+
+/**
+ * Renders one template against many values providers (mail merge).
+ * 
+ * The template is compiled once and every values provider is rendered as a
+ * separate task on the executor (a thread pool, or on Java 21 and later
+ * <code>Executors.newVirtualThreadPerTaskExecutor()</code>). The values
+ * providers are pulled lazily and at most maxInFlight of them are rendered
+ * or waiting to be delivered at any time, so memory stays flat no matter
+ * how large the batch is.
+ * 
+ * Results are delivered to a {@link BatchSink}, either in the order of the
+ * values providers or as soon as they complete. A render that throws an
+ * exception (or the Error the engine throws for a broken template) is
+ * delivered as a failure, a VirtualMachineError stops the batch. A batch
+ * renderer can run many batches at the same time.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public class BatchRenderer {
+	private final CompiledTemplate template;
+	private final Executor executor;
+	private final int maxInFlight;
+	private final boolean ordered;
+
+	/**
+	 * @param template
+	 * @param executor
+	 *            - runs the renders
+	 * @param maxInFlight
+	 *            - maximal number of renders that are running or waiting to
+	 *            be delivered
+	 * @param ordered
+	 *            - true to deliver the results in the order of the values
+	 *            providers, false to deliver them as they complete
+	 */
+	public BatchRenderer(CompiledTemplate template, Executor executor,
+			int maxInFlight, boolean ordered) {
+		if (maxInFlight <= 0) {
+			throw new IllegalArgumentException(
+					"maxInFlight must be positive: " + maxInFlight);
+		}
+		this.template = template;
+		this.executor = executor;
+		this.maxInFlight = maxInFlight;
+		this.ordered = ordered;
+	}
+
+	/**
+	 * Render the template for every values provider and return when all the
+	 * results were delivered. If the sink throws, no more values providers
+	 * are pulled and the exception is thrown when the renders already
+	 * submitted are done.
+	 * 
+	 * @param providers
+	 * @param sink
+	 * @throws InterruptedException
+	 *             - if the calling thread is interrupted while waiting
+	 */
+	public void renderAll(Iterator<? extends ValuesProvider> providers,
+			BatchSink sink) throws InterruptedException {
+		Batch batch = new Batch(sink);
+		long index = 0;
+		try {
+			while (!batch.isFailed() && providers.hasNext()) {
+				final ValuesProvider provider = providers.next();
+				batch.permits.acquire();
+				if (batch.isFailed()) {
+					// failed while waiting for a permit
+					batch.permits.release();
+					break;
+				}
+				batch.submit(index++, provider);
+			}
+		} catch (RuntimeException e) {
+			// a rejected submit or a failing iterator, the renders that were
+			// submitted still use the sink
+			batch.awaitInFlight();
+			throw e;
+		}
+		batch.awaitInFlight();
+		batch.rethrowFailure();
+	}
+
+	public void renderAll(Iterable<? extends ValuesProvider> providers,
+			BatchSink sink) throws InterruptedException {
+		renderAll(providers.iterator(), sink);
+	}
+
+	public void renderAll(Stream<? extends ValuesProvider> providers,
+			BatchSink sink) throws InterruptedException {
+		renderAll(providers.iterator(), sink);
+	}
+
+	/**
+	 * The state of one renderAll call.
+	 */
+	private class Batch {
+		final Semaphore permits = new Semaphore(maxInFlight);
+		private final BatchSink sink;
+		/** completed results waiting for earlier ones (ordered only) */
+		private final HashMap<Long, Object> pending = new HashMap<Long, Object>();
+		private long next = 0;
+		/** the first exception of the sink, or a VirtualMachineError */
+		private Throwable failure = null;
+
+		Batch(BatchSink sink) {
+			this.sink = sink;
+		}
+
+		void submit(final long index, final ValuesProvider provider) {
+			try {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						Object result;
+						try {
+							result = template.render(provider);
+						} catch (RuntimeException e) {
+							result = e;
+						} catch (VirtualMachineError e) {
+							completed(index, new Fatal(e));
+							throw e;
+						} catch (Error e) {
+							// the engine throws Error for broken templates
+							result = e;
+						}
+						completed(index, result);
+					}
+				});
+			} catch (RuntimeException e) {
+				permits.release();
+				throw e;
+			}
+		}
+
+		/**
+		 * @param result
+		 *            - the output String, the Throwable or a {@link Fatal}
+		 */
+		synchronized void completed(long index, Object result) {
+			if (!ordered) {
+				deliver(index, result);
+				return;
+			}
+			pending.put(index, result);
+			while (pending.containsKey(next)) {
+				deliver(next, pending.remove(next));
+				next++;
+			}
+		}
+
+		private void deliver(long index, Object result) {
+			try {
+				if (result instanceof Fatal) {
+					fail(((Fatal) result).error);
+				} else if (result instanceof Throwable) {
+					sink.onFailure(index, (Throwable) result);
+				} else {
+					sink.onResult(index, (String) result);
+				}
+			} catch (RuntimeException e) {
+				fail(e);
+			} finally {
+				permits.release();
+			}
+		}
+
+		private void fail(Throwable e) {
+			if (failure == null) {
+				failure = e;
+			}
+		}
+
+		synchronized boolean isFailed() {
+			return failure != null;
+		}
+
+		/**
+		 * Wait until all the submitted renders were delivered.
+		 */
+		void awaitInFlight() throws InterruptedException {
+			permits.acquire(maxInFlight);
+			permits.release(maxInFlight);
+		}
+
+		synchronized void rethrowFailure() {
+			if (failure instanceof RuntimeException) {
+				throw (RuntimeException) failure;
+			} else if (failure instanceof Error) {
+				throw (Error) failure;
+			}
+		}
+	}
+
+	/**
+	 * The result of a render that threw a VirtualMachineError, which is not
+	 * delivered to the sink.
+	 */
+	private static class Fatal {
+		final VirtualMachineError error;
+
+		Fatal(VirtualMachineError error) {
+			this.error = error;
+		}
+	}
+
+}
@@ -0,0 +1,28 @@
+package yms.tinyvelocity.concurrent;
+
+/**
+ * Receives the results of a {@link BatchRenderer}. The calls are never
+ * concurrent, but they can come from different threads.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public interface BatchSink {
+
+	/**
+	 * @param index
+	 *            - the position of the values provider in the batch
+	 * @param output
+	 *            - the rendered template
+	 */
+	public void onResult(long index, String output);
+
+	/**
+	 * @param index
+	 *            - the position of the values provider in the batch
+	 * @param error
+	 *            - what the render threw
+	 */
+	public void onFailure(long index, Throwable error);
+
+}
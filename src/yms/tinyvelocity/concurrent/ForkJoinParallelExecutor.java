@@ -0,0 +1,78 @@
+package yms.tinyvelocity.concurrent;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+import yms.tinyvelocity.ParallelExecutor;
+
+/**
+ * Runs the chunks of parallel <b>#foreach</b> loops on a {@link ForkJoinPool}
+ * (the common pool by default). Nested parallel loops are supported, a
+ * worker waiting for its chunks helps running them.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public class ForkJoinParallelExecutor implements ParallelExecutor {
+	private final ForkJoinPool pool;
+
+	public ForkJoinParallelExecutor() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	public ForkJoinParallelExecutor(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	@Override
+	public int getParallelism() {
+		return pool.getParallelism();
+	}
+
+	/**
+	 * Run the tasks and wait for all of them. If tasks fail, the first
+	 * failure is rethrown as is (the fork/join framework would wrap an
+	 * exception thrown by another thread in a new one).
+	 */
+	@Override
+	public void invokeAll(final Runnable[] tasks) {
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		RecursiveAction all = new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				ForkJoinTask<?>[] forks = new ForkJoinTask<?>[tasks.length];
+				for (int i = 0; i < tasks.length; i++) {
+					final Runnable task = tasks[i];
+					forks[i] = ForkJoinTask.adapt(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								task.run();
+							} catch (Throwable t) {
+								failure.compareAndSet(null, t);
+							}
+						}
+					});
+				}
+				invokeAll(forks);
+			}
+		};
+		if (ForkJoinTask.inForkJoinPool()
+				&& ForkJoinTask.getPool() == pool) {
+			all.invoke();
+		} else {
+			pool.invoke(all);
+		}
+		Throwable t = failure.get();
+		if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		} else if (t instanceof Error) {
+			throw (Error) t;
+		}
+	}
+
+}
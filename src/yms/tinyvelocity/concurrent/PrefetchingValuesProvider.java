@@ -0,0 +1,238 @@
+package yms.tinyvelocity.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import yms.tinyvelocity.CompiledTemplate;
+import yms.tinyvelocity.PropertyPath;
+import yms.tinyvelocity.TemplateDependencies;
+import yms.tinyvelocity.ValuesProvider;
+
+/**
+ * Wraps a values provider whose lookups are slow, or return futures, and
+ * fetches the root paths of a template concurrently before it is rendered,
+ * so a render waits for the slowest lookup rather than for the sum of all
+ * of them.
+ * 
+ * <pre>
+ * PrefetchingValuesProvider provider = new PrefetchingValuesProvider(
+ * 		backendProvider, ioExecutor);
+ * String html = provider.render(template);
+ * </pre>
+ * 
+ * Values that are a {@link CompletionStage} or a {@link Future} are
+ * resolved. A completion stage is resolved while prefetching without
+ * blocking a thread. A plain future can only be waited for, so it is
+ * resolved by the render when it is first used, and the properties under it
+ * are not prefetched. Paths that are read from loop elements can not be
+ * known before the render, they are looked up (and resolved) when they are
+ * used.
+ * 
+ * The fetched values are kept in the wrapper, so a wrapper should be used
+ * for a single render, or for a few renders of the same model.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public class PrefetchingValuesProvider implements ValuesProvider {
+
+	/** a lookup: the object (by identity, null for the root) and the name */
+	private static final class Key {
+		final Object obj;
+		final String name;
+
+		Key(Object obj, String name) {
+			this.obj = obj;
+			this.name = name;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(obj) * 31 + name.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) other;
+			return key.obj == obj && key.name.equals(name);
+		}
+	}
+
+	private final ValuesProvider delegate;
+	private final Executor executor;
+	private final ConcurrentHashMap<Key, CompletableFuture<Object>> fetched = new ConcurrentHashMap<Key, CompletableFuture<Object>>();
+
+	/**
+	 * @param delegate
+	 *            - it is called concurrently, so it must be thread safe
+	 * @param executor
+	 *            - runs the calls to the delegate, the futures it returns are
+	 *            not waited for on the executor
+	 */
+	public PrefetchingValuesProvider(ValuesProvider delegate, Executor executor) {
+		this.delegate = delegate;
+		this.executor = executor;
+	}
+
+	/**
+	 * Start fetching the root paths of a template. Paths with a common
+	 * prefix fetch the prefix once.
+	 * 
+	 * @param dependencies
+	 * @return completes when all the paths were fetched, exceptionally if
+	 *         one of the lookups failed
+	 */
+	public CompletableFuture<Void> prefetch(TemplateDependencies dependencies) {
+		List<CompletableFuture<Object>> paths = new ArrayList<CompletableFuture<Object>>();
+		for (String path : dependencies.getRootPaths()) {
+			paths.add(fetchPath(PropertyPath.parse(path)));
+		}
+		return CompletableFuture.allOf(paths
+				.toArray(new CompletableFuture<?>[paths.size()]));
+	}
+
+	/**
+	 * Prefetch the root paths of the template, wait for them and render it.
+	 * A failed lookup fails the render only if the template uses its value.
+	 * 
+	 * @param template
+	 * @return
+	 */
+	public String render(CompiledTemplate template) {
+		try {
+			prefetch(template.getDependencies()).get();
+		} catch (ExecutionException e) {
+			// rethrown by getProperty if the value is used
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while prefetching",
+					e);
+		}
+		return template.render(this);
+	}
+
+	@Override
+	public Object getProperty(Object obj, String propName) {
+		CompletableFuture<Object> future = fetched
+				.get(new Key(obj, propName));
+		if (future != null) {
+			// a plain future was kept as is by the prefetch
+			return resolve(await(future));
+		}
+		return resolve(delegate.getProperty(obj, propName));
+	}
+
+	@Override
+	public String getObjectAsString(Object obj) {
+		return delegate.getObjectAsString(obj);
+	}
+
+	private CompletableFuture<Object> fetchPath(PropertyPath path) {
+		CompletableFuture<Object> future = fetch(null, path.getHead());
+		for (int i = 0; i < path.getPropertyCount(); i++) {
+			final String name = path.getPropertyName(i);
+			future = future
+					.thenCompose(new Function<Object, CompletionStage<Object>>() {
+						@Override
+						public CompletionStage<Object> apply(Object value) {
+							if (value == null || value instanceof Future<?>) {
+								// a plain future is resolved by the render,
+								// the rest of the path is looked up then
+								return CompletableFuture.completedFuture(null);
+							}
+							return fetch(value, name);
+						}
+					});
+		}
+		return future;
+	}
+
+	private CompletableFuture<Object> fetch(final Object obj, final String name) {
+		Key key = new Key(obj, name);
+		CompletableFuture<Object> future = fetched.get(key);
+		if (future != null) {
+			return future;
+		}
+		final CompletableFuture<Object> created = new CompletableFuture<Object>();
+		future = fetched.putIfAbsent(key, created);
+		if (future != null) {
+			return future;
+		}
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					complete(created, delegate.getProperty(obj, name));
+				} catch (Throwable t) {
+					created.completeExceptionally(t);
+				}
+			}
+		});
+		return created;
+	}
+
+	/**
+	 * Complete the future with the value, or with the value of the value if
+	 * it is a completion stage. A plain future is kept as the value, waiting
+	 * for it would block the executor thread.
+	 */
+	@SuppressWarnings("unchecked")
+	private void complete(final CompletableFuture<Object> future, Object value) {
+		if (value instanceof CompletionStage<?>) {
+			((CompletionStage<Object>) value)
+					.whenComplete(new BiConsumer<Object, Throwable>() {
+						@Override
+						public void accept(Object result, Throwable failure) {
+							if (failure != null) {
+								future.completeExceptionally(failure);
+							} else {
+								future.complete(result);
+							}
+						}
+					});
+		} else {
+			future.complete(value);
+		}
+	}
+
+	/**
+	 * @return the value, or the result of the value if it is a future
+	 */
+	private Object resolve(Object value) {
+		if (value instanceof Future<?>) {
+			return await((Future<?>) value);
+		} else if (value instanceof CompletionStage<?>) {
+			return await(((CompletionStage<?>) value).toCompletableFuture());
+		}
+		return value;
+	}
+
+	private Object await(Future<?> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for a value", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException("Failed to get a value", cause);
+		}
+	}
+
+}
@@ -0,0 +1,34 @@
+package yms.tinyvelocity.concurrent;
+
+import yms.tinyvelocity.RenderBufferPool;
+import yms.tinyvelocity.RenderBuffers;
+
+/**
+ * Keeps one set of {@link RenderBuffers} per thread, reused by the
+ * consecutive renders of the thread. A render that starts while the buffers
+ * of its thread are in use gets new buffers.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public class ThreadLocalBufferPool implements RenderBufferPool {
+	/** the free buffers of the thread, null while they are in use */
+	private final ThreadLocal<RenderBuffers> free = new ThreadLocal<RenderBuffers>();
+
+	@Override
+	public RenderBuffers acquire() {
+		RenderBuffers buffers = free.get();
+		if (buffers == null) {
+			return new RenderBuffers();
+		}
+		free.set(null);
+		return buffers;
+	}
+
+	@Override
+	public void release(RenderBuffers buffers) {
+		buffers.clear();
+		free.set(buffers);
+	}
+
+}
@@ -0,0 +1,62 @@
+package yms.tinyvelocity.format;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
+import java.util.Date;
+
+import yms.tinyvelocity.FormatterRegistry;
+import yms.tinyvelocity.ValueFormatter;
+
+/**
+ * Formats dates and times with a {@link DateTimeFormatter}, straight into
+ * the output.
+ * 
+ * java.util.Date values are formatted as instants, so the formatter needs a
+ * zone (see {@link DateTimeFormatter#withZone(java.time.ZoneId)}) to format
+ * them with fields like the year or the hour.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public class TemporalFormatter implements ValueFormatter {
+	private final DateTimeFormatter formatter;
+
+	public TemporalFormatter(DateTimeFormatter formatter) {
+		this.formatter = formatter;
+	}
+
+	@Override
+	public void format(Object value, Appendable out) throws IOException {
+		// java.sql.Date does not support toInstant
+		TemporalAccessor temporal = value instanceof Date ? Instant
+				.ofEpochMilli(((Date) value).getTime())
+				: (TemporalAccessor) value;
+		formatter.formatTo(temporal, out);
+	}
+
+	/**
+	 * Register this formatter for Date (and its subclasses), Instant and the
+	 * java.time date and time classes.
+	 * 
+	 * @param registry
+	 * @return the registry
+	 */
+	public FormatterRegistry registerWith(FormatterRegistry registry) {
+		registry.register(Date.class, this);
+		registry.register(Instant.class, this);
+		registry.register(LocalDate.class, this);
+		registry.register(LocalDateTime.class, this);
+		registry.register(LocalTime.class, this);
+		registry.register(OffsetDateTime.class, this);
+		registry.register(ZonedDateTime.class, this);
+		return registry;
+	}
+
+}
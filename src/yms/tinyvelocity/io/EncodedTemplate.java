@@ -0,0 +1,326 @@
+package yms.tinyvelocity.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import yms.tinyvelocity.CompiledTemplate;
+import yms.tinyvelocity.TemplateVisitor;
+import yms.tinyvelocity.ValuesProvider;
+
+/**
+ * Renders a compiled template to bytes.
+ * 
+ * The static texts of the template are encoded once, when the encoded
+ * template is created, and are written as shared byte chunks on every
+ * render; only the values of the references are encoded per render. The
+ * static texts are recognized by identity: the template writes the same
+ * string instances it reports to {@link TemplateVisitor#visitText(String)}.
+ * 
+ * Like the compiled template, an encoded template is immutable and can be
+ * rendered by many threads at the same time.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public class EncodedTemplate {
+	/** size of the buffers the dynamic values are encoded into */
+	private static final int CHUNK_SIZE = 8 * 1024;
+	/** maximal number of buffers passed to a single gathering write */
+	private static final int MAX_GATHER = 1024;
+
+	private final CompiledTemplate template;
+	private final Charset charset;
+	/** the static texts of the template and their encoded bytes */
+	private final IdentityHashMap<String, byte[]> statics = new IdentityHashMap<String, byte[]>();
+
+	public EncodedTemplate(CompiledTemplate template, Charset charset) {
+		this.template = template;
+		this.charset = charset;
+		template.accept(new TemplateVisitor() {
+			@Override
+			public void visitText(String text) {
+				if (!statics.containsKey(text)) {
+					statics.put(text,
+							text.getBytes(EncodedTemplate.this.charset));
+				}
+			}
+		});
+	}
+
+	public CompiledTemplate getTemplate() {
+		return template;
+	}
+
+	public Charset getCharset() {
+		return charset;
+	}
+
+	/**
+	 * Render the template into out. out is not flushed.
+	 * 
+	 * @param valuesProvider
+	 * @param out
+	 * @throws IOException
+	 *             - if out throws it
+	 */
+	public void render(ValuesProvider valuesProvider, final OutputStream out)
+			throws IOException {
+		ByteSink sink = new ByteSink() {
+			private final byte[] buffer = new byte[CHUNK_SIZE];
+			private int count = 0;
+
+			@Override
+			void writeStatic(byte[] bytes) throws IOException {
+				if (bytes.length > buffer.length - count) {
+					flush();
+					if (bytes.length >= buffer.length) {
+						out.write(bytes);
+						return;
+					}
+				}
+				System.arraycopy(bytes, 0, buffer, count, bytes.length);
+				count += bytes.length;
+			}
+
+			@Override
+			ByteBuffer dynamicBuffer(int minRemaining) throws IOException {
+				flush();
+				return ByteBuffer
+						.wrap(minRemaining > buffer.length ? new byte[minRemaining]
+								: buffer);
+			}
+
+			@Override
+			void dynamicWritten(ByteBuffer written) throws IOException {
+				if (written.array() == buffer) {
+					count = written.position();
+				} else {
+					out.write(written.array(), 0, written.position());
+				}
+			}
+
+			@Override
+			ByteBuffer currentDynamicBuffer() {
+				ByteBuffer current = ByteBuffer.wrap(buffer);
+				current.position(count);
+				return current;
+			}
+
+			@Override
+			void finish() throws IOException {
+				flush();
+			}
+
+			private void flush() throws IOException {
+				if (count > 0) {
+					out.write(buffer, 0, count);
+					count = 0;
+				}
+			}
+		};
+		render(valuesProvider, sink);
+	}
+
+	/**
+	 * Render the template into a list of buffers: the static texts are
+	 * read-only views of the shared encoded texts, the values are encoded
+	 * into new buffers. The buffers are ready to be written (position 0).
+	 * 
+	 * @param valuesProvider
+	 * @return
+	 */
+	public List<ByteBuffer> renderBuffers(ValuesProvider valuesProvider) {
+		final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+		ByteSink sink = new ByteSink() {
+			/** the buffer the values are encoded into */
+			private ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+			/** where the values that were not sliced yet start in chunk */
+			private int start = 0;
+
+			@Override
+			void writeStatic(byte[] bytes) {
+				sliceDynamic();
+				buffers.add(ByteBuffer.wrap(bytes).asReadOnlyBuffer());
+			}
+
+			@Override
+			ByteBuffer currentDynamicBuffer() {
+				return chunk;
+			}
+
+			@Override
+			ByteBuffer dynamicBuffer(int minRemaining) {
+				sliceDynamic();
+				chunk = ByteBuffer.allocate(Math.max(CHUNK_SIZE, minRemaining));
+				start = 0;
+				return chunk;
+			}
+
+			@Override
+			void dynamicWritten(ByteBuffer written) {
+				// written is chunk, the bytes are sliced when needed
+			}
+
+			@Override
+			void finish() {
+				sliceDynamic();
+			}
+
+			/**
+			 * Add the values encoded since the last slice to the buffers.
+			 */
+			private void sliceDynamic() {
+				if (chunk.position() > start) {
+					ByteBuffer slice = chunk.duplicate();
+					slice.position(start);
+					slice.limit(chunk.position());
+					buffers.add(slice.slice());
+					start = chunk.position();
+				}
+			}
+		};
+		try {
+			render(valuesProvider, sink);
+		} catch (IOException e) {
+			// the sink does not throw IOException
+			throw new IllegalStateException(e);
+		}
+		return buffers;
+	}
+
+	/**
+	 * Render the template into the channel. With a
+	 * {@link GatheringByteChannel} the static texts are written straight
+	 * from the shared encoded texts, without copying.
+	 * 
+	 * @param valuesProvider
+	 * @param channel
+	 * @return the number of bytes written
+	 * @throws IOException
+	 *             - if the channel throws it
+	 */
+	public long render(ValuesProvider valuesProvider,
+			WritableByteChannel channel) throws IOException {
+		List<ByteBuffer> buffers = renderBuffers(valuesProvider);
+		long written = 0;
+		if (channel instanceof GatheringByteChannel) {
+			GatheringByteChannel gathering = (GatheringByteChannel) channel;
+			ByteBuffer[] array = buffers.toArray(new ByteBuffer[buffers.size()]);
+			for (int from = 0; from < array.length;) {
+				int length = Math.min(MAX_GATHER, array.length - from);
+				written += gathering.write(array, from, length);
+				while (from < array.length && !array[from].hasRemaining()) {
+					from++;
+				}
+			}
+		} else {
+			for (ByteBuffer buffer : buffers) {
+				while (buffer.hasRemaining()) {
+					written += channel.write(buffer);
+				}
+			}
+		}
+		return written;
+	}
+
+	private void render(ValuesProvider valuesProvider, ByteSink sink)
+			throws IOException {
+		sink.encoder = charset.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		template.render(valuesProvider, sink);
+		sink.finish();
+	}
+
+	/**
+	 * The appendable the template is rendered into. Static texts are written
+	 * as their encoded bytes, anything else is encoded.
+	 */
+	private abstract class ByteSink implements Appendable {
+		CharsetEncoder encoder;
+
+		abstract void writeStatic(byte[] bytes) throws IOException;
+
+		/**
+		 * @return the buffer to encode values into, positioned after the last
+		 *         encoded value
+		 */
+		abstract ByteBuffer currentDynamicBuffer();
+
+		/**
+		 * @return an empty buffer with at least minRemaining bytes, to
+		 *         encode values into when the current one is full
+		 */
+		abstract ByteBuffer dynamicBuffer(int minRemaining) throws IOException;
+
+		/**
+		 * Values were encoded into the buffer, up to its position.
+		 */
+		abstract void dynamicWritten(ByteBuffer written) throws IOException;
+
+		abstract void finish() throws IOException;
+
+		@Override
+		public Appendable append(CharSequence csq) throws IOException {
+			if (csq == null) {
+				csq = "null";
+			}
+			byte[] bytes = statics.get(csq);
+			if (bytes != null) {
+				writeStatic(bytes);
+			} else {
+				encode(csq);
+			}
+			return this;
+		}
+
+		@Override
+		public Appendable append(CharSequence csq, int start, int end)
+				throws IOException {
+			encode((csq == null ? "null" : csq).subSequence(start, end));
+			return this;
+		}
+
+		@Override
+		public Appendable append(char c) throws IOException {
+			encode(String.valueOf(c));
+			return this;
+		}
+
+		private void encode(CharSequence csq) throws IOException {
+			if (csq.length() == 0) {
+				return;
+			}
+			CharBuffer in = CharBuffer.wrap(csq);
+			ByteBuffer out = currentDynamicBuffer();
+			encoder.reset();
+			CoderResult result = encoder.encode(in, out, true);
+			while (result.isOverflow()) {
+				dynamicWritten(out);
+				out = dynamicBuffer((int) Math.ceil(in.remaining()
+						* encoder.maxBytesPerChar()) + 16);
+				result = encoder.encode(in, out, true);
+			}
+			result = encoder.flush(out);
+			if (result.isOverflow()) {
+				dynamicWritten(out);
+				out = dynamicBuffer(16);
+				encoder.flush(out);
+			}
+			dynamicWritten(out);
+		}
+
+	}
+
+}
@@ -0,0 +1,46 @@
+package yms.tinyvelocity.io;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+
+import yms.tinyvelocity.TinyVelocityEngine;
+import yms.tinyvelocity.ValuesProvider;
+
+/**
+ * Renders templates read from a channel (a file channel, a socket...) while
+ * they are decoded, see
+ * {@link TinyVelocityEngine#parse(java.io.Reader, ValuesProvider, Appendable)}
+ * .
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public class TemplateChannels {
+
+	private TemplateChannels() {
+	}
+
+	/**
+	 * Parse the template read from the channel and write the output into
+	 * out. The channel is not closed.
+	 * 
+	 * @param engine
+	 * @param template
+	 * @param charset
+	 *            - the encoding of the template
+	 * @param valuesProvider
+	 * @param out
+	 * @throws IOException
+	 *             - if the channel or out throw it, or the template is not
+	 *             encoded with charset
+	 */
+	public static void parse(TinyVelocityEngine engine,
+			ReadableByteChannel template, Charset charset,
+			ValuesProvider valuesProvider, Appendable out) throws IOException {
+		engine.parse(Channels.newReader(template, charset.newDecoder(), -1),
+				valuesProvider, out);
+	}
+
+}
@@ -0,0 +1,96 @@
+package yms.tinyvelocity.loader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Loads templates from class path resources under a prefix. Resources in
+ * jars never change, resources in class directories report the
+ * modification time and the size of their file as their version.
+ * 
+ * Names that start with '/' or have a '..' segment are not found, so only
+ * the resources under the prefix can be loaded.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public class ClasspathTemplateLoader implements TemplateLoader {
+	/** the version of the resources in jars */
+	private static final TemplateVersion UNCHANGING = new TemplateVersion(0, 0);
+
+	private final ClassLoader classLoader;
+	private final String prefix;
+	private final Charset charset;
+
+	/**
+	 * @param classLoader
+	 * @param prefix
+	 *            - the resources path of the templates, for example
+	 *            "templates/"
+	 */
+	public ClasspathTemplateLoader(ClassLoader classLoader, String prefix) {
+		this(classLoader, prefix, StandardCharsets.UTF_8);
+	}
+
+	public ClasspathTemplateLoader(ClassLoader classLoader, String prefix,
+			Charset charset) {
+		this.classLoader = classLoader;
+		this.prefix = prefix;
+		this.charset = charset;
+	}
+
+	@Override
+	public String load(String name) throws IOException {
+		URL url = getResource(name);
+		if (url == null) {
+			return null;
+		}
+		InputStream in = url.openStream();
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				bytes.write(buffer, 0, read);
+			}
+			return new String(bytes.toByteArray(), charset);
+		} finally {
+			in.close();
+		}
+	}
+
+	@Override
+	public TemplateVersion getVersion(String name) throws IOException {
+		URL url = getResource(name);
+		if (url == null) {
+			return NOT_FOUND;
+		}
+		if (!"file".equals(url.getProtocol())) {
+			return UNCHANGING;
+		}
+		try {
+			File file = new File(url.toURI());
+			return new TemplateVersion(file.lastModified(), file.length());
+		} catch (URISyntaxException e) {
+			return UNCHANGING;
+		}
+	}
+
+	/**
+	 * @return the resource of the template, or null if it is not found or
+	 *         the name points outside of the prefix
+	 */
+	private URL getResource(String name) {
+		if (!TemplateNames.isSafe(name)) {
+			return null;
+		}
+		return classLoader.getResource(prefix + name);
+	}
+
+}
@@ -0,0 +1,116 @@
+package yms.tinyvelocity.loader;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Loads templates from the files under a root directory, the template name
+ * is the path of the file relative to the root (with '/' separators). Names
+ * that point outside of the root are not found.
+ * 
+ * Files larger than {@link #MAP_THRESHOLD} bytes are memory mapped and
+ * decoded straight from the mapping, smaller ones are read in one call.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public class FileTemplateLoader implements TemplateLoader {
+	/** files of at least that many bytes are memory mapped */
+	public static final long MAP_THRESHOLD = 64 * 1024;
+
+	private final Path root;
+	private final Charset charset;
+
+	public FileTemplateLoader(Path root) {
+		this(root, StandardCharsets.UTF_8);
+	}
+
+	public FileTemplateLoader(Path root, Charset charset) {
+		this.root = root.toAbsolutePath().normalize();
+		this.charset = charset;
+	}
+
+	public Path getRoot() {
+		return root;
+	}
+
+	@Override
+	public String load(String name) throws IOException {
+		Path path = resolve(name);
+		if (path == null) {
+			return null;
+		}
+		try {
+			FileChannel channel = FileChannel.open(path,
+					StandardOpenOption.READ);
+			try {
+				long size = channel.size();
+				if (size < MAP_THRESHOLD) {
+					return new String(Files.readAllBytes(path), charset);
+				}
+				MappedByteBuffer buffer = channel.map(
+						FileChannel.MapMode.READ_ONLY, 0, size);
+				return charset.newDecoder()
+						.onMalformedInput(CodingErrorAction.REPLACE)
+						.onUnmappableCharacter(CodingErrorAction.REPLACE)
+						.decode(buffer).toString();
+			} finally {
+				channel.close();
+			}
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public TemplateVersion getVersion(String name) throws IOException {
+		Path path = resolve(name);
+		if (path == null) {
+			return NOT_FOUND;
+		}
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(path,
+					BasicFileAttributes.class);
+			if (!attributes.isRegularFile()) {
+				return NOT_FOUND;
+			}
+			return new TemplateVersion(attributes.lastModifiedTime()
+					.toMillis(), attributes.size());
+		} catch (NoSuchFileException e) {
+			return NOT_FOUND;
+		}
+	}
+
+	/**
+	 * @return the template name of a file under the root
+	 */
+	String getName(Path file) {
+		return root.relativize(file.toAbsolutePath().normalize()).toString()
+				.replace(file.getFileSystem().getSeparator(), "/");
+	}
+
+	/**
+	 * @return the file of the template or null if the name is outside of the
+	 *         root
+	 */
+	private Path resolve(String name) {
+		while (name.startsWith("/")) {
+			name = name.substring(1);
+		}
+		if (!TemplateNames.isSafe(name)) {
+			return null;
+		}
+		Path path = root.resolve(name).normalize();
+		return path.startsWith(root) ? path : null;
+	}
+
+}
@@ -0,0 +1,49 @@
+package yms.tinyvelocity.loader;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds template sources in memory, every {@link #put(String, String)}
+ * creates a new version of the template.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public class MemoryTemplateLoader implements TemplateLoader {
+
+	private static class Source {
+		final String template;
+		final TemplateVersion version;
+
+		Source(String template, TemplateVersion version) {
+			this.template = template;
+			this.version = version;
+		}
+	}
+
+	private final ConcurrentHashMap<String, Source> sources = new ConcurrentHashMap<String, Source>();
+	private final AtomicLong versions = new AtomicLong();
+
+	public void put(String name, String template) {
+		sources.put(name, new Source(template, new TemplateVersion(versions
+				.incrementAndGet(), template.length())));
+	}
+
+	public void remove(String name) {
+		sources.remove(name);
+	}
+
+	@Override
+	public String load(String name) {
+		Source source = sources.get(name);
+		return source == null ? null : source.template;
+	}
+
+	@Override
+	public TemplateVersion getVersion(String name) {
+		Source source = sources.get(name);
+		return source == null ? NOT_FOUND : source.version;
+	}
+
+}
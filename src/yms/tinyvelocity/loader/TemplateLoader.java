@@ -0,0 +1,38 @@
+package yms.tinyvelocity.loader;
+
+import java.io.IOException;
+
+/**
+ * Reads template sources by name, see {@link TemplateRepository}.
+ * Implementations must be thread safe.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public interface TemplateLoader {
+
+	/**
+	 * A version that is returned for templates that do not exist.
+	 */
+	public static final TemplateVersion NOT_FOUND = new TemplateVersion(-1,
+			-1);
+
+	/**
+	 * @param name
+	 * @return the source of the template, or null if it does not exist
+	 * @throws IOException
+	 */
+	public String load(String name) throws IOException;
+
+	/**
+	 * A cheap check for changes: the version of a template changes whenever
+	 * its source changes (for files it is the modification time and the
+	 * size).
+	 * 
+	 * @param name
+	 * @return the current version of the template, or {@link #NOT_FOUND}
+	 * @throws IOException
+	 */
+	public TemplateVersion getVersion(String name) throws IOException;
+
+}
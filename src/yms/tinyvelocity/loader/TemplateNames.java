@@ -0,0 +1,31 @@
+package yms.tinyvelocity.loader;
+
+/**
+ * Checks the names of the templates of the loaders that read them under a
+ * root, so a name can not point outside of it.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+final class TemplateNames {
+
+	private TemplateNames() {
+	}
+
+	/**
+	 * @return false if the name starts with a separator or has a '..'
+	 *         segment
+	 */
+	static boolean isSafe(String name) {
+		if (name.startsWith("/") || name.startsWith("\\")) {
+			return false;
+		}
+		for (String segment : name.split("[/\\\\]")) {
+			if (segment.equals("..")) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
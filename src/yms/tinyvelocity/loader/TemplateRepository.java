@@ -0,0 +1,194 @@
+package yms.tinyvelocity.loader;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import yms.tinyvelocity.CompiledTemplate;
+import yms.tinyvelocity.TinyVelocityEngine;
+import yms.tinyvelocity.ValuesProvider;
+import yms.tinyvelocity.cache.CacheStats;
+import yms.tinyvelocity.cache.TemplateCache;
+
+/**
+ * Loads templates by name with a {@link TemplateLoader} and caches the
+ * compiled templates in a {@link TemplateCache}.
+ * 
+ * A cached template is checked for changes (by its loader version) at most
+ * once every check interval, and right away after
+ * {@link #invalidate(String)} (see {@link TemplateWatcher}). A changed
+ * template is compiled again and replaces the cached one atomically: renders
+ * that already got the previous version finish with it, since compiled
+ * templates are immutable.
+ * 
+ * At most maxEntries templates are kept, when there are more the least
+ * recently used ones are removed and loaded again on their next lookup.
+ * 
+ * Lookups lock only a segment of the cache. Two threads that find the same
+ * template changed at the same time may both compile it.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public class TemplateRepository {
+	public static final long DEFAULT_CHECK_INTERVAL_MILLIS = 2000;
+	public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+	/** the loader version of a cached template and when to check it */
+	private static class Check {
+		final TemplateVersion version;
+		volatile long nextCheck;
+		volatile boolean stale = false;
+
+		Check(TemplateVersion version, long nextCheck) {
+			this.version = version;
+			this.nextCheck = nextCheck;
+		}
+	}
+
+	private final TemplateLoader loader;
+	private final long checkIntervalNanos;
+	private final TemplateCache cache;
+
+	private final ConcurrentHashMap<String, Check> checks = new ConcurrentHashMap<String, Check>();
+
+	public TemplateRepository(TinyVelocityEngine engine, TemplateLoader loader) {
+		this(engine, loader, DEFAULT_CHECK_INTERVAL_MILLIS);
+	}
+
+	public TemplateRepository(TinyVelocityEngine engine,
+			TemplateLoader loader, long checkIntervalMillis) {
+		this(engine, loader, checkIntervalMillis, DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * @param engine
+	 *            - the engine used to compile the templates
+	 * @param loader
+	 * @param checkIntervalMillis
+	 *            - minimal time between two checks for changes of a
+	 *            template, 0 checks on every lookup and a negative interval
+	 *            never checks (use {@link #invalidate(String)})
+	 * @param maxEntries
+	 *            - maximal number of cached templates
+	 */
+	public TemplateRepository(TinyVelocityEngine engine,
+			TemplateLoader loader, long checkIntervalMillis, int maxEntries) {
+		this.cache = new TemplateCache(engine, maxEntries);
+		this.loader = loader;
+		this.checkIntervalNanos = checkIntervalMillis < 0 ? -1
+				: TimeUnit.MILLISECONDS.toNanos(checkIntervalMillis);
+	}
+
+	/**
+	 * Return the compiled template, loading and compiling it if it is not
+	 * cached or has changed.
+	 * 
+	 * @param name
+	 * @return
+	 * @throws FileNotFoundException
+	 *             - if the loader does not find the template
+	 * @throws IOException
+	 *             - if the loader fails
+	 */
+	public CompiledTemplate get(String name) throws IOException {
+		Check check = checks.get(name);
+		long now = System.nanoTime();
+		if (check != null && !check.stale
+				&& (checkIntervalNanos < 0 || now - check.nextCheck < 0)) {
+			CompiledTemplate cached = cache.getIfPresent(name);
+			if (cached != null) {
+				return cached;
+			}
+		}
+
+		// the version is read before the source, a change in between is
+		// found by the next check
+		TemplateVersion version = loader.getVersion(name);
+		if (check != null && !check.stale && version.equals(check.version)) {
+			CompiledTemplate cached = cache.getIfPresent(name);
+			if (cached != null) {
+				check.nextCheck = now + checkIntervalNanos;
+				return cached;
+			}
+		}
+		String source = TemplateLoader.NOT_FOUND.equals(version) ? null
+				: loader.load(name);
+		if (source == null) {
+			checks.remove(name);
+			cache.invalidate(name);
+			throw new FileNotFoundException("Template not found: " + name);
+		}
+		checks.put(name, new Check(version, now + checkIntervalNanos));
+		// compiles only if the source changed or the template was evicted
+		return cache.get(name, source);
+	}
+
+	/**
+	 * Render the template with the given name.
+	 * 
+	 * @param name
+	 * @param valuesProvider
+	 * @return
+	 * @throws IOException
+	 *             - if the template can not be loaded
+	 */
+	public String render(String name, ValuesProvider valuesProvider)
+			throws IOException {
+		return get(name).render(valuesProvider);
+	}
+
+	/**
+	 * Render the template with the given name into out.
+	 * 
+	 * @param name
+	 * @param valuesProvider
+	 * @param out
+	 * @throws IOException
+	 *             - if the template can not be loaded or out throws it
+	 */
+	public void render(String name, ValuesProvider valuesProvider,
+			Appendable out) throws IOException {
+		get(name).render(valuesProvider, out);
+	}
+
+	/**
+	 * Reload the template on its next lookup. Until then the cached version
+	 * is used.
+	 * 
+	 * @param name
+	 */
+	public void invalidate(String name) {
+		Check check = checks.get(name);
+		if (check != null) {
+			check.stale = true;
+		}
+	}
+
+	/**
+	 * Reload every template on its next lookup.
+	 */
+	public void invalidateAll() {
+		for (Check check : checks.values()) {
+			check.stale = true;
+		}
+	}
+
+	/**
+	 * Remove all the templates.
+	 */
+	public void clear() {
+		checks.clear();
+		cache.clear();
+	}
+
+	public int size() {
+		return cache.size();
+	}
+
+	public CacheStats getStats() {
+		return cache.getStats();
+	}
+
+}
@@ -0,0 +1,55 @@
+package yms.tinyvelocity.loader;
+
+/**
+ * The version of a template source, see
+ * {@link TemplateLoader#getVersion(String)}. Two versions are equal only if
+ * both their modification times and their sizes are equal.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public final class TemplateVersion {
+	private final long modified;
+	private final long size;
+
+	/**
+	 * @param modified
+	 *            - the modification time, or a counter that changes with
+	 *            every change of the source
+	 * @param size
+	 *            - the size of the source
+	 */
+	public TemplateVersion(long modified, long size) {
+		this.modified = modified;
+		this.size = size;
+	}
+
+	public long getModified() {
+		return modified;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (modified ^ (modified >>> 32)) * 31
+				+ (int) (size ^ (size >>> 32));
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof TemplateVersion)) {
+			return false;
+		}
+		TemplateVersion other = (TemplateVersion) obj;
+		return modified == other.modified && size == other.size;
+	}
+
+	@Override
+	public String toString() {
+		return "TemplateVersion[modified=" + modified + ", size=" + size + "]";
+	}
+
+}
@@ -0,0 +1,115 @@
+package yms.tinyvelocity.loader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Watches the root directory of a {@link FileTemplateLoader} (and its sub
+ * directories) with a {@link WatchService} and invalidates the changed
+ * templates in a {@link TemplateRepository}, so they are reloaded on their
+ * next lookup. With a watcher the repository can be created with a negative
+ * check interval.
+ * 
+ * The events are handled by a daemon thread that runs until the watcher is
+ * closed.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public class TemplateWatcher implements Closeable {
+	private final FileTemplateLoader loader;
+	private final TemplateRepository repository;
+	private final WatchService watchService;
+	private final Map<WatchKey, Path> directories = new ConcurrentHashMap<WatchKey, Path>();
+	private final Thread thread;
+
+	public TemplateWatcher(FileTemplateLoader loader,
+			TemplateRepository repository) throws IOException {
+		this.loader = loader;
+		this.repository = repository;
+		this.watchService = loader.getRoot().getFileSystem()
+				.newWatchService();
+		registerAll(loader.getRoot());
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				processEvents();
+			}
+		}, "template-watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void registerAll(Path start) throws IOException {
+		Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir,
+					BasicFileAttributes attrs) throws IOException {
+				WatchKey key = dir.register(watchService,
+						StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_DELETE,
+						StandardWatchEventKinds.ENTRY_MODIFY);
+				directories.put(key, dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private void processEvents() {
+		while (true) {
+			WatchKey key;
+			try {
+				key = watchService.take();
+			} catch (InterruptedException e) {
+				return;
+			} catch (ClosedWatchServiceException e) {
+				return;
+			}
+			Path dir = directories.get(key);
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW
+						|| dir == null) {
+					repository.invalidateAll();
+					continue;
+				}
+				Path child = dir.resolve((Path) event.context());
+				if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+						&& Files.isDirectory(child)) {
+					try {
+						registerAll(child);
+					} catch (IOException e) {
+						// the directory is gone or unreadable, its templates
+						// are found by the check interval if at all
+					} catch (ClosedWatchServiceException e) {
+						return;
+					}
+				}
+				repository.invalidate(loader.getName(child));
+			}
+			if (!key.reset()) {
+				directories.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Stop watching.
+	 */
+	@Override
+	public void close() throws IOException {
+		watchService.close();
+	}
+
+}
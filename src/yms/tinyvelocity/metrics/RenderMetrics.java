@@ -0,0 +1,109 @@
+package yms.tinyvelocity.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import yms.tinyvelocity.RenderListener;
+import yms.tinyvelocity.RenderStats;
+
+/**
+ * A {@link RenderListener} that aggregates the metrics in memory, per
+ * template name. Templates compiled without a name are aggregated under
+ * {@link #ANONYMOUS}.
+ * 
+ * <pre>
+ * RenderMetrics metrics = new RenderMetrics();
+ * engine.setRenderListener(metrics);
+ * ...
+ * System.out.println(metrics.report());
+ * </pre>
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public class RenderMetrics implements RenderListener {
+	public static final String ANONYMOUS = "<anonymous>";
+
+	private final ConcurrentMap<String, TemplateMetrics> templates = new ConcurrentHashMap<String, TemplateMetrics>();
+
+	@Override
+	public void renderStarted(RenderStats stats) {
+	}
+
+	@Override
+	public void renderCompleted(RenderStats stats) {
+		getOrCreate(stats.getTemplateName()).record(stats, false);
+	}
+
+	@Override
+	public void renderFailed(RenderStats stats, Throwable error) {
+		getOrCreate(stats.getTemplateName()).record(stats, true);
+	}
+
+	@Override
+	public void templateCacheAccess(String templateName, boolean hit,
+			long compileNanos) {
+		getOrCreate(templateName).recordCacheAccess(hit, compileNanos);
+	}
+
+	/**
+	 * @param name
+	 *            - the template name, null for the anonymous templates
+	 * @return the metrics of the template or null if nothing was recorded
+	 *         for it
+	 */
+	public TemplateMetrics getMetrics(String name) {
+		return templates.get(name == null ? ANONYMOUS : name);
+	}
+
+	/**
+	 * @return the metrics of all the templates, sorted by name
+	 */
+	public List<TemplateMetrics> getAll() {
+		List<String> names = new ArrayList<String>(templates.keySet());
+		Collections.sort(names);
+		List<TemplateMetrics> all = new ArrayList<TemplateMetrics>(
+				names.size());
+		for (String name : names) {
+			all.add(templates.get(name));
+		}
+		return all;
+	}
+
+	/**
+	 * Forget all the recorded metrics.
+	 */
+	public void reset() {
+		templates.clear();
+	}
+
+	/**
+	 * @return one line per template
+	 */
+	public String report() {
+		StringBuilder sb = new StringBuilder();
+		for (TemplateMetrics metrics : getAll()) {
+			sb.append(metrics).append('\n');
+		}
+		return sb.toString();
+	}
+
+	private TemplateMetrics getOrCreate(String name) {
+		if (name == null) {
+			name = ANONYMOUS;
+		}
+		TemplateMetrics metrics = templates.get(name);
+		if (metrics == null) {
+			TemplateMetrics created = new TemplateMetrics(name);
+			metrics = templates.putIfAbsent(name, created);
+			if (metrics == null) {
+				metrics = created;
+			}
+		}
+		return metrics;
+	}
+
+}
@@ -0,0 +1,130 @@
+package yms.tinyvelocity.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import yms.tinyvelocity.RenderStats;
+
+/**
+ * The metrics of one template aggregated by {@link RenderMetrics}. The
+ * counters are updated concurrently by the rendering threads, so two
+ * getters called one after the other may not be consistent with each
+ * other.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public class TemplateMetrics {
+	private final String name;
+	private final LongAdder renders = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder chars = new LongAdder();
+	private final LongAdder propertyLookups = new LongAdder();
+	private final LongAdder loopIterations = new LongAdder();
+	private final LongAdder fragmentHits = new LongAdder();
+	private final LongAdder fragmentMisses = new LongAdder();
+	private final LongAdder cacheHits = new LongAdder();
+	private final LongAdder cacheMisses = new LongAdder();
+	private final LongAdder compileNanos = new LongAdder();
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	TemplateMetrics(String name) {
+		this.name = name;
+	}
+
+	void record(RenderStats stats, boolean failed) {
+		if (failed) {
+			failures.increment();
+		} else {
+			renders.increment();
+		}
+		chars.add(stats.getChars());
+		propertyLookups.add(stats.getPropertyLookups());
+		loopIterations.add(stats.getLoopIterations());
+		fragmentHits.add(stats.getFragmentHits());
+		fragmentMisses.add(stats.getFragmentMisses());
+		latency.record(stats.getDurationNanos());
+	}
+
+	void recordCacheAccess(boolean hit, long nanos) {
+		if (hit) {
+			cacheHits.increment();
+		} else {
+			cacheMisses.increment();
+			compileNanos.add(nanos);
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return number of successful renders
+	 */
+	public long getRenders() {
+		return renders.sum();
+	}
+
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	public long getChars() {
+		return chars.sum();
+	}
+
+	public long getPropertyLookups() {
+		return propertyLookups.sum();
+	}
+
+	public long getLoopIterations() {
+		return loopIterations.sum();
+	}
+
+	/**
+	 * @return number of <b>#cache</b> blocks written from the fragment cache
+	 */
+	public long getFragmentHits() {
+		return fragmentHits.sum();
+	}
+
+	public long getFragmentMisses() {
+		return fragmentMisses.sum();
+	}
+
+	/**
+	 * @return number of template cache lookups that found the template
+	 */
+	public long getCacheHits() {
+		return cacheHits.sum();
+	}
+
+	public long getCacheMisses() {
+		return cacheMisses.sum();
+	}
+
+	public long getCompileNanos() {
+		return compileNanos.sum();
+	}
+
+	/**
+	 * @return the durations of all renders, including the failed ones
+	 */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	@Override
+	public String toString() {
+		return name + ": renders=" + getRenders() + " failures="
+				+ getFailures() + " chars=" + getChars() + " lookups="
+				+ getPropertyLookups() + " iterations="
+				+ getLoopIterations() + " fragmentHits=" + getFragmentHits()
+				+ " fragmentMisses=" + getFragmentMisses() + " cacheHits=" + getCacheHits()
+				+ " cacheMisses=" + getCacheMisses() + " p50="
+				+ latency.getValueAtPercentile(50) + "ns p99="
+				+ latency.getValueAtPercentile(99) + "ns max="
+				+ latency.getMax() + "ns";
+	}
+
+}
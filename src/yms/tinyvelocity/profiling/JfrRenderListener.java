@@ -0,0 +1,58 @@
+package yms.tinyvelocity.profiling;
+
+import yms.tinyvelocity.RenderListener;
+import yms.tinyvelocity.RenderStats;
+
+/**
+ * A {@link RenderListener} that commits a {@link RenderEvent} for every
+ * render, when the event is enabled in the running flight recording. The
+ * event begins when the render starts, so renders shorter than the threshold
+ * of the recording are not committed.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public class JfrRenderListener implements RenderListener {
+
+	@Override
+	public void renderStarted(RenderStats stats) {
+		RenderEvent event = new RenderEvent();
+		if (event.isEnabled()) {
+			event.begin();
+			stats.setAttachment(event);
+		}
+	}
+
+	@Override
+	public void renderCompleted(RenderStats stats) {
+		commit(stats, false);
+	}
+
+	@Override
+	public void renderFailed(RenderStats stats, Throwable error) {
+		commit(stats, true);
+	}
+
+	@Override
+	public void templateCacheAccess(String templateName, boolean hit,
+			long compileNanos) {
+	}
+
+	private void commit(RenderStats stats, boolean failed) {
+		if (!(stats.getAttachment() instanceof RenderEvent)) {
+			// the event was not enabled when the render started
+			return;
+		}
+		RenderEvent event = (RenderEvent) stats.getAttachment();
+		event.end();
+		if (event.shouldCommit()) {
+			event.template = stats.getTemplateName();
+			event.chars = stats.getChars();
+			event.propertyLookups = stats.getPropertyLookups();
+			event.loopIterations = stats.getLoopIterations();
+			event.failed = failed;
+			event.commit();
+		}
+	}
+
+}
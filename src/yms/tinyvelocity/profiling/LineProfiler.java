@@ -0,0 +1,156 @@
+package yms.tinyvelocity.profiling;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import yms.tinyvelocity.ProfilePoint;
+import yms.tinyvelocity.TemplateProfiler;
+
+/**
+ * A {@link TemplateProfiler} that aggregates the time and invocation count
+ * of every profile point in memory, and reports lookups slower than the
+ * threshold of the flight recording as {@link SlowLookupEvent} JFR events.
+ * 
+ * <pre>
+ * LineProfiler profiler = new LineProfiler();
+ * engine.setProfiler(profiler);
+ * CompiledTemplate template = engine.compile(&quot;page&quot;, source);
+ * ... render ...
+ * System.out.println(profiler.report(20));
+ * </pre>
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public class LineProfiler implements TemplateProfiler {
+	private final ConcurrentMap<ProfilePoint, Entry> entries = new ConcurrentHashMap<ProfilePoint, Entry>();
+
+	@Override
+	public Object start(ProfilePoint point) {
+		if (point.getKind() != ProfilePoint.Kind.REFERENCE) {
+			return null;
+		}
+		SlowLookupEvent event = new SlowLookupEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public void record(ProfilePoint point, long totalNanos, long selfNanos,
+			Object token) {
+		Entry entry = entries.get(point);
+		if (entry == null) {
+			Entry created = new Entry(point);
+			entry = entries.putIfAbsent(point, created);
+			if (entry == null) {
+				entry = created;
+			}
+		}
+		entry.count.increment();
+		entry.totalNanos.add(totalNanos);
+		entry.selfNanos.add(selfNanos);
+
+		if (token != null) {
+			SlowLookupEvent event = (SlowLookupEvent) token;
+			event.end();
+			if (event.shouldCommit()) {
+				event.template = point.getTemplateName();
+				event.line = point.getLine();
+				event.path = point.getSource();
+				event.commit();
+			}
+		}
+	}
+
+	/**
+	 * @return the profiled points, the ones with the highest self time first
+	 */
+	public List<Entry> getEntries() {
+		List<Entry> list = new ArrayList<Entry>(entries.values());
+		Collections.sort(list, new Comparator<Entry>() {
+			@Override
+			public int compare(Entry e1, Entry e2) {
+				return Long.compare(e2.getSelfNanos(), e1.getSelfNanos());
+			}
+		});
+		return list;
+	}
+
+	/**
+	 * @param top
+	 *            - maximal number of points to report
+	 * @return a table of the points with the highest self time
+	 */
+	public String report(int top) {
+		List<Entry> list = getEntries();
+		long allSelf = 0;
+		for (Entry entry : list) {
+			allSelf += entry.getSelfNanos();
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%6s %10s %12s %12s  %s%n", "self%", "count",
+				"self(us)", "total(us)", "point"));
+		for (int i = 0; i < list.size() && i < top; i++) {
+			Entry entry = list.get(i);
+			sb.append(String.format("%6.2f %10d %12d %12d  %s%n",
+					allSelf == 0 ? 0.0 : 100.0 * entry.getSelfNanos()
+							/ allSelf, entry.getCount(), entry.getSelfNanos()
+							/ 1000, entry.getTotalNanos() / 1000, entry
+							.getPoint()));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Forget all the recorded timings.
+	 */
+	public void reset() {
+		entries.clear();
+	}
+
+	/**
+	 * The timings of a single profile point.
+	 */
+	public static class Entry {
+		private final ProfilePoint point;
+		private final LongAdder count = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final LongAdder selfNanos = new LongAdder();
+
+		Entry(ProfilePoint point) {
+			this.point = point;
+		}
+
+		public ProfilePoint getPoint() {
+			return point;
+		}
+
+		public long getCount() {
+			return count.sum();
+		}
+
+		/**
+		 * @return the time spent in the point, including the nested points
+		 */
+		public long getTotalNanos() {
+			return totalNanos.sum();
+		}
+
+		/**
+		 * @return the time spent in the point itself
+		 */
+		public long getSelfNanos() {
+			return selfNanos.sum();
+		}
+
+	}
+
+}
@@ -0,0 +1,33 @@
+package yms.tinyvelocity.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A JFR event for a template render, committed by {@link JfrRenderListener}.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+@Name("yms.tinyvelocity.Render")
+@Label("Template Render")
+@Category("Tiny Velocity")
+@Description("A render of a compiled template")
+public class RenderEvent extends jdk.jfr.Event {
+	@Label("Template")
+	String template;
+
+	@Label("Characters")
+	long chars;
+
+	@Label("Property Lookups")
+	long propertyLookups;
+
+	@Label("Loop Iterations")
+	long loopIterations;
+
+	@Label("Failed")
+	boolean failed;
+}
@@ -0,0 +1,32 @@
+package yms.tinyvelocity.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * A JFR event for a variable reference evaluated by a template profiled with
+ * {@link LineProfiler}. Only the references that take longer than the
+ * threshold (1 millisecond by default, set in the recording settings) are
+ * committed.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+@Name("yms.tinyvelocity.SlowLookup")
+@Label("Slow Template Lookup")
+@Category("Tiny Velocity")
+@Description("A template variable reference that was slow to evaluate")
+@Threshold("1 ms")
+public class SlowLookupEvent extends jdk.jfr.Event {
+	@Label("Template")
+	String template;
+
+	@Label("Line")
+	int line;
+
+	@Label("Path")
+	String path;
+}
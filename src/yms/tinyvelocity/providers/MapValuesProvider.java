@@ -0,0 +1,158 @@
+package yms.tinyvelocity.providers;
+
+import java.util.List;
+import java.util.Map;
+
+import yms.tinyvelocity.AccessorValuesProvider;
+import yms.tinyvelocity.PrimitiveFormattingValuesProvider;
+import yms.tinyvelocity.PropertyAccessor;
+
+/**
+ * Provides values from maps, lists and {@link SlotModel}s:
+ * <ul>
+ * <li>the property of a map is the value of the key</li>
+ * <li>the property of a list is the element at the index, for example
+ * <code>${items.0.name}</code></li>
+ * <li>the property of a slot model is the value of its slot, which is
+ * resolved once per template path and schema</li>
+ * </ul>
+ * Any other object has no properties. The root is a map or a slot model.
+ * 
+ * Uses no reflection, so it can be used in GWT client side.
+ * 
+ * Subclasses (other than {@link TreeMapValuesProvider}) do not hand
+ * accessors to the engine, so a subclass that overrides
+ * {@link #getProperty(Object, String)} is always called.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public class MapValuesProvider implements AccessorValuesProvider,
+		PrimitiveFormattingValuesProvider {
+
+	private final Object root;
+
+	public MapValuesProvider(Map<String, ?> root) {
+		this.root = root;
+	}
+
+	public MapValuesProvider(SlotModel root) {
+		this.root = root;
+	}
+
+	@Override
+	public Object getProperty(Object obj, String propName) {
+		if (obj == null) {
+			obj = root;
+		}
+		if (obj instanceof Map<?, ?>) {
+			return ((Map<?, ?>) obj).get(propName);
+		} else if (obj instanceof SlotModel) {
+			return ((SlotModel) obj).get(propName);
+		} else if (obj instanceof List<?>) {
+			return getElement((List<?>) obj, parseIndex(propName));
+		}
+		return null;
+	}
+
+	@Override
+	public PropertyAccessor getAccessor(Class<?> type, final String propName) {
+		if (getClass() != MapValuesProvider.class
+				&& getClass() != TreeMapValuesProvider.class) {
+			// the accessor would bypass an overridden getProperty
+			return null;
+		}
+		if (type == SlotModel.class) {
+			return new SlotAccessor(propName);
+		}
+		// without reflection the kind of the object is checked on every call,
+		// the cache entry is for one class so the check is always the same
+		final int index = parseIndex(propName);
+		return new PropertyAccessor() {
+			@Override
+			public Object get(Object obj) {
+				if (obj instanceof Map<?, ?>) {
+					return ((Map<?, ?>) obj).get(propName);
+				} else if (obj instanceof List<?>) {
+					return getElement((List<?>) obj, index);
+				}
+				return null;
+			}
+		};
+	}
+
+	@Override
+	public String getObjectAsString(Object obj) {
+		return obj == null ? "null" : obj.toString();
+	}
+
+	/**
+	 * Subclasses may format values differently, they override this method to
+	 * let the engine write primitives without calling
+	 * {@link #getObjectAsString(Object)}.
+	 */
+	@Override
+	public boolean isPrimitiveFormatting() {
+		return getClass() == MapValuesProvider.class
+				|| getClass() == TreeMapValuesProvider.class;
+	}
+
+	/**
+	 * @return the index, or -1 if propName is not a non negative int
+	 */
+	private static int parseIndex(String propName) {
+		int length = propName.length();
+		if (length == 0 || length > 9) {
+			return -1;
+		}
+		int index = 0;
+		for (int i = 0; i < length; i++) {
+			char c = propName.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			index = index * 10 + (c - '0');
+		}
+		return index;
+	}
+
+	private static Object getElement(List<?> list, int index) {
+		return index >= 0 && index < list.size() ? list.get(index) : null;
+	}
+
+	/**
+	 * Reads a property of slot models. The slot is resolved for the schema
+	 * of the first model and kept, models of other schemas resolve it again.
+	 */
+	private static class SlotAccessor implements PropertyAccessor {
+		private static class Resolved {
+			final SlotSchema schema;
+			final int slot;
+
+			Resolved(SlotSchema schema, int slot) {
+				this.schema = schema;
+				this.slot = slot;
+			}
+		}
+
+		private final String propName;
+		private volatile Resolved resolved = null;
+
+		SlotAccessor(String propName) {
+			this.propName = propName;
+		}
+
+		@Override
+		public Object get(Object obj) {
+			SlotModel model = (SlotModel) obj;
+			Resolved r = resolved;
+			if (r == null || r.schema != model.getSchema()) {
+				r = new Resolved(model.getSchema(), model.getSchema()
+						.getSlot(propName));
+				resolved = r;
+			}
+			return r.slot < 0 ? null : model.get(r.slot);
+		}
+	}
+
+}
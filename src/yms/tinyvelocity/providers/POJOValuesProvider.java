@@ -1,20 +1,26 @@
 package yms.tinyvelocity.providers;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 
-import yms.tinyvelocity.ValuesProvider;
+import yms.tinyvelocity.AccessorValuesProvider;
+import yms.tinyvelocity.PrimitiveFormattingValuesProvider;
+import yms.tinyvelocity.PropertyAccessor;
 
 /**
  * 
  * Provide values form a POJO to the template engine.
  * 
- * it looks up for properties in Javabean style.
+ * it looks up for properties in Javabean style: a public field, a getter
+ * (getX() or isX()), or a map style get(String)/get(Object) method. The way
+ * each property is read is resolved once per class and cached, so the
+ * provider is cheap to create and to use.
+ * 
+ * Subclasses do not hand accessors to the engine, so a subclass that
+ * overrides {@link #getProperty(Object, String)} is always called.
  * 
  * @author Yotam Madem
  *
  */
-public class POJOValuesProvider implements ValuesProvider{
+public class POJOValuesProvider implements AccessorValuesProvider,
+		PrimitiveFormattingValuesProvider {
 
 	private Object model;
 
@@ -31,55 +37,16 @@ public class POJOValuesProvider implements ValuesProvider{
 	}
 
 	private Object getPOJOProperty(Object pojo, String propName) {
-		try {
-			Field f = pojo.getClass().getField(propName);
-			Object value = f.get(pojo);
-			return value;
-		} catch (SecurityException e) {
-		} catch (NoSuchFieldException e) {
-		} catch (IllegalArgumentException e) {
-		} catch (IllegalAccessException e) {
-		}
-		
-		try {
-			Method getter = pojo.getClass().getMethod("get"+firstLetterUpcase(propName));
-			Object value = getter.invoke(pojo);
-			return value;
-		} catch (SecurityException e) {
-		} catch (NoSuchMethodException e) {
-		} catch (IllegalArgumentException e) {
-		} catch (IllegalAccessException e) {
-		} catch (InvocationTargetException e) {
-		}
-		
-		try {
-			Method getter = pojo.getClass().getMethod("get",String.class);
-			Object value = getter.invoke(pojo,propName);
-			return value;
-		} catch (SecurityException e) {
-		} catch (NoSuchMethodException e) {
-		} catch (IllegalArgumentException e) {
-		} catch (IllegalAccessException e) {
-		} catch (InvocationTargetException e) {
-		}
-		
-		try {
-			Method getter = pojo.getClass().getMethod("get",Object.class);
-			Object value = getter.invoke(pojo,propName);
-			return value;
-		} catch (SecurityException e) {
-		} catch (NoSuchMethodException e) {
-		} catch (IllegalArgumentException e) {
-		} catch (IllegalAccessException e) {
-		} catch (InvocationTargetException e) {
-		}
-
-		
-		return null;
+		return PojoAccessors.getter(pojo.getClass(), propName).get(pojo);
 	}
 
-	private String firstLetterUpcase(String name) {
-		return name.substring(0, 1).toUpperCase()+name.substring(1);
+	@Override
+	public PropertyAccessor getAccessor(Class<?> type, String propName) {
+		if (getClass() != POJOValuesProvider.class) {
+			// the accessor would bypass an overridden getProperty
+			return null;
+		}
+		return PojoAccessors.getter(type, propName);
 	}
 
 	@Override
@@ -87,4 +54,14 @@ public class POJOValuesProvider implements ValuesProvider{
 		return obj == null ? "null" : obj.toString();
 	}
 
+	/**
+	 * Subclasses may format values differently, they override this method to
+	 * let the engine write primitives without calling
+	 * {@link #getObjectAsString(Object)}.
+	 */
+	@Override
+	public boolean isPrimitiveFormatting() {
+		return getClass() == POJOValuesProvider.class;
+	}
+
 }
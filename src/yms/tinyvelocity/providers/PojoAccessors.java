@@ -0,0 +1,243 @@
+package yms.tinyvelocity.providers;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import yms.tinyvelocity.PropertyAccessor;
+
+/**
+ * Resolves and caches the way a property is read from objects of a class.
+ * 
+ * Every class is inspected once, and every (class, property) pair is
+ * resolved once into a {@link Getter} backed by a method handle. Properties
+ * that do not exist are cached too, so a steady state lookup is a hash probe
+ * and a direct call, and no exception is ever used for control flow.
+ * 
+ * The lookup order is the one of {@link POJOValuesProvider}: public field,
+ * getX(), isX() (boolean only), get(String), get(Object). Members that can
+ * not be accessed are skipped when the getter is resolved, an exception
+ * thrown by the member itself is propagated to the render.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+final class PojoAccessors {
+
+	/**
+	 * Reads one property from objects of one class.
+	 */
+	abstract static class Getter implements PropertyAccessor {
+	}
+
+	private static final MethodType GETTER_TYPE = MethodType.methodType(
+			Object.class, Object.class);
+
+	private static final Getter MISSING = new Getter() {
+		@Override
+		public Object get(Object obj) {
+			return null;
+		}
+	};
+
+	private static final ClassValue<ClassAccessors> ACCESSORS = new ClassValue<ClassAccessors>() {
+		@Override
+		protected ClassAccessors computeValue(Class<?> type) {
+			return new ClassAccessors(type);
+		}
+	};
+
+	private PojoAccessors() {
+	}
+
+	/**
+	 * @return the getter of the property, never null (a missing property
+	 *         returns a getter that always returns null).
+	 */
+	static Getter getter(Class<?> type, String propName) {
+		return ACCESSORS.get(type).getter(propName);
+	}
+
+	private static class HandleGetter extends Getter {
+		private final MethodHandle handle;
+
+		HandleGetter(MethodHandle handle) {
+			this.handle = handle.asType(GETTER_TYPE);
+		}
+
+		@Override
+		public Object get(Object obj) {
+			try {
+				return (Object) handle.invokeExact(obj);
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Error e) {
+				throw e;
+			} catch (Throwable e) {
+				// a checked exception thrown by the getter
+				throw new UndeclaredThrowableException(e);
+			}
+		}
+	}
+
+	/**
+	 * The members of one class, indexed once, and the getters resolved so
+	 * far.
+	 */
+	private static class ClassAccessors {
+		private final HashMap<String, Field> fields = new HashMap<String, Field>();
+		private final HashMap<String, Method> noArgMethods = new HashMap<String, Method>();
+		private Method getByString = null;
+		private Method getByObject = null;
+		private final ConcurrentHashMap<String, Getter> getters = new ConcurrentHashMap<String, Getter>();
+
+		ClassAccessors(Class<?> type) {
+			for (Field f : type.getFields()) {
+				fields.put(f.getName(), f);
+			}
+			for (Method m : type.getMethods()) {
+				Class<?>[] params = m.getParameterTypes();
+				if (params.length == 0 && m.getReturnType() != void.class) {
+					noArgMethods.put(m.getName(), m);
+				} else if (params.length == 1 && m.getName().equals("get")) {
+					if (params[0] == String.class) {
+						getByString = m;
+					} else if (params[0] == Object.class) {
+						getByObject = m;
+					}
+				}
+			}
+		}
+
+		Getter getter(String propName) {
+			Getter getter = getters.get(propName);
+			if (getter == null) {
+				getter = resolve(propName);
+				getters.put(propName, getter);
+			}
+			return getter;
+		}
+
+		private Getter resolve(String propName) {
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			Field f = fields.get(propName);
+			if (f != null) {
+				try {
+					MethodHandle h = lookup.unreflectGetter(f);
+					if (Modifier.isStatic(f.getModifiers())) {
+						h = MethodHandles.dropArguments(h, 0, Object.class);
+					}
+					return new HandleGetter(h);
+				} catch (IllegalAccessException e) {
+					// not accessible, try the getters
+				}
+			}
+
+			String cap = propName.length() == 0 ? propName : propName
+					.substring(0, 1).toUpperCase() + propName.substring(1);
+			Getter getter = methodGetter(lookup, noArgMethods.get("get" + cap));
+			if (getter != null) {
+				return getter;
+			}
+			Method is = noArgMethods.get("is" + cap);
+			if (is != null
+					&& (is.getReturnType() == boolean.class || is
+							.getReturnType() == Boolean.class)) {
+				getter = methodGetter(lookup, is);
+				if (getter != null) {
+					return getter;
+				}
+			}
+
+			getter = mapGetter(lookup, getByString, propName, String.class);
+			if (getter != null) {
+				return getter;
+			}
+			getter = mapGetter(lookup, getByObject, propName, Object.class);
+			if (getter != null) {
+				return getter;
+			}
+			return MISSING;
+		}
+
+		private Getter methodGetter(MethodHandles.Lookup lookup, Method m) {
+			MethodHandle h = unreflect(lookup, m);
+			if (h == null) {
+				return null;
+			}
+			if (Modifier.isStatic(m.getModifiers())) {
+				h = MethodHandles.dropArguments(h, 0, Object.class);
+			}
+			return new HandleGetter(h);
+		}
+
+		private Getter mapGetter(MethodHandles.Lookup lookup, Method m,
+				String propName, Class<?> keyType) {
+			MethodHandle h = unreflect(lookup, m);
+			if (h == null || Modifier.isStatic(m.getModifiers())) {
+				return null;
+			}
+			h = h.asType(MethodType.methodType(Object.class, Object.class,
+					keyType));
+			return new HandleGetter(MethodHandles.insertArguments(h, 1,
+					propName));
+		}
+
+		/**
+		 * @return a handle for the method, or for the same method declared by
+		 *         a public super type when the class itself is not public.
+		 */
+		private MethodHandle unreflect(MethodHandles.Lookup lookup, Method m) {
+			if (m == null) {
+				return null;
+			}
+			try {
+				return lookup.unreflect(m);
+			} catch (IllegalAccessException e) {
+				Method pub = findPublicDeclaration(m.getDeclaringClass(),
+						m.getName(), m.getParameterTypes());
+				if (pub != null && pub != m) {
+					try {
+						return lookup.unreflect(pub);
+					} catch (IllegalAccessException e2) {
+						return null;
+					}
+				}
+				return null;
+			}
+		}
+
+		private Method findPublicDeclaration(Class<?> type, String name,
+				Class<?>[] params) {
+			if (type == null) {
+				return null;
+			}
+			if (Modifier.isPublic(type.getModifiers())) {
+				for (Method m : type.getMethods()) {
+					if (m.getName().equals(name)
+							&& Arrays.equals(m.getParameterTypes(),
+									params)
+							&& Modifier.isPublic(m.getDeclaringClass()
+									.getModifiers())) {
+						return m;
+					}
+				}
+			}
+			for (Class<?> i : type.getInterfaces()) {
+				Method m = findPublicDeclaration(i, name, params);
+				if (m != null) {
+					return m;
+				}
+			}
+			return findPublicDeclaration(type.getSuperclass(), name, params);
+		}
+	}
+
+}
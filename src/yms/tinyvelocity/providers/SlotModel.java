@@ -0,0 +1,62 @@
+package yms.tinyvelocity.providers;
+
+/**
+ * A compact model object: the values are kept in an array, indexed by the
+ * slots of its {@link SlotSchema}. {@link MapValuesProvider} resolves a
+ * property name to its slot once per template path and schema, after that
+ * reading a property is an array access.
+ * 
+ * Uses no reflection, so it can be used in GWT client side.
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public final class SlotModel {
+	private final SlotSchema schema;
+	private final Object[] values;
+
+	SlotModel(SlotSchema schema) {
+		this.schema = schema;
+		this.values = new Object[schema.size()];
+	}
+
+	public SlotSchema getSchema() {
+		return schema;
+	}
+
+	/**
+	 * @param name
+	 * @return the value, or null if it was not set or the name is not in the
+	 *         schema
+	 */
+	public Object get(String name) {
+		int slot = schema.getSlot(name);
+		return slot < 0 ? null : values[slot];
+	}
+
+	public Object get(int slot) {
+		return values[slot];
+	}
+
+	/**
+	 * @param name
+	 * @param value
+	 * @return this model
+	 * @throws IllegalArgumentException
+	 *             - if the name is not in the schema
+	 */
+	public SlotModel set(String name, Object value) {
+		int slot = schema.getSlot(name);
+		if (slot < 0) {
+			throw new IllegalArgumentException("Unknown property: " + name);
+		}
+		values[slot] = value;
+		return this;
+	}
+
+	public SlotModel set(int slot, Object value) {
+		values[slot] = value;
+		return this;
+	}
+
+}
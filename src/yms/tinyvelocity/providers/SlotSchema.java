@@ -0,0 +1,64 @@
+package yms.tinyvelocity.providers;
+
+import java.util.HashMap;
+
+/**
+ * The property names of a family of {@link SlotModel}s, each name is
+ * interned to an integer slot. A schema is immutable and is usually created
+ * once per kind of model.
+ * 
+ * <pre>
+ * SlotSchema userSchema = new SlotSchema(&quot;name&quot;, &quot;email&quot;, &quot;admin&quot;);
+ * SlotModel user = userSchema.newModel();
+ * user.set(&quot;name&quot;, &quot;joe&quot;);
+ * </pre>
+ * 
+ * @author Yotam Madem
+ * 
+ */
+public final class SlotSchema {
+	private final String[] names;
+	private final HashMap<String, Integer> slots = new HashMap<String, Integer>();
+
+	/**
+	 * @param names
+	 *            - the property names, the slot of a name is its index
+	 */
+	public SlotSchema(String... names) {
+		this.names = names.clone();
+		for (int i = 0; i < names.length; i++) {
+			if (slots.put(names[i], Integer.valueOf(i)) != null) {
+				throw new IllegalArgumentException("Duplicate property name: "
+						+ names[i]);
+			}
+		}
+	}
+
+	/**
+	 * @param name
+	 * @return the slot of the property or -1 if it is not in the schema
+	 */
+	public int getSlot(String name) {
+		Integer slot = slots.get(name);
+		return slot == null ? -1 : slot.intValue();
+	}
+
+	public String getName(int slot) {
+		return names[slot];
+	}
+
+	/**
+	 * @return number of properties
+	 */
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * @return a model with all the properties null
+	 */
+	public SlotModel newModel() {
+		return new SlotModel(this);
+	}
+
+}
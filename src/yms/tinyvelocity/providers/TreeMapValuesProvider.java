@@ -1,8 +1,6 @@
 package yms.tinyvelocity.providers;
 import java.util.TreeMap;
 
-import yms.tinyvelocity.ValuesProvider;
-
 /**
  * Provides values from treemap.
  * 
@@ -10,30 +8,16 @@ import yms.tinyvelocity.ValuesProvider;
  * it can be used in GWT client side, because GWT does not have reflection but it does have
  * treemap.
  * 
+ * It is kept for compatibility, it is a {@link MapValuesProvider} which
+ * accepts any map, lists and slot models.
+ * 
  * @author Yotam Madem
  *
  */
-public class TreeMapValuesProvider implements ValuesProvider{
-
-	private TreeMap<String, Object> model;
+public class TreeMapValuesProvider extends MapValuesProvider {
 
 	public TreeMapValuesProvider(TreeMap<String, Object> model){
-		this.model = model;
-	}
-	
-	@Override
-	public Object getProperty(Object obj, String propName) {
-		if (obj == null){
-			return model.get(propName);
-		}
-		@SuppressWarnings("unchecked")
-		TreeMap<String, Object> map = (TreeMap<String, Object>) obj;
-		return map.get(propName);
-	}
-
-	@Override
-	public String getObjectAsString(Object obj) {
-		return obj == null ? "null" : obj.toString();
+		super(model);
 	}
 
 }
@@ -0,0 +1,141 @@
+package yms.tinyvelocity.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import yms.tinyvelocity.ParallelExecutor;
+import yms.tinyvelocity.RenderListener;
+import yms.tinyvelocity.RenderStats;
+import yms.tinyvelocity.TinyVelocityEngine;
+import yms.tinyvelocity.compiler.BytecodeEngine;
+import yms.tinyvelocity.compiler.BytecodeTemplateCompiler;
+import yms.tinyvelocity.providers.TreeMapValuesProvider;
+
+/**
+ * Runs all the engine tests with templates compiled to bytecode.
+ */
+public class BytecodeTests extends Tests {
+
+	public BytecodeTests() {
+		engine = new BytecodeEngine();
+	}
+
+	@Test
+	public void testCompilerAvailable(){
+		assertTrue(new BytecodeTemplateCompiler().isAvailable());
+	}
+
+	@Test
+	public void testHugeTemplate(){
+		StringBuilder template = new StringBuilder();
+		StringBuilder expected = new StringBuilder();
+		template.append("#foreach($item in $items)\n");
+		for (int i = 0; i < 2000; i++) {
+			template.append("#if ($flag)\n").append(i).append(":${item}\n").append("#end\n");
+		}
+		template.append("#end\n");
+		TreeMap<String, Object> model = new TreeMap<String, Object>();
+		ArrayList<String> items = new ArrayList<String>();
+		items.add("a");
+		items.add("b");
+		model.put("items", items);
+		model.put("flag", true);
+		for (String item : items) {
+			for (int i = 0; i < 2000; i++) {
+				expected.append(i).append(":").append(item).append("\r\n");
+			}
+		}
+		assertEquals(expected.toString(), engine.parse(template.toString(), new TreeMapValuesProvider(model)));
+	}
+
+	@Test
+	public void testPrimitiveArrays(){
+		TreeMap<String, Object> model = new TreeMap<String, Object>();
+		model.put("ints", new int[]{1, -2});
+		model.put("doubles", new double[]{0.5});
+		model.put("chars", new char[]{'x'});
+		model.put("flags", new boolean[]{true, false});
+		String template = "#foreach($i in $ints)\n${i}\n#end\n#foreach($d in $doubles)\n${d}\n#end\n"
+				+ "#foreach($c in $chars)\n${c}\n#end\n#foreach($f in $flags)\n#if($f)\nyes\n#else\nno\n#end\n#end";
+		assertEquals("1\r\n-2\r\n0.5\r\nx\r\nyes\r\nno\r\n", engine.parse(template, new TreeMapValuesProvider(model)));
+	}
+
+	@Test
+	public void testStatsMatchInterpreter(){
+		String template = "#foreach($row in $rows)\n#foreach($i in $ints)\n${row.name}${i}${title}\n#end\n#end\n${missing}";
+		TreeMap<String, Object> row = new TreeMap<String, Object>();
+		row.put("name", "r");
+		TreeMap<String, Object> model = new TreeMap<String, Object>();
+		model.put("rows", Arrays.asList(row, row));
+		model.put("ints", new int[]{1, 2, 3});
+		model.put("title", "T");
+
+		RenderStats interpreted = lastStats(new TinyVelocityEngine(), template, model);
+		RenderStats compiled = lastStats(new BytecodeEngine(), template, model);
+		assertEquals(8, compiled.getLoopIterations());
+		assertEquals(interpreted.getLoopIterations(), compiled.getLoopIterations());
+		assertEquals(interpreted.getPropertyLookups(), compiled.getPropertyLookups());
+	}
+
+	private static RenderStats lastStats(TinyVelocityEngine engine, String template, TreeMap<String, Object> model) {
+		final RenderStats[] last = new RenderStats[1];
+		engine.setRenderListener(new RenderListener() {
+			@Override
+			public void renderStarted(RenderStats stats) {
+			}
+
+			@Override
+			public void renderCompleted(RenderStats stats) {
+				last[0] = stats;
+			}
+
+			@Override
+			public void renderFailed(RenderStats stats, Throwable error) {
+			}
+
+			@Override
+			public void templateCacheAccess(String name, boolean hit, long compileNanos) {
+			}
+		});
+		engine.parse(template, new TreeMapValuesProvider(model));
+		return last[0];
+	}
+
+	@Test
+	public void testParallelForeachStaysInterpreted(){
+		final int[] invocations = new int[1];
+		TinyVelocityEngine engine = new BytecodeEngine();
+		engine.setParallelThreshold(2);
+		engine.setParallelExecutor(new ParallelExecutor() {
+			@Override
+			public int getParallelism() {
+				return 2;
+			}
+
+			@Override
+			public void invokeAll(Runnable[] tasks) {
+				invocations[0]++;
+				for (Runnable task : tasks) {
+					task.run();
+				}
+			}
+		});
+		TreeMap<String, Object> model = new TreeMap<String, Object>();
+		model.put("rows", new int[]{1, 2, 3, 4});
+		TreeMapValuesProvider provider = new TreeMapValuesProvider(model);
+
+		assertEquals("1\r\n2\r\n3\r\n4\r\n", engine.parse("#foreach($row in $rows) parallel\n${row}\n#end", provider));
+		assertEquals(1, invocations[0]);
+
+		String loop = "#foreach($row in $rows)\n${row}\n#end";
+		assertEquals("1\r\n2\r\n3\r\n4\r\n", engine.parse(loop, provider));
+		assertEquals(1, invocations[0]);
+		engine.setParallelByDefault(true);
+		assertEquals("1\r\n2\r\n3\r\n4\r\n", engine.parse(loop, provider));
+		assertEquals(2, invocations[0]);
+	}
+
+}
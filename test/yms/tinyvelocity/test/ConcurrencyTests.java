@@ -0,0 +1,416 @@
+package yms.tinyvelocity.test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import yms.tinyvelocity.CompiledTemplate;
+import yms.tinyvelocity.TinyVelocityEngine;
+import yms.tinyvelocity.ValuesProvider;
+import yms.tinyvelocity.concurrent.BatchRenderer;
+import yms.tinyvelocity.concurrent.BatchSink;
+import yms.tinyvelocity.concurrent.ForkJoinParallelExecutor;
+import yms.tinyvelocity.concurrent.PrefetchingValuesProvider;
+import yms.tinyvelocity.concurrent.ThreadLocalBufferPool;
+import yms.tinyvelocity.providers.TreeMapValuesProvider;
+
+import junit.framework.TestCase;
+
+public class ConcurrencyTests extends TestCase {
+
+	private static final String LOOP = "#foreach($row in $rows)%s\n" +
+									   "${prefix}${row}:\n" +
+									   "#foreach($i in $small)\n" +
+									   "${i}-${row}\n" +
+									   "#end\n" +
+									   "#end";
+
+	private TreeMap<String, Object> createModel(int rows) {
+		TreeMap<String, Object> model = new TreeMap<String, Object>();
+		ArrayList<Integer> lst = new ArrayList<Integer>();
+		for (int i = 0; i < rows; i++) {
+			lst.add(i);
+		}
+		model.put("rows", lst);
+		model.put("small", new int[]{1, 2});
+		model.put("prefix", "R");
+		return model;
+	}
+
+	@Test
+	public void testParallelForeach(){
+		TinyVelocityEngine sequential = new TinyVelocityEngine();
+		TinyVelocityEngine parallel = new TinyVelocityEngine();
+		parallel.setParallelExecutor(new ForkJoinParallelExecutor());
+		parallel.setParallelThreshold(100);
+		TreeMapValuesProvider provider = new TreeMapValuesProvider(createModel(5000));
+
+		String expected = sequential.parse(String.format(LOOP, ""), provider);
+		assertEquals(expected, parallel.parse(String.format(LOOP, " parallel"), provider));
+		assertEquals(expected, sequential.parse(String.format(LOOP, " parallel"), provider));
+
+		parallel.setParallelByDefault(true);
+		assertEquals(expected, parallel.parse(String.format(LOOP, ""), provider));
+	}
+
+	@Test
+	public void testParallelForeachErrors(){
+		TinyVelocityEngine parallel = new TinyVelocityEngine();
+		parallel.setParallelExecutor(new ForkJoinParallelExecutor());
+		parallel.setParallelThreshold(10);
+		TreeMap<String, Object> model = createModel(100);
+		model.put("small", "not a collection");
+		try {
+			parallel.parse(String.format(LOOP, " parallel"), new TreeMapValuesProvider(model));
+			fail("expected an error");
+		} catch (Error e) {
+			assertTrue(e.getMessage().startsWith("The container"));
+		}
+	}
+
+	private List<ValuesProvider> createProviders(int count) {
+		List<ValuesProvider> providers = new ArrayList<ValuesProvider>();
+		for (int i = 0; i < count; i++) {
+			TreeMap<String, Object> model = new TreeMap<String, Object>();
+			model.put("name", "user" + i);
+			providers.add(new TreeMapValuesProvider(model));
+		}
+		return providers;
+	}
+
+	@Test
+	public void testBatchOrdered() throws InterruptedException{
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			CompiledTemplate template = new TinyVelocityEngine().compile("Dear ${name}");
+			final List<String> results = new ArrayList<String>();
+			new BatchRenderer(template, executor, 8, true).renderAll(createProviders(500), new BatchSink() {
+				@Override
+				public void onResult(long index, String output) {
+					assertEquals(results.size(), index);
+					results.add(output);
+				}
+
+				@Override
+				public void onFailure(long index, Throwable error) {
+					fail(error.toString());
+				}
+			});
+			assertEquals(500, results.size());
+			assertEquals("Dear user499\r\n", results.get(499));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testBatchUnorderedWithFailures() throws InterruptedException{
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			CompiledTemplate template = new TinyVelocityEngine().compile("#foreach($x in $name)\n" +
+																		  "#end");
+			final Set<Long> failed = new HashSet<Long>();
+			new BatchRenderer(template, executor, 3, false).renderAll(createProviders(50).stream(), new BatchSink() {
+				@Override
+				public void onResult(long index, String output) {
+					fail("expected a failure");
+				}
+
+				@Override
+				public void onFailure(long index, Throwable error) {
+					assertTrue(failed.add(index));
+				}
+			});
+			assertEquals(50, failed.size());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testBatchStopsAfterSinkFailure() throws InterruptedException{
+		CompiledTemplate template = new TinyVelocityEngine().compile("Dear ${name}");
+		final Iterator<ValuesProvider> providers = createProviders(100).iterator();
+		final AtomicInteger pulled = new AtomicInteger();
+		Iterator<ValuesProvider> counting = new Iterator<ValuesProvider>() {
+			@Override
+			public boolean hasNext() {
+				return providers.hasNext();
+			}
+
+			@Override
+			public ValuesProvider next() {
+				pulled.incrementAndGet();
+				return providers.next();
+			}
+		};
+		Executor sameThread = new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				command.run();
+			}
+		};
+		try {
+			new BatchRenderer(template, sameThread, 4, true).renderAll(counting, new BatchSink() {
+				@Override
+				public void onResult(long index, String output) {
+					throw new IllegalStateException("sink is full");
+				}
+
+				@Override
+				public void onFailure(long index, Throwable error) {
+				}
+			});
+			fail("expected the sink failure");
+		} catch (IllegalStateException e) {
+			assertEquals("sink is full", e.getMessage());
+		}
+		assertEquals(1, pulled.get());
+	}
+
+	@Test
+	public void testBatchRejectedWaitsForInFlight() throws InterruptedException{
+		final ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			CompiledTemplate template = new TinyVelocityEngine().compile("Dear ${name}");
+			final AtomicInteger submitted = new AtomicInteger();
+			Executor rejecting = new Executor() {
+				@Override
+				public void execute(Runnable command) {
+					if (submitted.incrementAndGet() > 3) {
+						throw new RejectedExecutionException();
+					}
+					pool.execute(command);
+				}
+			};
+			final AtomicInteger delivered = new AtomicInteger();
+			try {
+				new BatchRenderer(template, rejecting, 8, false).renderAll(createProviders(10), new BatchSink() {
+					@Override
+					public void onResult(long index, String output) {
+						try {
+							Thread.sleep(50);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+						delivered.incrementAndGet();
+					}
+
+					@Override
+					public void onFailure(long index, Throwable error) {
+						fail(error.toString());
+					}
+				});
+				fail("expected a rejection");
+			} catch (RejectedExecutionException e) {
+				// expected
+			}
+			assertEquals(3, delivered.get());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testBatchVirtualMachineErrorIsNotDelivered() throws InterruptedException{
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			CompiledTemplate template = new TinyVelocityEngine().compile("Dear ${name}");
+			List<ValuesProvider> providers = createProviders(5);
+			providers.set(2, new TreeMapValuesProvider(new TreeMap<String, Object>()) {
+				@Override
+				public Object getProperty(Object obj, String propName) {
+					throw new OutOfMemoryError("test");
+				}
+			});
+			final AtomicInteger results = new AtomicInteger();
+			try {
+				new BatchRenderer(template, executor, 2, true).renderAll(providers, new BatchSink() {
+					@Override
+					public void onResult(long index, String output) {
+						results.incrementAndGet();
+					}
+
+					@Override
+					public void onFailure(long index, Throwable error) {
+						fail(error.toString());
+					}
+				});
+				fail("expected the error");
+			} catch (OutOfMemoryError e) {
+				assertEquals("test", e.getMessage());
+			}
+			assertTrue(results.get() >= 2);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testSharedTemplateManyThreads() throws Exception{
+		final CompiledTemplate template = new TinyVelocityEngine().compile(String.format(LOOP, ""));
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for (int t = 0; t < 64; t++) {
+				final int rows = t;
+				results.add(executor.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						TreeMapValuesProvider provider = new TreeMapValuesProvider(createModel(rows));
+						String expected = new TinyVelocityEngine().parse(String.format(LOOP, ""), provider);
+						for (int i = 0; i < 20; i++) {
+							if (!expected.equals(template.render(provider))) {
+								return false;
+							}
+						}
+						return true;
+					}
+				}));
+			}
+			for (Future<Boolean> result : results) {
+				assertTrue(result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testNestedRenderOnSameThread(){
+		final CompiledTemplate inner = new TinyVelocityEngine().compile("<${name}>");
+		TreeMap<String, Object> model = new TreeMap<String, Object>();
+		model.put("items", new String[]{"a", "b"});
+		String result = new TinyVelocityEngine().parse("#foreach($i in $items)\n" +
+													   "${i}\n" +
+													   "#end", new TreeMapValuesProvider(model) {
+			@Override
+			public String getObjectAsString(Object obj) {
+				TreeMap<String, Object> innerModel = new TreeMap<String, Object>();
+				innerModel.put("name", obj);
+				return inner.render(new TreeMapValuesProvider(innerModel)).trim();
+			}
+		});
+		assertEquals("<a>\r\n<b>\r\n", result);
+	}
+
+	/**
+	 * A provider whose root lookups take 100ms each.
+	 */
+	private static class SlowProvider extends TreeMapValuesProvider {
+		SlowProvider(TreeMap<String, Object> model) {
+			super(model);
+		}
+
+		@Override
+		public Object getProperty(Object obj, String propName) {
+			if (obj == null) {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return super.getProperty(obj, propName);
+		}
+	}
+
+	@Test
+	public void testPrefetch() throws Exception{
+		TreeMap<String, Object> user = new TreeMap<String, Object>();
+		user.put("name", "joe");
+		TreeMap<String, Object> model = new TreeMap<String, Object>();
+		for (int i = 0; i < 8; i++) {
+			model.put("v" + i, i);
+		}
+		model.put("user", CompletableFuture.completedFuture(user));
+		model.put("items", CompletableFuture.supplyAsync(new java.util.function.Supplier<Object>() {
+			@Override
+			public Object get() {
+				return new String[] { "a", "b" };
+			}
+		}));
+		CompiledTemplate template = new TinyVelocityEngine().compile("${v0} ${v1} ${v2} ${v3} ${v4} ${v5} ${v6} ${v7}\n" +
+													"${user.name} ${missing}\n" +
+													"#foreach($i in $items)\n" +
+													"${i}\n" +
+													"#end");
+		ExecutorService executor = Executors.newFixedThreadPool(16);
+		try {
+			long start = System.nanoTime();
+			PrefetchingValuesProvider provider = new PrefetchingValuesProvider(new SlowProvider(model), executor);
+			String result = provider.render(template).trim();
+			long millis = (System.nanoTime() - start) / 1000000;
+			assertEquals("0 1 2 3 4 5 6 7\r\njoe ${missing}\r\na\r\nb", result);
+			// sequential lookups would take more than a second
+			assertTrue("took " + millis + "ms", millis < 700);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testPrefetchDoesNotWaitForPlainFutures() throws Exception{
+		FutureTask<Object> late = new FutureTask<Object>(new Callable<Object>() {
+			@Override
+			public Object call() {
+				return "late";
+			}
+		});
+		TreeMap<String, Object> user = new TreeMap<String, Object>();
+		user.put("name", "joe");
+		TreeMap<String, Object> model = new TreeMap<String, Object>();
+		model.put("late", late);
+		model.put("user", user);
+		CompiledTemplate template = new TinyVelocityEngine().compile("${late} ${user.name}");
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			PrefetchingValuesProvider provider = new PrefetchingValuesProvider(new TreeMapValuesProvider(model), executor);
+			// the only executor thread is not blocked by the future
+			provider.prefetch(template.getDependencies()).get(5, TimeUnit.SECONDS);
+			assertFalse(late.isDone());
+			new Thread(late).start();
+			assertEquals("late joe\r\n", template.render(provider));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testBufferPool(){
+		final TinyVelocityEngine engine = new TinyVelocityEngine();
+		engine.setBufferPool(new ThreadLocalBufferPool());
+		final CompiledTemplate inner = engine.compile("[${row}]");
+		CompiledTemplate outer = engine.compile("#foreach($row in $rows)\n${row}${nested}\n#end");
+		final TreeMap<String, Object> model = createModel(3);
+		// a provider that renders another template while the outer render runs
+		ValuesProvider provider = new TreeMapValuesProvider(model) {
+			@Override
+			public Object getProperty(Object obj, String propName) {
+				if (propName.equals("nested")) {
+					return inner.render(new TreeMapValuesProvider(model)).trim();
+				}
+				return super.getProperty(obj, propName);
+			}
+		};
+		String expected = "0[${row}]\r\n1[${row}]\r\n2[${row}]\r\n";
+		assertEquals(expected, outer.render(provider));
+		assertEquals(expected, outer.render(provider));
+	}
+
+}
@@ -0,0 +1,78 @@
+package yms.tinyvelocity.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import yms.tinyvelocity.CompiledTemplate;
+import yms.tinyvelocity.TinyVelocityEngine;
+import yms.tinyvelocity.ValuesProvider;
+import yms.tinyvelocity.compiler.BytecodeEngine;
+import yms.tinyvelocity.io.EncodedTemplate;
+
+import junit.framework.TestCase;
+
+public class EncodedTemplateTests extends TestCase {
+
+	private static final String TEMPLATE = "<h1>caf\u00e9 ${title}</h1>\n#foreach ($i in $items)\n<li>${i} \u05e9\u05dc\u05d5\u05dd</li>\n#end\n${missing}";
+
+	private static final String LONG_VALUE = new String(new char[20000]).replace('\0', '\u20ac');
+
+	private final ValuesProvider provider = TestModels.provider("title", "T\u00fcr", "items", Arrays.asList("a", LONG_VALUE, "\ud83d\ude00"));
+
+	private byte[] expected(CompiledTemplate template) {
+		return template.render(provider).getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testOutputStream() throws IOException {
+		for (TinyVelocityEngine engine : new TinyVelocityEngine[] { new TinyVelocityEngine(), new BytecodeEngine() }) {
+			CompiledTemplate template = engine.compile(TEMPLATE);
+			EncodedTemplate encoded = new EncodedTemplate(template, StandardCharsets.UTF_8);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			encoded.render(provider, out);
+			assertTrue(Arrays.equals(expected(template), out.toByteArray()));
+		}
+	}
+
+	@Test
+	public void testStaticBuffersAreShared() throws IOException {
+		CompiledTemplate template = new TinyVelocityEngine().compile(TEMPLATE);
+		EncodedTemplate encoded = new EncodedTemplate(template, StandardCharsets.UTF_8);
+		List<ByteBuffer> first = encoded.renderBuffers(provider);
+		List<ByteBuffer> second = encoded.renderBuffers(provider);
+		assertTrue(first.get(0).isReadOnly());
+		assertEquals(first.size(), second.size());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		long written = encoded.render(provider, Channels.newChannel(out));
+		assertEquals(out.size(), written);
+		assertTrue(Arrays.equals(expected(template), out.toByteArray()));
+	}
+
+	@Test
+	public void testGatheringChannel() throws IOException {
+		CompiledTemplate template = new TinyVelocityEngine().compile(TEMPLATE);
+		EncodedTemplate encoded = new EncodedTemplate(template, StandardCharsets.UTF_8);
+		Path file = Files.createTempFile("encoded", ".html");
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+		try {
+			encoded.render(provider, channel);
+		} finally {
+			channel.close();
+		}
+		assertTrue(Arrays.equals(expected(template), Files.readAllBytes(file)));
+		Files.delete(file);
+	}
+
+}
@@ -0,0 +1,159 @@
+package yms.tinyvelocity.test;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import yms.tinyvelocity.CompiledTemplate;
+import yms.tinyvelocity.Escaping;
+import yms.tinyvelocity.FormatterRegistry;
+import yms.tinyvelocity.TinyVelocityEngine;
+import yms.tinyvelocity.ValueFormatter;
+import yms.tinyvelocity.ValuesProvider;
+import yms.tinyvelocity.compiler.BytecodeEngine;
+import yms.tinyvelocity.format.TemporalFormatter;
+import yms.tinyvelocity.providers.TreeMapValuesProvider;
+
+import junit.framework.TestCase;
+
+public class FormatterTests extends TestCase {
+
+	@Test
+	public void testEscapingDirective(){
+		TinyVelocityEngine engine = new TinyVelocityEngine();
+		CompiledTemplate html = engine.compile("#escape(html)\n<b>${x}</b>");
+		assertEquals(Escaping.HTML, html.getEscaping());
+		assertEquals("<b>a &lt;i&gt; &amp; &quot;q&quot; &#39;s&#39;</b>\r\n", html.render(TestModels.provider("x", "a <i> & \"q\" 's'", "n", 42)));
+
+		CompiledTemplate json = engine.compile("#escape(JSON)\n{\"x\": \"${x}\", \"n\": ${n}}");
+		assertEquals("{\"x\": \"a\\\"b\\\\c\\nd\\u0001\", \"n\": 42}\r\n", json.render(TestModels.provider("x", "a\"b\\c\nd\u0001", "n", 42)));
+		assertEquals("{\"x\": \"\\u003c/script\\u003e\\u003cb\\u003eit\\u0027s\\u0026\", \"n\": 42}\r\n", json.render(TestModels.provider("x", "</script><b>it's&", "n", 42)));
+
+		CompiledTemplate xml = engine.compile("#escape(xml)\n<x a='${x}'/>");
+		assertEquals("<x a='&apos;&lt;&gt;'/>\r\n", xml.render(TestModels.provider("x", "'<\u0000>", "n", 42)));
+		assertEquals("<x a='a\ud83d\ude00b'/>\r\n", xml.render(TestModels.provider("x", "\ud800a\ud83d\ude00b\udc00", "n", 42)));
+		assertEquals("\ud83d\ude00", Escaping.XML.escape("\udc00\ud83d\ude00\ud83d"));
+
+		try {
+			engine.compile("#escape(sql)\n${x}");
+			fail();
+		} catch (Error e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testEngineEscaping(){
+		TinyVelocityEngine engine = new BytecodeEngine();
+		engine.setEscaping(Escaping.HTML);
+		CompiledTemplate template = engine.compile("<p>${x}</p>");
+		assertEquals("<p>&lt;</p>\r\n", template.render(TestModels.provider("x", "<", "n", 42)));
+		assertEquals("<p><</p>\r\n", engine.compile("#escape(none)\n<p>${x}</p>").render(TestModels.provider("x", "<", "n", 42)));
+
+		CompiledTemplate specialized = engine.specialize(null, "${brand}: ${x}", TestModels.provider("brand", "A&B"));
+		assertEquals("A&amp;B: &gt;\r\n", specialized.render(TestModels.provider("x", ">", "n", 42)));
+	}
+
+	@Test
+	public void testFormatters(){
+		TinyVelocityEngine engine = new TinyVelocityEngine();
+		CompiledTemplate template = engine.compile("#escape(html)\n${x} ${n}");
+		FormatterRegistry formatters = FormatterRegistry.withDefaults();
+		engine.setFormatters(formatters);
+		assertEquals("-1234567890123 42\r\n", template.render(TestModels.provider("x", -1234567890123L, "n", 42)));
+		assertEquals("1.5 42\r\n", template.render(TestModels.provider("x", 1.5, "n", 42)));
+		assertEquals("&lt;b&gt; 42\r\n", template.render(TestModels.provider("x", new StringBuilder("<b>"), "n", 42)));
+
+		formatters.register(Integer.class, new ValueFormatter() {
+			@Override
+			public void format(Object value, Appendable out) throws IOException {
+				out.append("#").append(value.toString());
+			}
+		});
+		assertEquals("x #42\r\n", template.render(TestModels.provider("x", "x", "n", 42)));
+
+		new TemporalFormatter(DateTimeFormatter.ofPattern("yyyy-MM-dd").withZone(ZoneOffset.UTC)).registerWith(formatters);
+		assertEquals("2020-02-29 #42\r\n", template.render(TestModels.provider("x", LocalDate.of(2020, 2, 29), "n", 42)));
+		assertEquals("1970-01-02 #42\r\n", template.render(TestModels.provider("x", new java.sql.Date(86400000L), "n", 42)));
+		assertEquals("1970-01-01 #42\r\n", template.render(TestModels.provider("x", new Date(0), "n", 42)));
+
+		engine.setFormatters(null);
+		assertEquals("1.5 42\r\n", template.render(TestModels.provider("x", 1.5, "n", 42)));
+	}
+
+	@Test
+	public void testResolvedFormattersFollowRegistrations(){
+		FormatterRegistry formatters = new FormatterRegistry();
+		assertNull(formatters.getFormatter(42));
+		assertNull(formatters.getFormatter(42));
+		ValueFormatter number = new ValueFormatter() {
+			@Override
+			public void format(Object value, Appendable out) throws IOException {
+				out.append("n");
+			}
+		};
+		formatters.register(Number.class, number);
+		assertSame(number, formatters.getFormatter(42));
+		assertSame(number, formatters.getFormatter(42));
+		formatters.register(Number.class, null);
+		assertNull(formatters.getFormatter(42));
+	}
+
+	@Test
+	public void testUnboxedElementsWithoutFormatter(){
+		final int[] converted = new int[1];
+		TreeMap<String, Object> model = new TreeMap<String, Object>();
+		model.put("ints", new int[] { 1, 2 });
+		model.put("longs", new long[] { 3, 4 });
+		TreeMapValuesProvider provider = new TreeMapValuesProvider(model) {
+			@Override
+			public String getObjectAsString(Object obj) {
+				converted[0]++;
+				return super.getObjectAsString(obj);
+			}
+
+			@Override
+			public boolean isPrimitiveFormatting() {
+				return true;
+			}
+		};
+		TinyVelocityEngine engine = new TinyVelocityEngine();
+		engine.setFormatters(new FormatterRegistry().register(Long.class, new ValueFormatter() {
+			@Override
+			public void format(Object value, Appendable out) throws IOException {
+				out.append("L").append(value.toString());
+			}
+		}));
+		CompiledTemplate template = engine.compile("#foreach($i in $ints)\n${i}\n#end\n#foreach($l in $longs)\n${l}\n#end");
+		assertEquals("1\r\n2\r\nL3\r\nL4\r\n", template.render(provider));
+		assertEquals(0, converted[0]);
+	}
+
+	@Test
+	public void testSpecializeWithFormatters(){
+		TinyVelocityEngine engine = new BytecodeEngine();
+		FormatterRegistry formatters = FormatterRegistry.withDefaults();
+		new TemporalFormatter(DateTimeFormatter.ofPattern("yyyy-MM-dd").withZone(ZoneOffset.UTC)).registerWith(formatters);
+		formatters.register(Integer.class, new ValueFormatter() {
+			@Override
+			public void format(Object value, Appendable out) throws IOException {
+				out.append("<").append(value.toString()).append(">");
+			}
+		});
+		engine.setFormatters(formatters);
+		engine.setEscaping(Escaping.HTML);
+
+		String template = "${x} ${n} ${s}";
+		ValuesProvider provider = TestModels.provider("x", LocalDate.of(2020, 2, 29), "n", 42, "s", "a&b");
+
+		String expected = engine.compile(template).render(provider);
+		assertEquals("2020-02-29 &lt;42&gt; a&amp;b\r\n", expected);
+		assertEquals(expected, engine.specialize(null, template, provider).render(TestModels.provider()));
+	}
+
+}
@@ -0,0 +1,107 @@
+package yms.tinyvelocity.test;
+
+import org.junit.Test;
+
+import yms.tinyvelocity.CompiledTemplate;
+import yms.tinyvelocity.TinyVelocityEngine;
+import yms.tinyvelocity.cache.BoundedFragmentCache;
+import yms.tinyvelocity.cache.CacheStats;
+import yms.tinyvelocity.compiler.BytecodeEngine;
+import yms.tinyvelocity.metrics.RenderMetrics;
+
+import junit.framework.TestCase;
+
+public class FragmentCacheTests extends TestCase {
+
+	private static final String TEMPLATE = "Top\n#cache (nav-${locale}, 60)\nNav ${counter}\n#end\nBottom ${counter}";
+
+	@Test
+	public void testFragmentIsReused(){
+		TinyVelocityEngine engine = new TinyVelocityEngine();
+		BoundedFragmentCache cache = new BoundedFragmentCache(100, 10000);
+		engine.setFragmentCache(cache);
+		RenderMetrics metrics = new RenderMetrics();
+		engine.setRenderListener(metrics);
+		CompiledTemplate template = engine.compile("page", TEMPLATE);
+
+		assertEquals("Top\r\nNav 1\r\nBottom 1\r\n", template.render(TestModels.provider("locale", "en", "counter", 1)));
+		assertEquals("Top\r\nNav 1\r\nBottom 2\r\n", template.render(TestModels.provider("locale", "en", "counter", 2)));
+		assertEquals("Top\r\nNav 3\r\nBottom 3\r\n", template.render(TestModels.provider("locale", "fr", "counter", 3)));
+
+		CacheStats stats = cache.getStats();
+		assertEquals(1, stats.getHitCount());
+		assertEquals(2, stats.getMissCount());
+		assertEquals(2, stats.getSize());
+		assertEquals(1, metrics.getMetrics("page").getFragmentHits());
+		assertEquals(2, metrics.getMetrics("page").getFragmentMisses());
+	}
+
+	@Test
+	public void testKeysArePerTemplateAndEscaping(){
+		TinyVelocityEngine engine = new TinyVelocityEngine();
+		engine.setFragmentCache(new BoundedFragmentCache(100, 10000));
+		CompiledTemplate a = engine.compile("a", "#cache (k)\nA ${counter}\n#end");
+		CompiledTemplate b = engine.compile("b", "#cache (k)\nB ${counter}\n#end");
+		CompiledTemplate html = engine.compile("a", "#escape(html)\n#cache (k)\nA ${locale}\n#end");
+		assertEquals("A 1\r\n", a.render(TestModels.provider("locale", "<en>", "counter", 1)));
+		assertEquals("B 2\r\n", b.render(TestModels.provider("locale", "<en>", "counter", 2)));
+		assertEquals("A &lt;en&gt;\r\n", html.render(TestModels.provider("locale", "<en>", "counter", 3)));
+		assertEquals("A 1\r\n", a.render(TestModels.provider("locale", "<en>", "counter", 4)));
+	}
+
+	@Test
+	public void testWithoutCache(){
+		TinyVelocityEngine engine = new TinyVelocityEngine();
+		CompiledTemplate template = engine.compile(TEMPLATE);
+		assertEquals("Top\r\nNav 1\r\nBottom 1\r\n", template.render(TestModels.provider("locale", "en", "counter", 1)));
+		assertEquals("Top\r\nNav 2\r\nBottom 2\r\n", template.render(TestModels.provider("locale", "en", "counter", 2)));
+	}
+
+	@Test
+	public void testBytecodeEngineFallsBack(){
+		TinyVelocityEngine engine = new BytecodeEngine();
+		engine.setFragmentCache(new BoundedFragmentCache(100, 10000));
+		CompiledTemplate template = engine.compile(TEMPLATE);
+		template.render(TestModels.provider("locale", "en", "counter", 1));
+		assertEquals("Top\r\nNav 1\r\nBottom 2\r\n", template.render(TestModels.provider("locale", "en", "counter", 2)));
+	}
+
+	@Test
+	public void testKeysAndLoops(){
+		TinyVelocityEngine engine = new TinyVelocityEngine();
+		engine.setFragmentCache(new BoundedFragmentCache(100, 10000));
+		String result = engine.parse("#foreach ($i in $items)\n#cache ($i)\n${i}\n#end\n#end\n#cache (\"static\")\nS\n#end", TestModels.provider("items", new String[] { "a", "b", "a" }));
+		assertEquals("a\r\nb\r\na\r\nS\r\n", result);
+	}
+
+	@Test
+	public void testSyntaxErrors(){
+		TinyVelocityEngine engine = new TinyVelocityEngine();
+		for (String bad : new String[] { "#cache\nX\n#end", "#cache ()\nX\n#end", "#cache (k, soon)\nX\n#end", "#cache (k)\nX" }) {
+			try {
+				engine.compile(bad);
+				fail(bad);
+			} catch (Error e) {
+				assertTrue(e.getMessage(), e.getMessage().startsWith("cache syntax") || e.getMessage().startsWith("Parse error"));
+			}
+		}
+	}
+
+	@Test
+	public void testEvictionAndExpiry() throws InterruptedException {
+		BoundedFragmentCache cache = new BoundedFragmentCache(10, 1000);
+		for (int i = 0; i < 11; i++) {
+			cache.put("k" + i, "v", 0);
+		}
+		assertEquals(10, cache.size());
+		assertNull(cache.get("k0"));
+		assertEquals("v", cache.get("k10"));
+		assertEquals(1, cache.getStats().getEvictionCount());
+
+		cache.put("short", "x", 1);
+		Thread.sleep(5);
+		assertNull(cache.get("short"));
+		assertEquals(1, cache.getStats().getExpirationCount());
+	}
+
+}
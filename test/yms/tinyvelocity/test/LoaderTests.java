@@ -0,0 +1,158 @@
+package yms.tinyvelocity.test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+import yms.tinyvelocity.CompiledTemplate;
+import yms.tinyvelocity.TinyVelocityEngine;
+import yms.tinyvelocity.ValuesProvider;
+import yms.tinyvelocity.loader.ClasspathTemplateLoader;
+import yms.tinyvelocity.loader.FileTemplateLoader;
+import yms.tinyvelocity.loader.MemoryTemplateLoader;
+import yms.tinyvelocity.loader.TemplateRepository;
+import yms.tinyvelocity.loader.TemplateVersion;
+import yms.tinyvelocity.loader.TemplateWatcher;
+
+import junit.framework.TestCase;
+
+public class LoaderTests extends TestCase {
+
+	TinyVelocityEngine engine = new TinyVelocityEngine();
+
+	ValuesProvider provider = TestModels.provider("name", "joe");
+
+	@Test
+	public void testMemoryLoaderReload() throws IOException {
+		MemoryTemplateLoader loader = new MemoryTemplateLoader();
+		loader.put("hello", "Hello ${name}");
+		TemplateRepository repository = new TemplateRepository(engine, loader, 0);
+		CompiledTemplate t1 = repository.get("hello");
+		assertSame(t1, repository.get("hello"));
+		assertEquals("hello", t1.getName());
+		assertEquals("Hello joe\r\n", repository.render("hello", provider));
+
+		loader.put("hello", "Bye ${name}");
+		assertEquals("Bye joe\r\n", repository.render("hello", provider));
+		assertEquals("Hello joe\r\n", t1.render(provider));
+
+		loader.remove("hello");
+		try {
+			repository.get("hello");
+			fail();
+		} catch (FileNotFoundException e) {
+			// expected
+		}
+		assertEquals(0, repository.size());
+	}
+
+	@Test
+	public void testCheckInterval() throws IOException {
+		MemoryTemplateLoader loader = new MemoryTemplateLoader();
+		loader.put("t", "A");
+		TemplateRepository repository = new TemplateRepository(engine, loader, -1);
+		CompiledTemplate t1 = repository.get("t");
+		loader.put("t", "B");
+		assertSame(t1, repository.get("t"));
+		repository.invalidate("t");
+		assertEquals("B\r\n", repository.render("t", provider));
+	}
+
+	@Test
+	public void testFileLoader() throws IOException {
+		Path root = Files.createTempDirectory("templates");
+		Files.createDirectories(root.resolve("sub"));
+		Files.write(root.resolve("sub/small.vm"), "Hi ${name}".getBytes(StandardCharsets.UTF_8));
+		StringBuilder big = new StringBuilder();
+		while (big.length() < FileTemplateLoader.MAP_THRESHOLD * 2) {
+			big.append("line \u00e9 ${name}\n");
+		}
+		Files.write(root.resolve("big.vm"), big.toString().getBytes(StandardCharsets.UTF_8));
+
+		FileTemplateLoader loader = new FileTemplateLoader(root);
+		assertEquals(big.toString(), loader.load("big.vm"));
+		assertEquals("Hi ${name}", loader.load("/sub/small.vm"));
+		assertNull(loader.load("missing.vm"));
+		assertNull(loader.load("../" + root.getFileName() + "/big.vm/../../etc/passwd"));
+
+		TemplateRepository repository = new TemplateRepository(engine, loader, 0);
+		assertEquals("Hi joe\r\n", repository.render("sub/small.vm", provider));
+		Files.write(root.resolve("sub/small.vm"), "Hello ${name}".getBytes(StandardCharsets.UTF_8));
+		assertEquals("Hello joe\r\n", repository.render("sub/small.vm", provider));
+	}
+
+	@Test
+	public void testClasspathLoaderStaysUnderPrefix() throws IOException {
+		Path root = Files.createTempDirectory("classes");
+		Files.createDirectories(root.resolve("templates/sub"));
+		Files.write(root.resolve("templates/sub/t.vm"), "Hi ${name}".getBytes(StandardCharsets.UTF_8));
+		Files.write(root.resolve("secret.txt"), "secret".getBytes(StandardCharsets.UTF_8));
+		URLClassLoader classLoader = new URLClassLoader(new URL[] { root.toUri().toURL() }, null);
+		try {
+			ClasspathTemplateLoader loader = new ClasspathTemplateLoader(classLoader, "templates/");
+			assertEquals("Hi ${name}", loader.load("sub/t.vm"));
+			assertNull(loader.load("../secret.txt"));
+			assertNull(loader.load("sub/../../secret.txt"));
+			assertNull(loader.load("/templates/sub/t.vm"));
+			assertEquals(ClasspathTemplateLoader.NOT_FOUND, loader.getVersion("../secret.txt"));
+		} finally {
+			classLoader.close();
+		}
+	}
+
+	@Test
+	public void testVersionsCompareTimeAndSize(){
+		assertEquals(new TemplateVersion(1000, 31), new TemplateVersion(1000, 31));
+		// 1 * 31 + 31 == 2 * 31 + 0
+		assertFalse(new TemplateVersion(1, 31).equals(new TemplateVersion(2, 0)));
+		assertFalse(new TemplateVersion(1000, 31).equals(new TemplateVersion(1000, 32)));
+	}
+
+	@Test
+	public void testRepositoryIsBounded() throws IOException {
+		MemoryTemplateLoader loader = new MemoryTemplateLoader();
+		for (int i = 0; i < 5; i++) {
+			loader.put("t" + i, "T" + i);
+		}
+		TemplateRepository repository = new TemplateRepository(engine, loader, -1, 3);
+		CompiledTemplate t0 = repository.get("t0");
+		CompiledTemplate t1 = repository.get("t1");
+		repository.get("t2");
+		repository.get("t0");
+		repository.get("t3");
+		repository.get("t4");
+		assertEquals(3, repository.size());
+		assertSame(t0, repository.get("t0"));
+		// t1 was the least recently used
+		assertNotSame(t1, repository.get("t1"));
+		assertEquals(3, repository.size());
+	}
+
+	@Test
+	public void testWatcher() throws Exception {
+		Path root = Files.createTempDirectory("templates");
+		Files.write(root.resolve("t.vm"), "A".getBytes(StandardCharsets.UTF_8));
+		FileTemplateLoader loader = new FileTemplateLoader(root);
+		TemplateRepository repository = new TemplateRepository(engine, loader, -1);
+		TemplateWatcher watcher = new TemplateWatcher(loader, repository);
+		try {
+			assertEquals("A\r\n", repository.render("t.vm", provider));
+			Files.write(root.resolve("t.vm"), "BB".getBytes(StandardCharsets.UTF_8));
+			String result = null;
+			for (int i = 0; i < 100 && !"BB\r\n".equals(result); i++) {
+				Thread.sleep(100);
+				result = repository.render("t.vm", provider);
+			}
+			assertEquals("BB\r\n", result);
+		} finally {
+			watcher.close();
+		}
+	}
+
+}
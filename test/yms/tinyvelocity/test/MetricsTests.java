@@ -0,0 +1,96 @@
+package yms.tinyvelocity.test;
+
+import java.util.Arrays;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import yms.tinyvelocity.CompiledTemplate;
+import yms.tinyvelocity.TinyVelocityEngine;
+import yms.tinyvelocity.cache.TemplateCache;
+import yms.tinyvelocity.metrics.LatencyHistogram;
+import yms.tinyvelocity.metrics.RenderMetrics;
+import yms.tinyvelocity.metrics.TemplateMetrics;
+import yms.tinyvelocity.providers.TreeMapValuesProvider;
+
+import junit.framework.TestCase;
+
+public class MetricsTests extends TestCase {
+
+	TinyVelocityEngine engine = new TinyVelocityEngine();
+
+	@Test
+	public void testRenderMetrics(){
+		RenderMetrics metrics = new RenderMetrics();
+		engine.setRenderListener(metrics);
+		CompiledTemplate template = engine.compile("list", "#foreach ($i in $items)\n${i}\n#end\n${title}");
+		TreeMap<String, Object> model = new TreeMap<String, Object>();
+		model.put("items", Arrays.asList("a", "b", "c"));
+		model.put("title", "T");
+		String result = template.render(new TreeMapValuesProvider(model));
+		template.render(new TreeMapValuesProvider(model));
+
+		TemplateMetrics m = metrics.getMetrics("list");
+		assertEquals(2, m.getRenders());
+		assertEquals(0, m.getFailures());
+		assertEquals(2 * result.length(), m.getChars());
+		assertEquals(4, m.getPropertyLookups());
+		assertEquals(6, m.getLoopIterations());
+		assertEquals(2, m.getLatency().getCount());
+		assertNull(metrics.getMetrics(null));
+	}
+
+	@Test
+	public void testFailureIsReported(){
+		RenderMetrics metrics = new RenderMetrics();
+		engine.setRenderListener(metrics);
+		TreeMap<String, Object> model = new TreeMap<String, Object>();
+		model.put("items", "not a list");
+		try {
+			engine.compile("#foreach ($i in $items)\n${i}\n#end").render(new TreeMapValuesProvider(model));
+			fail();
+		} catch (Error e) {
+			// expected
+		}
+		TemplateMetrics m = metrics.getMetrics(null);
+		assertEquals(0, m.getRenders());
+		assertEquals(1, m.getFailures());
+	}
+
+	@Test
+	public void testTemplateCacheAccess(){
+		RenderMetrics metrics = new RenderMetrics();
+		engine.setRenderListener(metrics);
+		TemplateCache cache = new TemplateCache(engine, 10);
+		cache.get("t", "AAA");
+		cache.get("t", "AAA");
+		cache.get("t", "AAA");
+		TemplateMetrics m = metrics.getMetrics("t");
+		assertEquals(2, m.getCacheHits());
+		assertEquals(1, m.getCacheMisses());
+		assertEquals("t", cache.get("t", "AAA").getName());
+	}
+
+	@Test
+	public void testNoListener(){
+		assertNull(engine.getRenderListener());
+		assertEquals("x", engine.parse("x", new TreeMapValuesProvider(new TreeMap<String, Object>())).trim());
+	}
+
+	@Test
+	public void testHistogram(){
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000L);
+		}
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1000000, histogram.getMax());
+		long p50 = histogram.getValueAtPercentile(50);
+		assertTrue(p50 >= 500000 && p50 <= 500000 * 33 / 32);
+		long p99 = histogram.getValueAtPercentile(99);
+		assertTrue(p99 >= 990000 && p99 <= 1000000);
+		assertEquals(1000000, histogram.getValueAtPercentile(100));
+		assertEquals(0, new LatencyHistogram().getValueAtPercentile(50));
+	}
+
+}
@@ -0,0 +1,188 @@
+package yms.tinyvelocity.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Test;
+
+import yms.tinyvelocity.CompiledTemplate;
+import yms.tinyvelocity.ParallelExecutor;
+import yms.tinyvelocity.ProfilePoint;
+import yms.tinyvelocity.TinyVelocityEngine;
+import yms.tinyvelocity.ValuesProvider;
+import yms.tinyvelocity.compiler.BytecodeEngine;
+import yms.tinyvelocity.profiling.JfrRenderListener;
+import yms.tinyvelocity.profiling.LineProfiler;
+import yms.tinyvelocity.providers.TreeMapValuesProvider;
+
+import junit.framework.TestCase;
+
+public class ProfilerTests extends TestCase {
+
+	private static final String TEMPLATE = "Header\n#foreach ($i in $items)\nItem: ${i}\n#end\n#if ($show)\nshown ${title}\n#end";
+
+	private static final ValuesProvider MODEL = TestModels.provider("items", Arrays.asList("a", "b", "c"), "show", Boolean.TRUE, "title", "T");
+
+	private LineProfiler.Entry find(LineProfiler profiler, int line, ProfilePoint.Kind kind) {
+		for (LineProfiler.Entry entry : profiler.getEntries()) {
+			if (entry.getPoint().getLine() == line && entry.getPoint().getKind() == kind) {
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	@Test
+	public void testCountsPerLine(){
+		TinyVelocityEngine engine = new TinyVelocityEngine();
+		LineProfiler profiler = new LineProfiler();
+		engine.setProfiler(profiler);
+		CompiledTemplate template = engine.compile("page", TEMPLATE);
+		engine.setProfiler(null);
+		String expected = new TinyVelocityEngine().parse(TEMPLATE, MODEL);
+		assertEquals(expected, template.render(MODEL));
+		template.render(MODEL);
+
+		assertEquals(2, find(profiler, 1, ProfilePoint.Kind.TEXT).getCount());
+		assertEquals(2, find(profiler, 2, ProfilePoint.Kind.FOREACH).getCount());
+		assertEquals(6, find(profiler, 3, ProfilePoint.Kind.LINE).getCount());
+		assertEquals(2, find(profiler, 5, ProfilePoint.Kind.IF).getCount());
+		LineProfiler.Entry ref = find(profiler, 6, ProfilePoint.Kind.REFERENCE);
+		assertEquals("title", ref.getPoint().getSource());
+		assertEquals("page", ref.getPoint().getTemplateName());
+		assertEquals(2, ref.getCount());
+
+		LineProfiler.Entry loop = find(profiler, 2, ProfilePoint.Kind.FOREACH);
+		assertTrue(loop.getSelfNanos() <= loop.getTotalNanos());
+		assertTrue(profiler.report(5).contains("FOREACH"));
+	}
+
+	@Test
+	public void testParallelLoopSelfTime(){
+		TinyVelocityEngine engine = new TinyVelocityEngine();
+		engine.setParallelThreshold(2);
+		engine.setParallelExecutor(new ParallelExecutor() {
+			@Override
+			public int getParallelism() {
+				return 2;
+			}
+
+			@Override
+			public void invokeAll(Runnable[] tasks) {
+				for (Runnable task : tasks) {
+					task.run();
+				}
+			}
+		});
+		LineProfiler profiler = new LineProfiler();
+		engine.setProfiler(profiler);
+		CompiledTemplate template = engine.compile("#foreach ($i in $items) parallel\nItem: ${i}\n#end");
+		TreeMap<String, Object> model = new TreeMap<String, Object>();
+		model.put("items", Arrays.asList("a", "b", "c", "d"));
+		template.render(new TreeMapValuesProvider(model) {
+			@Override
+			public String getObjectAsString(Object obj) {
+				try {
+					Thread.sleep(5);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return super.getObjectAsString(obj);
+			}
+		});
+
+		// the items are rendered in the chunks, not in the loop itself
+		LineProfiler.Entry loop = find(profiler, 1, ProfilePoint.Kind.FOREACH);
+		assertTrue(loop.getTotalNanos() >= 20000000);
+		assertTrue(loop.getSelfNanos() < loop.getTotalNanos() / 2);
+	}
+
+	@Test
+	public void testUnprofiledTemplatesAreNotRecorded(){
+		TinyVelocityEngine engine = new TinyVelocityEngine();
+		LineProfiler profiler = new LineProfiler();
+		CompiledTemplate template = engine.compile(TEMPLATE);
+		engine.setProfiler(profiler);
+		template.render(MODEL);
+		assertTrue(profiler.getEntries().isEmpty());
+	}
+
+	@Test
+	public void testBytecodeEngineInterpretsProfiledTemplates(){
+		BytecodeEngine engine = new BytecodeEngine();
+		LineProfiler profiler = new LineProfiler();
+		engine.setProfiler(profiler);
+		CompiledTemplate template = engine.compile(TEMPLATE);
+		template.render(MODEL);
+		List<ProfilePoint.Kind> kinds = new ArrayList<ProfilePoint.Kind>();
+		for (LineProfiler.Entry entry : profiler.getEntries()) {
+			kinds.add(entry.getPoint().getKind());
+		}
+		assertTrue(kinds.contains(ProfilePoint.Kind.FOREACH));
+	}
+
+	@Test
+	public void testJfrEventsCoverTheRender() throws IOException{
+		TinyVelocityEngine engine = new TinyVelocityEngine();
+		engine.setRenderListener(new JfrRenderListener());
+		engine.setProfiler(new LineProfiler());
+		CompiledTemplate template = engine.compile("slow", "fast ${fast}\nslow ${slow}");
+		ValuesProvider provider = new ValuesProvider() {
+			@Override
+			public Object getProperty(Object obj, String propName) {
+				if (propName.equals("slow")) {
+					try {
+						Thread.sleep(20);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				return propName;
+			}
+
+			@Override
+			public String getObjectAsString(Object obj) {
+				return obj.toString();
+			}
+		};
+
+		File file = File.createTempFile("render", ".jfr");
+		try {
+			Recording recording = new Recording();
+			recording.enable("yms.tinyvelocity.Render");
+			recording.enable("yms.tinyvelocity.SlowLookup").withThreshold(Duration.ofMillis(10));
+			recording.start();
+			template.render(provider);
+			recording.stop();
+			recording.dump(file.toPath());
+			recording.close();
+
+			List<String> paths = new ArrayList<String>();
+			int renders = 0;
+			for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+				String type = event.getEventType().getName();
+				assertTrue(event.getDuration().toMillis() >= 20);
+				if (type.equals("yms.tinyvelocity.Render")) {
+					renders++;
+					assertEquals("slow", event.getString("template"));
+				} else if (type.equals("yms.tinyvelocity.SlowLookup")) {
+					paths.add(event.getString("path"));
+				}
+			}
+			assertEquals(1, renders);
+			assertEquals(Arrays.asList("slow"), paths);
+		} finally {
+			file.delete();
+		}
+	}
+
+}
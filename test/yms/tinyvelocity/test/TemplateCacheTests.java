@@ -0,0 +1,101 @@
+package yms.tinyvelocity.test;
+
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import yms.tinyvelocity.CompiledTemplate;
+import yms.tinyvelocity.TinyVelocityEngine;
+import yms.tinyvelocity.cache.CacheStats;
+import yms.tinyvelocity.cache.TemplateCache;
+import yms.tinyvelocity.providers.TreeMapValuesProvider;
+
+import junit.framework.TestCase;
+
+public class TemplateCacheTests extends TestCase {
+
+	TinyVelocityEngine engine = new TinyVelocityEngine();
+
+	@Test
+	public void testHitsAndMisses(){
+		TemplateCache cache = new TemplateCache(engine, 10);
+		CompiledTemplate t1 = cache.get("Hi ${name}");
+		CompiledTemplate t2 = cache.get("Hi ${name}");
+		assertSame(t1, t2);
+		CacheStats stats = cache.getStats();
+		assertEquals(1, stats.getHitCount());
+		assertEquals(1, stats.getMissCount());
+		assertEquals(1, stats.getSize());
+
+		TreeMap<String, Object> model = new TreeMap<String, Object>();
+		model.put("name", "joe");
+		assertEquals("Hi joe", cache.parse("greeting", "Hi ${name}", new TreeMapValuesProvider(model)).trim());
+	}
+
+	@Test
+	public void testChangedSourceIsRecompiled(){
+		TemplateCache cache = new TemplateCache(engine, 10);
+		CompiledTemplate t1 = cache.get("t", "AAA");
+		CompiledTemplate t2 = cache.get("t", "BBB");
+		assertNotSame(t1, t2);
+		assertEquals(1, cache.size());
+		assertEquals(2, cache.getStats().getMissCount());
+		assertEquals(3, cache.getStats().getWeight());
+	}
+
+	@Test
+	public void testNamesAndSourcesDoNotCollide(){
+		TemplateCache cache = new TemplateCache(engine, 10);
+		CompiledTemplate named = cache.get("x", "named ${x}");
+		CompiledTemplate anonymous = cache.get("x");
+		assertNotSame(named, anonymous);
+		assertEquals(2, cache.size());
+		assertSame(named, cache.get("x", "named ${x}"));
+		assertSame(anonymous, cache.get("x"));
+		assertEquals(2, cache.getStats().getMissCount());
+
+		cache.invalidate("x");
+		assertEquals(1, cache.size());
+		assertSame(anonymous, cache.get(new String("x")));
+		cache.invalidateTemplate("x");
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getStats().getWeight());
+	}
+
+	@Test
+	public void testLRUEviction(){
+		TemplateCache cache = new TemplateCache(engine, 2);
+		CompiledTemplate a = cache.get("a", "A");
+		cache.get("b", "B");
+		cache.get("a", "A");
+		cache.get("c", "C");
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getStats().getEvictionCount());
+		assertSame(a, cache.get("a", "A"));
+		assertEquals(3, cache.getStats().getMissCount());
+		cache.get("b", "B");
+		assertEquals(4, cache.getStats().getMissCount());
+	}
+
+	@Test
+	public void testLargeCacheStaysBounded(){
+		TemplateCache cache = new TemplateCache(engine, 1000);
+		for (int i = 0; i < 3000; i++) {
+			cache.get("t" + i, "T" + i);
+		}
+		assertEquals(1000, cache.size());
+		assertEquals(2000, cache.getStats().getEvictionCount());
+		assertSame(cache.get("t2999", "T2999"), cache.get("t2999", "T2999"));
+	}
+
+	@Test
+	public void testWeightEviction(){
+		TemplateCache cache = new TemplateCache(engine, 100, 10);
+		cache.get("a", "12345");
+		cache.get("b", "12345");
+		cache.get("c", "12345");
+		assertEquals(2, cache.size());
+		assertEquals(10, cache.getStats().getWeight());
+	}
+
+}
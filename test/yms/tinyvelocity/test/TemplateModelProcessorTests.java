@@ -0,0 +1,100 @@
+package yms.tinyvelocity.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.Test;
+
+import yms.tinyvelocity.AccessorValuesProvider;
+import yms.tinyvelocity.TinyVelocityEngine;
+import yms.tinyvelocity.ValuesProvider;
+
+import junit.framework.TestCase;
+
+public class TemplateModelProcessorTests extends TestCase {
+
+	private static final String ORDER = "package shop;\n" +
+			"import java.util.List;\n" +
+			"@yms.tinyvelocity.TemplateModel\n" +
+			"public class Order {\n" +
+			"	public int id = 7;\n" +
+			"	private final List<Line> lines;\n" +
+			"	public Order(List<Line> lines) { this.lines = lines; }\n" +
+			"	public List<Line> getLines() { return lines; }\n" +
+			"	public boolean isPaid() { return true; }\n" +
+			"	public String getURL() { return \"/orders/\" + id; }\n" +
+			"}\n";
+
+	private static final String LINE = "package shop;\n" +
+			"@yms.tinyvelocity.TemplateModel\n" +
+			"public class Line {\n" +
+			"	private final String product;\n" +
+			"	public Line(String product) { this.product = product; }\n" +
+			"	public String getProduct() { return product; }\n" +
+			"}\n";
+
+	@Test
+	public void testGeneratedProvider() throws Exception {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null) {
+			// running on a JRE
+			return;
+		}
+		Path dir = Files.createTempDirectory("models");
+		Path sources = Files.createDirectories(dir.resolve("shop"));
+		Files.write(sources.resolve("Order.java"), ORDER.getBytes(StandardCharsets.UTF_8));
+		Files.write(sources.resolve("Line.java"), LINE.getBytes(StandardCharsets.UTF_8));
+		Path classes = Files.createDirectories(dir.resolve("classes"));
+		int result = compiler.run(null, null, null, "-d", classes.toString(),
+				"-s", classes.toString(),
+				"-cp", System.getProperty("java.class.path"),
+				"-processor", "yms.tinyvelocity.processor.TemplateModelProcessor",
+				sources.resolve("Order.java").toString(), sources.resolve("Line.java").toString());
+		assertEquals(0, result);
+		assertTrue(Files.exists(classes.resolve("shop/OrderValuesProvider.java")));
+
+		URLClassLoader loader = new URLClassLoader(new URL[] { classes.toUri().toURL() }, getClass().getClassLoader());
+		try {
+			Class<?> lineClass = loader.loadClass("shop.Line");
+			Object lines = Arrays.asList(lineClass.getConstructor(String.class).newInstance("apple"),
+					lineClass.getConstructor(String.class).newInstance("pear"));
+			Object order = loader.loadClass("shop.Order").getConstructor(java.util.List.class).newInstance(lines);
+			ValuesProvider provider = (ValuesProvider) loader.loadClass("shop.OrderValuesProvider")
+					.getConstructors()[0].newInstance(order);
+			assertTrue(provider instanceof AccessorValuesProvider);
+
+			String output = new TinyVelocityEngine().parse("${id} ${URL} ${missing}\n" +
+					"#if ($paid)\n" +
+					"paid\n" +
+					"#end\n" +
+					"#foreach ($line in $lines)\n" +
+					"${line.product}\n" +
+					"#end", provider).trim();
+			assertEquals("7 /orders/7 ${missing}\r\npaid\r\napple\r\npear", output);
+			assertNull(provider.getProperty(lines, "product"));
+		} finally {
+			loader.close();
+			deleteAll(dir.toFile());
+		}
+	}
+
+	private void deleteAll(File file) throws IOException {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deleteAll(child);
+			}
+		}
+		file.delete();
+	}
+
+}
@@ -0,0 +1,28 @@
+package yms.tinyvelocity.test;
+
+import java.util.TreeMap;
+
+import yms.tinyvelocity.providers.TreeMapValuesProvider;
+
+/**
+ * Models shared by the tests.
+ */
+final class TestModels {
+
+	private TestModels() {
+	}
+
+	/**
+	 * @param namesAndValues
+	 *            - the name of each root value followed by the value
+	 * @return a provider of a model with the given root values
+	 */
+	static TreeMapValuesProvider provider(Object... namesAndValues) {
+		TreeMap<String, Object> model = new TreeMap<String, Object>();
+		for (int i = 0; i < namesAndValues.length; i += 2) {
+			model.put((String) namesAndValues[i], namesAndValues[i + 1]);
+		}
+		return new TreeMapValuesProvider(model);
+	}
+
+}
@@ -1,12 +1,35 @@
 package yms.tinyvelocity.test;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
 
 import org.junit.Test;
 
+import yms.tinyvelocity.AccessorValuesProvider;
+import yms.tinyvelocity.BulkValuesProvider;
+import yms.tinyvelocity.CompiledTemplate;
+import yms.tinyvelocity.PropertyAccessor;
+import yms.tinyvelocity.RenderListener;
+import yms.tinyvelocity.RenderStats;
+import yms.tinyvelocity.TemplateDependencies;
 import yms.tinyvelocity.TinyVelocityEngine;
+import yms.tinyvelocity.io.TemplateChannels;
+import yms.tinyvelocity.providers.MapValuesProvider;
 import yms.tinyvelocity.providers.POJOValuesProvider;
+import yms.tinyvelocity.providers.SlotModel;
+import yms.tinyvelocity.providers.SlotSchema;
 import yms.tinyvelocity.providers.TreeMapValuesProvider;
 
 import junit.framework.TestCase;
@@ -20,6 +43,12 @@ public class Tests extends TestCase {
 		public String var2="yyy";
 	}
 
+	public static class BrokenModel{
+		public String getBroken() {
+			throw new IllegalStateException("broken getter");
+		}
+	}
+
 	public static class ModelGetters{
 		private int var = 10;
 		private String var2="yyy";
@@ -35,6 +64,9 @@ public class Tests extends TestCase {
 		public void setVar2(String var2) {
 			this.var2 = var2;
 		}
+		public boolean isActive() {
+			return true;
+		}
 	}
 
 	@Test
@@ -223,5 +255,488 @@ public class Tests extends TestCase {
 		assertEquals("10",result);
 	}
 
+	@Test
+	public void testCompiledTemplate(){
+		CompiledTemplate template = engine.compile("#foreach($item in $items)\n" +
+									  "${prefix}:${item}\n" +
+									  "#end");
+		TreeMap<String, Object> model = new TreeMap<String, Object>();
+		model.put("items", new int[]{1,2});
+		model.put("prefix", "A");
+		assertEquals("A:1\r\nA:2",template.render(new TreeMapValuesProvider(model)).trim());
+		model.put("items", new String[]{"x"});
+		model.put("prefix", "B");
+		assertEquals("B:x",template.render(new TreeMapValuesProvider(model)).trim());
+	}
+
+	@Test
+	public void testUnexpectedEnd(){
+		try {
+			engine.compile("AAA\n#end");
+			fail("expected parse error");
+		} catch (Error e) {
+			assertTrue(e.getMessage().startsWith("Parse error"));
+		}
+	}
+
+	@Test
+	public void testRenderToWriter() throws IOException{
+		TreeMap<String, Object> model = new TreeMap<String, Object>();
+		model.put("items", new int[]{1,2,3});
+		final int[] flushes = new int[1];
+		StringWriter out = new StringWriter(){
+			@Override
+			public void flush() {
+				flushes[0]++;
+			}
+		};
+		engine.compile("#foreach($item in $items)\n" +
+					   "BBB:${item}\n" +
+					   "#end").render(new TreeMapValuesProvider(model), out, 7);
+		assertEquals("BBB:1\r\n" +
+					 "BBB:2\r\n" +
+					 "BBB:3\r\n",out.toString());
+		assertEquals(4, flushes[0]);
+	}
+
+	@Test
+	public void testVarsSpecialCharacters(){
+		TreeMap<String, Object> model = new TreeMap<String, Object>();
+		model.put("price", "$10");
+		model.put("path", "c:\\temp");
+		String result = engine.parse("${price}${path} ${missing} $price ${}", new TreeMapValuesProvider(model)).trim();
+		assertEquals("$10c:\\temp ${missing} $price ${}",result);
+	}
+
+	@Test
+	public void testPOJOBooleanGetterAndMaps(){
+		TreeMap<String, Object> model = new TreeMap<String, Object>();
+		model.put("a", new ModelGetters());
+		model.put("m", Collections.singletonMap("k", "v"));
+		String template = "#if ($a.active)\n" +
+						  "${a.var}:${m.k}:${a.missing}\n" +
+						  "#end";
+		POJOValuesProvider provider = new POJOValuesProvider(model);
+		assertEquals("10:v:${a.missing}",engine.parse(template, provider).trim());
+		assertEquals("10:v:${a.missing}",engine.parse(template, provider).trim());
+	}
+
+	@Test
+	public void testPOJOGetterExceptionIsPropagated(){
+		try {
+			engine.parse("${broken}", new POJOValuesProvider(new BrokenModel()));
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("broken getter", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testPropertyPathInlineCache(){
+		TreeMap<String, Object> model = new TreeMap<String, Object>();
+		model.put("items", new Object[]{new Model(), new ModelGetters(), new Model()});
+		final int[] nestedLookups = new int[1];
+		POJOValuesProvider provider = new POJOValuesProvider(model){
+			@Override
+			public Object getProperty(Object obj, String propName) {
+				if (obj != null) {
+					nestedLookups[0]++;
+				}
+				return super.getProperty(obj, propName);
+			}
+		};
+		String result = engine.parse("#foreach($item in $items)\n" +
+									  "${item.var2}\n" +
+									  "#end", provider).trim();
+		assertEquals("yyy\r\nyyy\r\nyyy",result);
+		// a subclass may override getProperty, so it gets no cached accessors
+		assertEquals(3, nestedLookups[0]);
+		result = engine.parse("#foreach($item in $items)\n" +
+							  "${item.var2}\n" +
+							  "#end", new POJOValuesProvider(model)).trim();
+		assertEquals("yyy\r\nyyy\r\nyyy",result);
+
+		// a provider that hands accessors is asked once per class, the
+		// cached path does not look the property up by name
+		model.put("items", new Object[]{new Model(), new Model(), new Model()});
+		final POJOValuesProvider pojo = new POJOValuesProvider(model);
+		final int[] accessorLookups = new int[1];
+		nestedLookups[0] = 0;
+		AccessorValuesProvider accessors = new AccessorValuesProvider(){
+			@Override
+			public Object getProperty(Object obj, String propName) {
+				if (obj != null) {
+					nestedLookups[0]++;
+				}
+				return pojo.getProperty(obj, propName);
+			}
+
+			@Override
+			public PropertyAccessor getAccessor(Class<?> type, String propName) {
+				accessorLookups[0]++;
+				return pojo.getAccessor(type, propName);
+			}
+
+			@Override
+			public String getObjectAsString(Object obj) {
+				return pojo.getObjectAsString(obj);
+			}
+		};
+		CompiledTemplate template = engine.compile("#foreach($item in $items)\n" +
+												   "${item.var2}\n" +
+												   "#end");
+		for (int i = 0; i < 3; i++) {
+			assertEquals("yyy\r\nyyy\r\nyyy", template.render(accessors).trim());
+		}
+		assertEquals(1, accessorLookups[0]);
+		assertEquals(0, nestedLookups[0]);
+	}
+
+	@Test
+	public void testNestedLoopsShadowing(){
+		TreeMap<String, Object> model = new TreeMap<String, Object>();
+		model.put("a", new String[]{"x", "y"});
+		model.put("b", new int[]{1, 2});
+		String result = engine.parse("#foreach($i in $a)\n" +
+									  "#foreach($i in $b)\n" +
+									  "${i}\n" +
+									  "#end\n" +
+									  "${i}\n" +
+									  "#end", new TreeMapValuesProvider(model)).trim();
+		assertEquals("1\r\n2\r\nx\r\n1\r\n2\r\ny",result);
+	}
+
+	@Test
+	public void testForeachPrimitiveArrays() throws IOException{
+		TreeMap<String, Object> model = new TreeMap<String, Object>();
+		model.put("longs", new long[]{-12, 0, Long.MIN_VALUE});
+		model.put("doubles", new double[]{1.5});
+		model.put("flags", new boolean[]{true, false});
+		String template = "#foreach($l in $longs)\n" +
+						  "${l}\n" +
+						  "#end\n" +
+						  "#foreach($d in $doubles)\n" +
+						  "${d}\n" +
+						  "#end\n" +
+						  "#foreach($f in $flags)\n" +
+						  "#if ($f)\n" +
+						  "${f}\n" +
+						  "#end\n" +
+						  "#end";
+		String expected = "-12\r\n0\r\n-9223372036854775808\r\n1.5\r\ntrue\r\n";
+		assertEquals(expected, engine.parse(template, new TreeMapValuesProvider(model)));
+		StringWriter out = new StringWriter();
+		engine.parse(template, new TreeMapValuesProvider(model), out);
+		assertEquals(expected, out.toString());
+	}
+
+	@Test
+	public void testForeachIterables(){
+		TreeMap<String, Object> model = new TreeMap<String, Object>();
+		final List<String> lst = Arrays.asList("a", "b");
+		model.put("iterable", new Iterable<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				return lst.iterator();
+			}
+		});
+		model.put("iterator", lst.iterator());
+		model.put("stream", lst.stream());
+		String result = engine.parse("#foreach($x in $iterable)\n" +
+									  "${x}\n" +
+									  "#end\n" +
+									  "#foreach($x in $iterator)\n" +
+									  "${x}\n" +
+									  "#end\n" +
+									  "#foreach($x in $stream)\n" +
+									  "${x}\n" +
+									  "#end", new TreeMapValuesProvider(model)).trim();
+		assertEquals("a\r\nb\r\na\r\nb\r\na\r\nb",result);
+	}
+
+	@Test
+	public void testMapValuesProvider(){
+		Map<String, Object> user = new HashMap<String, Object>();
+		user.put("name", "joe");
+		Map<String, Object> model = new HashMap<String, Object>();
+		model.put("users", Arrays.asList(user, Collections.singletonMap("name", "ann")));
+		model.put("title", "Users");
+		CompiledTemplate template = engine.compile("${title}: ${users.0.name} ${users.1.name} ${users.2.name} ${title.x}\n" +
+												   "#foreach($u in $users)\n" +
+												   "${u.name}\n" +
+												   "#end");
+		String result = template.render(new MapValuesProvider(model)).trim();
+		assertEquals("Users: joe ann ${users.2.name} ${title.x}\r\njoe\r\nann", result);
+	}
+
+	@Test
+	public void testSlotModel(){
+		SlotSchema userSchema = new SlotSchema("name", "age");
+		SlotSchema adminSchema = new SlotSchema("level", "name");
+		List<SlotModel> users = new ArrayList<SlotModel>();
+		users.add(userSchema.newModel().set("name", "joe").set("age", 30));
+		users.add(adminSchema.newModel().set("name", "root").set("level", 9));
+		users.add(userSchema.newModel().set("name", "ann"));
+		SlotModel model = new SlotSchema("users").newModel().set("users", users);
+		String result = engine.parse("#foreach($u in $users)\n" +
+									  "${u.name} ${u.age}\n" +
+									  "#end", new MapValuesProvider(model)).trim();
+		assertEquals("joe 30\r\nroot ${u.age}\r\nann ${u.age}", result);
+		try {
+			userSchema.newModel().set("missing", 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testDependencies(){
+		CompiledTemplate template = engine.compile("${title} ${user.name}\n" +
+												   "#if ($user.admin)\n" +
+												   "#foreach($order in $user.orders)\n" +
+												   "${order.id} ${order.customer.name} ${title}\n" +
+												   "#end\n" +
+												   "#end\n" +
+												   "${order.id}");
+		TemplateDependencies dependencies = template.getDependencies();
+		assertEquals(Arrays.asList("title", "user", "order"), new ArrayList<String>(dependencies.getRootVariables()));
+		assertEquals(Arrays.asList("title", "user.name", "user.admin", "user.orders", "order.id"), new ArrayList<String>(dependencies.getRootPaths()));
+		assertEquals(Arrays.asList("order.id", "order.customer.name"), new ArrayList<String>(dependencies.getLoopPaths()));
+		assertSame(dependencies, template.getDependencies());
+	}
+
+	@Test
+	public void testBulkValuesProvider(){
+		Map<String, Object> customer = new HashMap<String, Object>();
+		customer.put("name", "joe");
+		List<Object> orders = new ArrayList<Object>();
+		for (int i = 0; i < 3; i++) {
+			Map<String, Object> order = new HashMap<String, Object>();
+			order.put("id", i);
+			order.put("customer", customer);
+			orders.add(order);
+		}
+		Map<String, Object> model = new HashMap<String, Object>();
+		model.put("title", "Orders");
+		model.put("orders", orders);
+		final List<String> calls = new ArrayList<String>();
+		final MapValuesProvider local = new MapValuesProvider(model);
+		BulkValuesProvider provider = new BulkValuesProvider() {
+			public Object getProperty(Object obj, String propName) {
+				calls.add(propName);
+				return local.getProperty(obj, propName);
+			}
+
+			public String getObjectAsString(Object obj) {
+				return local.getObjectAsString(obj);
+			}
+
+			public Object[] getProperties(Object obj, String[] propNames) {
+				calls.add(Arrays.asList(propNames).toString());
+				Object[] values = new Object[propNames.length];
+				for (int i = 0; i < propNames.length; i++) {
+					values[i] = local.getProperty(obj, propNames[i]);
+				}
+				return values;
+			}
+		};
+		String template = "${title}\n" +
+						  "#foreach($order in $orders)\n" +
+						  "${order.id} ${order.customer.name} ${order.missing} ${order}\n" +
+						  "#end";
+		String result = engine.parse(template, provider);
+		assertEquals(engine.parse(template, local), result);
+		// the missing property falls back to the root variable 'order'
+		assertEquals(Arrays.asList("[title, orders]",
+				"[id, customer, missing]", "name", "order",
+				"[id, customer, missing]", "name", "order",
+				"[id, customer, missing]", "name", "order"), calls);
+	}
+
+	@Test
+	public void testSpecialize(){
+		Map<String, Object> brand = new HashMap<String, Object>();
+		brand.put("name", "Acme");
+		Map<String, Object> constants = new HashMap<String, Object>();
+		constants.put("brand", brand);
+		constants.put("beta", false);
+		constants.put("greeting", "Hello");
+		String template = "<h1>${brand.name}</h1>\n" +
+						  "#if ($beta)\n" +
+						  "beta ${user}\n" +
+						  "#else\n" +
+						  "${greeting} ${user}, ${brand.missing}\n" +
+						  "#end\n" +
+						  "#foreach($greeting in $items)\n" +
+						  "${greeting} ${brand.name}\n" +
+						  "#end";
+		CompiledTemplate specialized = engine.specialize(null, template, new MapValuesProvider(constants));
+		TemplateDependencies dependencies = specialized.getDependencies();
+		assertEquals(Arrays.asList("user", "brand", "items"), new ArrayList<String>(dependencies.getRootVariables()));
+
+		Map<String, Object> model = new HashMap<String, Object>(constants);
+		model.put("user", "joe");
+		model.put("items", Arrays.asList("a", "b"));
+		MapValuesProvider provider = new MapValuesProvider(model);
+		String expected = "<h1>Acme</h1>\r\nHello joe, ${brand.missing}\r\na Acme\r\nb Acme\r\n";
+		assertEquals(expected, engine.parse(template, provider));
+		assertEquals(expected, specialized.render(provider));
+	}
+
+	@Test
+	public void testStreamingParse() throws IOException{
+		TreeMap<String, Object> model = new TreeMap<String, Object>();
+		model.put("flag", true);
+		model.put("name", "<joe>");
+		model.put("items", Arrays.asList("a", "b"));
+		TreeMapValuesProvider provider = new TreeMapValuesProvider(model);
+		StringBuilder big = new StringBuilder();
+		for (int i = 0; i < 20000; i++) {
+			big.append("line ").append(i).append(" ${name}\n");
+			if (i % 5000 == 0) {
+				big.append("\n\n#foreach($i in $items)\n${i}\n#end\n");
+			}
+		}
+		String[] templates = {"", "\n", "\n\n", "a", "a\n\n\n", "\n\na\r\nb\r\r\n\n", "#escape(html)\n${name}\n",
+							  "${name}\n#if ($flag)\n#foreach($i in $items)\n\n${i} ${name}\n#end\n#else\nno\n#end\n\n${name}\n\n",
+							  big.toString()};
+		for (String template : templates) {
+			StringBuilder out = new StringBuilder();
+			engine.parse(new StringReader(template), provider, out);
+			// the streaming path is always interpreted
+			assertEquals(new TinyVelocityEngine().parse(template, provider), out.toString());
+		}
+
+		StringBuilder out = new StringBuilder();
+		byte[] bytes = "\u00e9 ${name}\n".getBytes(StandardCharsets.UTF_8);
+		TemplateChannels.parse(engine, Channels.newChannel(new ByteArrayInputStream(bytes)), StandardCharsets.UTF_8, provider, out);
+		assertEquals("\u00e9 <joe>\r\n", out.toString());
+
+		for (String template : new String[] {"#if ($flag)\nx\n", "x\n#end\ny"}) {
+			try {
+				engine.parse(new StringReader(template), provider, new StringBuilder());
+				fail();
+			} catch (Error e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testStreamingParseIsOneRender() throws IOException{
+		final Map<String, Object> model = new HashMap<String, Object>();
+		model.put("title", "T");
+		model.put("items", Arrays.asList("a", "b"));
+		final List<String> fetches = new ArrayList<String>();
+		final MapValuesProvider local = new MapValuesProvider(model);
+		BulkValuesProvider provider = new BulkValuesProvider() {
+			public Object getProperty(Object obj, String propName) {
+				return local.getProperty(obj, propName);
+			}
+
+			public String getObjectAsString(Object obj) {
+				return local.getObjectAsString(obj);
+			}
+
+			public Object[] getProperties(Object obj, String[] propNames) {
+				if (obj == null) {
+					fetches.add(Arrays.asList(propNames).toString());
+				}
+				Object[] values = new Object[propNames.length];
+				for (int i = 0; i < propNames.length; i++) {
+					values[i] = local.getProperty(obj, propNames[i]);
+				}
+				return values;
+			}
+		};
+		final List<RenderStats> renders = new ArrayList<RenderStats>();
+		TinyVelocityEngine engine = new TinyVelocityEngine();
+		engine.setRenderListener(new RenderListener() {
+			public void renderStarted(RenderStats stats) {
+			}
+
+			public void renderCompleted(RenderStats stats) {
+				renders.add(stats);
+			}
+
+			public void renderFailed(RenderStats stats, Throwable error) {
+			}
+
+			public void templateCacheAccess(String templateName, boolean hit, long compileNanos) {
+			}
+		});
+		StringBuilder big = new StringBuilder();
+		for (int i = 0; i < 20000; i++) {
+			big.append("line ").append(i).append(" ${title}\n");
+		}
+		big.append("#foreach($i in $items)\n${i}\n#end\n");
+		StringBuilder out = new StringBuilder();
+		engine.parse(new StringReader(big.toString()), provider, out);
+
+		assertEquals(engine.parse(big.toString(), local), out.toString());
+		assertEquals(Arrays.asList("[title]", "[items]"), fetches);
+		assertEquals(2, renders.size());
+		assertEquals(out.length(), renders.get(0).getChars());
+		assertEquals(2, renders.get(0).getLoopIterations());
+	}
+
+	@Test
+	public void testProviderSubclassOverridesGetProperty(){
+		TreeMap<String, Object> user = new TreeMap<String, Object>();
+		user.put("name", "joe");
+		TreeMap<String, Object> model = new TreeMap<String, Object>();
+		model.put("users", Arrays.asList(user, user));
+		String template = "#foreach($u in $users)\n" +
+						  "${u.name} ${u.alias}\n" +
+						  "#end";
+		// warm the inline caches with the plain provider first
+		assertEquals("joe ${u.alias}\r\njoe ${u.alias}\r\n", engine.parse(template, new TreeMapValuesProvider(model)));
+		TreeMapValuesProvider aliasing = new TreeMapValuesProvider(model) {
+			@Override
+			public Object getProperty(Object obj, String propName) {
+				return super.getProperty(obj, propName.equals("alias") ? "name" : propName);
+			}
+		};
+		assertEquals("joe joe\r\njoe joe\r\n", engine.parse(template, aliasing));
+
+		TreeMap<String, Object> root = new TreeMap<String, Object>();
+		root.put("m", new ModelGetters());
+		CompiledTemplate pojo = engine.compile("${m.var} ${m.var2}");
+		assertEquals("10 yyy\r\n", pojo.render(new POJOValuesProvider(root)));
+		POJOValuesProvider filtering = new POJOValuesProvider(root) {
+			@Override
+			public Object getProperty(Object obj, String propName) {
+				return propName.equals("var2") ? null : super.getProperty(obj, propName);
+			}
+		};
+		assertEquals("10 ${m.var2}\r\n", pojo.render(filtering));
+	}
+
+	@Test
+	public void testProviderSubclassOverridesGetObjectAsString(){
+		TreeMap<String, Object> model = new TreeMap<String, Object>();
+		model.put("prices", new double[]{1.5, 2});
+		String template = "#foreach($p in $prices)\n" +
+						  "${p}\n" +
+						  "#end";
+		assertEquals("1.5\r\n2.0\r\n", engine.parse(template, new TreeMapValuesProvider(model)));
+		TreeMapValuesProvider currency = new TreeMapValuesProvider(model) {
+			@Override
+			public String getObjectAsString(Object obj) {
+				return obj instanceof Double ? "$" + obj : super.getObjectAsString(obj);
+			}
+		};
+		assertEquals("$1.5\r\n$2.0\r\n", engine.parse(template, currency));
+
+		TreeMap<String, Object> root = new TreeMap<String, Object>();
+		root.put("prices", new double[]{1.5, 2});
+		assertEquals("$1.5\r\n$2.0\r\n", engine.parse(template, new POJOValuesProvider(root) {
+			@Override
+			public String getObjectAsString(Object obj) {
+				return obj instanceof Double ? "$" + obj : super.getObjectAsString(obj);
+			}
+		}));
+	}
 
 }